@@ -9,6 +9,7 @@ import java.util.Objects;
 public class TestBlock {
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 
         Test.__BEGIN_TEST("bitcoffee.Block");
 
@@ -103,5 +104,69 @@ public class TestBlock {
         Test.check("ComputeNewBits","","80df6217", Kit.bytesToHexString(new_bits));
         Test.__END_TEST();
 
+        ////////////////////////////////////////////////////////////////
+
+        Test.__BEGIN_TEST("Midstate header hashing and mining");
+        var genesis = Block.parseSerial(Kit.hexStringToByteArray(Block.GENESIS_BLOCK));
+        var nonce_bytes = Objects.requireNonNull(genesis).getNonce();
+        int nonce = (nonce_bytes[0] & 0xff) | (nonce_bytes[1] & 0xff) << 8 | (nonce_bytes[2] & 0xff) << 16 | (nonce_bytes[3] & 0xff) << 24;
+        var midstate_hash = Kit.reverseBytes(genesis.headerHasher().hash(nonce));
+        Test.check("midstate hash","genesis block",genesis.getHashHexString(),Kit.bytesToHexString(midstate_hash));
+        Test.check("genesis PoW","",true,genesis.checkPoW());
+        Test.check("wrong nonce PoW","",false,genesis.withNonce(nonce+1).checkPoW());
+
+        // about 2^16 hashes for a 0x1f00ffff target
+        var template = new Block(genesis.getVersion(),genesis.hash(),genesis.getMerkle_root(),genesis.getTimestamp()+600,
+                Kit.hexStringToByteArray("ffff001f"),new byte[4]);
+        var miner = new Miner(template,2);
+        var mined = miner.mine();
+        Test.check("mined block PoW","",true,mined!=null && mined.checkPoW());
+        System.out.println("Mined nonce: "+Kit.bytesToHexString(Objects.requireNonNull(mined).getNonce())+", hashes: "+miner.getHashes()
+                +", hash rate: "+(long)miner.getHashesPerSecond()+" H/s");
+
+        // about 2^32 hashes for a 0x1d00ffff target: stopped or interrupted long before
+        var hard = new Block(genesis.getVersion(),genesis.hash(),genesis.getMerkle_root(),genesis.getTimestamp()+600,
+                Kit.hexStringToByteArray("ffff001d"),new byte[4]);
+        var hard_miner = new Miner(hard,2);
+        var stopped = new Block[] {hard};
+        var stop_caller = new Thread(() -> stopped[0] = hard_miner.mine());
+        stop_caller.start();
+        sleep(200);
+        hard_miner.stop();
+        join(stop_caller);
+        Test.check("stopped mining","",true,!stop_caller.isAlive() && stopped[0]==null && !minerAlive());
+
+        var interrupted = new boolean[] {false};
+        var interrupt_caller = new Thread(() -> {
+            stopped[0] = new Miner(hard,2).mine();
+            interrupted[0] = Thread.currentThread().isInterrupted();
+        });
+        interrupt_caller.start();
+        sleep(200);
+        interrupt_caller.interrupt();
+        join(interrupt_caller);
+        Test.check("interrupted mining","",true,!interrupt_caller.isAlive() && stopped[0]==null && interrupted[0] && !minerAlive());
+        Test.__END_TEST();
+    }
+
+    // true if a worker thread of a Miner is still running
+    private static boolean minerAlive() {
+        return Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().startsWith("miner-") && t.isAlive());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join(10000);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
     }
 }
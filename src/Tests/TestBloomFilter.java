@@ -11,6 +11,7 @@ import bitcoffee.*;
 public class TestBloomFilter {
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 
         Test.__BEGIN_TEST("Bloom filter");
         var items = new ArrayList<String>();
@@ -60,6 +61,29 @@ public class TestBloomFilter {
 
         bloom.add("Goodbye!");
         Test.check("filterload()","", Kit.bytesToHexString(bloom.filterLoad().getPayload()),"0a4000600a080000010940050000006300000001");
+        Test.check("contains()","",true,bloom.contains("Hello World") && bloom.contains("Goodbye!"));
+        Test.check("contains() missing item","",false,bloom.contains("Hello Moon"));
+
+        var hello = Kit.asciiStringToBytes("Hello World");
+        var framed_hello = Kit.asciiStringToBytes("xHello World");
+        Test.check("int murmur3 on a slice","",Murmur3.hash_x86_32(hello,hello.length,99).longValue(),
+                Integer.toUnsignedLong(Murmur3.hash32(framed_hello,1,hello.length,99)));
+
+        // BIP37 sizing: 10000 elements at 0.01% false positives
+        var sized = BloomFilter.create(10000,0.0001,0);
+        Test.check("create() size","",23962,sized.getSize());
+        Test.check("create() function count","",13,sized.getFunctionCount());
+        for (int i=0;i<10000;i++)
+            sized.add(Kit.hash160(Kit.intToLittleEndianBytes(i)));
+        int false_positives = 0;
+        for (int i=10000;i<20000;i++)
+            if (sized.contains(Kit.hash160(Kit.intToLittleEndianBytes(i)))) false_positives++;
+        Test.check("all items found","",true,sized.contains(Kit.hash160(Kit.intToLittleEndianBytes(1234))));
+        Test.check("false positives","found "+false_positives+" of 10000",true,false_positives<10);
+
+        var loaded = BloomFilter.parseFilterLoad(bloom.serializeFilterLoad());
+        Test.check("parseFilterLoad()","",bloom.getBitField(),loaded.getBitField());
+        Test.check("parsed filter contains()","",true,loaded.contains("Goodbye!"));
 
 
         var hex_msg = "020300000030eb2540c41025690160a1014c577061596e32e426b712c7ca00000000000000030000001049847939585b0652fba793661c361223446b6fc41089b8be00000000000000";
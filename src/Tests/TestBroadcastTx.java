@@ -7,6 +7,7 @@ import java.util.Stack;
 
 public class TestBroadcastTx {
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 
         System.out.println("---------------------------------------------");
         System.out.println(">> Testing Transaction to be broadcasted in Testnet");
@@ -5,6 +5,7 @@ import bitcoffee.*;
 
 public class TestCoinbase {
     public static void main(String[] args) throws IOException {
+        Tx.setStrictParse(true);
 
 
         System.out.println("---------------------------------------------------");
@@ -2,6 +2,7 @@ package Tests;
 
 import bitcoffee.FieldElement;
 import bitcoffee.FieldElementPoint;
+import bitcoffee.Tx;
 
 import java.math.BigInteger;
 
@@ -9,6 +10,7 @@ public class TestFF {
     // Finite Field tests
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 
         Test.__BEGIN_TEST("Finite Field");
 
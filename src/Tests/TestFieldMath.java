@@ -7,6 +7,7 @@ import java.math.BigInteger;
 public class TestFieldMath {
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 	// write your code here
 
         Test.__BEGIN_TEST("FIELD ELEMENT");
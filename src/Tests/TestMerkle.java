@@ -8,6 +8,7 @@ import java.util.Objects;
 public class TestMerkle {
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 
         Test.__BEGIN_TEST("Merkle");
 
@@ -157,6 +158,118 @@ public class TestMerkle {
         Test.check("getMerkleRoot","",root,(Kit.reverseByteString(mb.getMerkle_root())));
         var flag_bytes = Kit.hexStringToByteArray("b55635");
         Test.check("flags","",mb.getFlags(),"b55635");
+        Test.check("getPayload()","",block_raw,Kit.bytesToHexString(mb.getPayload()));
+        Test.__END_TEST();
+
+        test_filtered_block();
+        test_compact_filter();
+    }
+
+    // BIP37 server side: filter matching and merkleblock generation
+    public static void test_filtered_block() {
+        Test.__BEGIN_TEST("bitcoffee.MerkleBlock fromBlock()");
+        var h160 = Kit.hash160(Kit.asciiStringToBytes("watched key"));
+        var other_h160 = Kit.hash160(Kit.asciiStringToBytes("other key"));
+
+        var txs = new ArrayList<Tx>();
+        for (int i=0;i<7;i++) {
+            var ins = new ArrayList<TxIn>();
+            var outs = new ArrayList<TxOut>();
+            if (i==4) {
+                // spends the watched output of tx 1
+                ins.add(new TxIn(Kit.hexStringToByteArray(txs.get(1).getId()),0,new byte[0]));
+            }
+            else ins.add(new TxIn(Kit.hash256("coin "+i),i,new byte[0]));
+            outs.add(new TxOut(1000+i,new P2PKHScriptPubKey(i==1 ? h160 : other_h160).rawSerialize()));
+            txs.add(new Tx(1,ins,outs,0,false));
+        }
+
+        var txids = new ArrayList<String>();
+        for (Tx tx:txs)
+            txids.add(Kit.bytesToHexString(tx.hash()));
+        var root = Kit.reverseBytes(Kit.hexStringToByteArray(MerkleTree.merkleRoot(txids)));
+        var block = new Block(1,new byte[32],root,1600000000,Kit.hexStringToByteArray("ffff001d"),new byte[4]);
+
+        var filter = new BloomFilter(100,5,12345);
+        filter.add(h160);
+        var mb = MerkleBlock.fromBlock(block,txs,filter);
+
+        Test.check("matched txs","",2,mb.getMatchedTxs().size());
+        Test.check("matched spending tx","",txs.get(4).getId(),mb.getMatchedTxs().get(1).getId());
+        Test.check("tx hashes","",true,mb.getTx_hashes().contains(txs.get(1).getId()) && mb.getTx_hashes().contains(txs.get(4).getId()));
+        Test.check("merkle proof","",true,mb.isValid());
+        var parsed = MerkleBlock.parseSerial(mb.getPayload());
+        Test.check("serialization round trip","",Kit.bytesToHexString(mb.getPayload()),Kit.bytesToHexString(Objects.requireNonNull(parsed).getPayload()));
+        Test.check("parsed merkle proof","",true,parsed.isValid());
+        Test.__END_TEST();
+    }
+
+    // BIP158 basic filter of the testnet genesis block (BIP158 test vector)
+    public static void test_compact_filter() {
+        Test.__BEGIN_TEST("bitcoffee.GCSFilter");
+        var coinbase = Tx.parse(Kit.hexStringToByteArray("01000000010000000000000000000000000000000000000000000000000000000000000000ffffffff4d04ffff001d0104455468652054696d65732030332f4a616e2f32303039204368616e63656c6c6f72206f6e206272696e6b206f66207365636f6e64206261696c6f757420666f722062616e6b73ffffffff0100f2052a01000000434104678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac00000000"),true);
+        var block = Block.parseSerial(Kit.hexStringToByteArray(Block.TESTNET_GENESIS_BLOCK));
+        var txs = new ArrayList<Tx>();
+        txs.add(coinbase);
+
+        var filter = GCSFilter.basic(block,txs,new ArrayList<>());
+        Test.check("genesis filter","","019dfca8",Kit.bytesToHexString(filter.serialize()));
+        var header = filter.header(new byte[32]);
+        Test.check("genesis filter header","","21584579b7eb08997773e5aeff3a7f932700042d0ed2a6129012b7d7ae81b750",Kit.bytesToHexString(Kit.reverseBytes(header)));
+
+        var script = coinbase.getTxOuts().get(0).getScriptPubkeyBytes();
+        var parsed = GCSFilter.parseBasic(block.hash(),filter.serialize());
+        Test.check("match","",true,parsed.match(script));
+        Test.check("no match","",false,parsed.match(Kit.asciiStringToBytes("not in the filter")));
+
+        var elements = new ArrayList<byte[]>();
+        for (int i=0;i<200;i++)
+            elements.add(Kit.hash256("element "+i));
+        var big = GCSFilter.build(GCSFilter.BASIC_P,GCSFilter.BASIC_M,new byte[16],elements);
+        var all_found = true;
+        for (byte[] e:elements)
+            all_found &= big.match(e);
+        Test.check("all elements match","",true,all_found);
+        var wallet = new ArrayList<byte[]>();
+        for (int i=0;i<50;i++)
+            wallet.add(Kit.hash256("wallet "+i));
+        Test.check("wallet not matched","",false,big.matchAny(wallet));
+        wallet.add(elements.get(137));
+        Test.check("wallet matched","",true,big.matchAny(wallet));
+
+        try {
+            var dir = java.nio.file.Files.createTempDirectory("filters");
+            byte[] last;
+            try (var store = new BlockFilterStore(dir)) {
+                store.append(filter);
+                store.append(big);
+                last = store.getLastHeader();
+            }
+            try (var store = new BlockFilterStore(dir)) {
+                Test.check("store size","",2,store.size());
+                Test.check("store filter","","019dfca8",Kit.bytesToHexString(store.getFilterBytes(0)));
+                Test.check("store header","",Kit.bytesToHexString(header),Kit.bytesToHexString(store.getHeader(0)));
+                Test.check("store header chain","",Kit.bytesToHexString(big.header(header)),Kit.bytesToHexString(last));
+                Test.check("store filter 1","",Kit.bytesToHexString(big.serialize()),Kit.bytesToHexString(store.getFilterBytes(1)));
+            }
+            // torn write: the last record loses its tail, its index entry is still there
+            try (var ch = java.nio.channels.FileChannel.open(dir.resolve("filters.dat"),java.nio.file.StandardOpenOption.WRITE)) {
+                ch.truncate(ch.size()-5);
+            }
+            try (var store = new BlockFilterStore(dir)) {
+                Test.check("torn record dropped","",1,store.size());
+                Test.check("torn index cut","",8L,java.nio.file.Files.size(dir.resolve("filters.idx")));
+                Test.check("torn last header","",Kit.bytesToHexString(header),Kit.bytesToHexString(store.getLastHeader()));
+                Test.check("append after torn","",1,store.append(big));
+            }
+            try (var store = new BlockFilterStore(dir)) {
+                Test.check("store size after torn","",2,store.size());
+                Test.check("filter after torn","",Kit.bytesToHexString(big.serialize()),Kit.bytesToHexString(store.getFilterBytes(1)));
+                Test.check("header after torn","",Kit.bytesToHexString(last),Kit.bytesToHexString(store.getHeader(1)));
+            }
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+        }
         Test.__END_TEST();
     }
 }
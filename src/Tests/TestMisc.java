@@ -7,6 +7,7 @@ import java.math.BigInteger;
 public class TestMisc {
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 
         // from hex string to bytes:
 
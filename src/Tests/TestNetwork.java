@@ -9,6 +9,7 @@ import java.util.Objects;
 public class TestNetwork {
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
         /*\
         Tests.Test.__BEGIN_NOTES("Testing bitcoffee.NetworkEnvelope");
 
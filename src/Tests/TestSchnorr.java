@@ -0,0 +1,208 @@
+package Tests;
+
+import bitcoffee.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Random;
+
+public class TestSchnorr {
+
+    public static void main(String[] args) {
+        Tx.setStrictParse(true);
+        test_bip340_vectors();
+        test_batch_verify();
+        test_taproot_address();
+        test_taproot_key_path();
+        test_bip341_sighash();
+    }
+
+    // a subset of the BIP340 test vectors: {secret, public key, aux_rand, message, signature}
+    private static final String[][] VECTORS = {
+            {"0000000000000000000000000000000000000000000000000000000000000003",
+                    "F9308A019258C31049344F85F89D5229B531C845836F99B08601F113BCE036F9",
+                    "0000000000000000000000000000000000000000000000000000000000000000",
+                    "0000000000000000000000000000000000000000000000000000000000000000",
+                    "E907831F80848D1069A5371B402410364BDF1C5F8307B0084C55F1CE2DCA821525F66A4A85EA8B71E482A74F382D2CE5EBEEE8FDB2172F477DF4900D310536C0"},
+            {"B7E151628AED2A6ABF7158809CF4F3C762E7160F38B4DA56A784D9045190CFEF",
+                    "DFF1D77F2A671C5F36183726DB2341BE58FEAE1DA2DECED843240F7B502BA659",
+                    "0000000000000000000000000000000000000000000000000000000000000001",
+                    "243F6A8885A308D313198A2E03707344A4093822299F31D0082EFA98EC4E6C89",
+                    "6896BD60EEAE296DB48A229FF71DFE071BDE413E6D43F917DC8DCF8C78DE33418906D11AC976ABCCB20B091292BFF4EA897EFCB639EA871CFA95F6DE339E4B0A"},
+            {"0B432B2677937381AEF05BB02A66ECD012773062CF3FA2549E44F58ED2401710",
+                    "25D1DFF95105F5253C4022F628A996AD3A0D95FBF21D468A1B33F8C160D8F517",
+                    "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF",
+                    "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF",
+                    "7EB0509757E246F19449885651611CB965ECC1A187DD51B64FDA1EDC9637D5EC97582B9CB13DB3933705B32BA982AF5AF25FD78881EBB32771FC5922EFC66EA3"},
+    };
+
+    public static void test_bip340_vectors() {
+        Test.__BEGIN_TEST("BIP340 Schnorr signatures");
+        for (int i=0;i<VECTORS.length;i++) {
+            var v = VECTORS[i];
+            var pk = new PrivateKey(Kit.hexStringToByteArray(v[0]));
+            var pubkey = Kit.hexStringToByteArray(v[1]);
+            var msg = Kit.hexStringToByteArray(v[3]);
+            var desc = "secret:"+v[0]+"\nmessage:"+v[3];
+
+            Test.check("vector "+i+" x-only key",desc,v[1].toLowerCase(),Kit.bytesToHexString(pk.point.xOnly()));
+            var sig = pk.signSchnorr(msg,Kit.hexStringToByteArray(v[2]));
+            Test.check("vector "+i+" sign",desc,v[4].toLowerCase(),Kit.bytesToHexString(sig.serialize()));
+            var parsed = SchnorrSignature.parse(Kit.hexStringToByteArray(v[4]));
+            Test.check("vector "+i+" verify",desc,true,SchnorrSignature.verify(pubkey,msg,parsed));
+        }
+
+        // public key not on the curve (vector 5)
+        var pubkey = Kit.hexStringToByteArray("EEFDEA4CDB677750A420FEE807EACF21EB9898AE79B9768766E4FAA04A2D4A34");
+        var msg = Kit.hexStringToByteArray(VECTORS[1][3]);
+        var sig = SchnorrSignature.parse(Kit.hexStringToByteArray(VECTORS[1][4]));
+        Test.check("invalid public key","",false,SchnorrSignature.verify(pubkey,msg,sig));
+        // wrong message
+        msg[0] ^= 1;
+        Test.check("wrong message","",false,SchnorrSignature.verify(Kit.hexStringToByteArray(VECTORS[1][1]),msg,sig));
+        Test.__END_TEST();
+    }
+
+    public static void test_batch_verify() {
+        Test.__BEGIN_TEST("BIP340 batch verification");
+        var rnd = new Random(340);
+        int u = 8;
+        var pubkeys = new byte[u][];
+        var msgs = new byte[u][];
+        var sigs = new SchnorrSignature[u];
+        for (int i=0;i<u;i++) {
+            var pk = new PrivateKey(new BigInteger(256,rnd).mod(Secp256k1.N));
+            msgs[i] = Kit.hash256("batch message "+i);
+            pubkeys[i] = pk.point.xOnly();
+            sigs[i] = pk.signSchnorr(msgs[i]);
+        }
+        Test.check("valid batch","",true,SchnorrSignature.verifyBatch(pubkeys,msgs,sigs));
+        // swap two messages
+        var tmp = msgs[2];
+        msgs[2] = msgs[5];
+        msgs[5] = tmp;
+        Test.check("invalid batch","",false,SchnorrSignature.verifyBatch(pubkeys,msgs,sigs));
+        Test.__END_TEST();
+    }
+
+    public static void test_taproot_address() {
+        Test.__BEGIN_TEST("P2TR key path output");
+        // BIP86 test vector, m/86'/0'/0'/0/0
+        var internal_key = S256Point.liftX(Kit.hexStringToByteArray("cc8a4bc64d897bddc5fbc2f670f7a8ba0b386779106cf1223c6fc5d7cd6fc115"));
+        var script_pubkey = P2TRScriptPubKey.fromInternalKey(internal_key,null);
+        Test.check("output key","BIP86",
+                "a60869f0dbcf1dc659c9cecbaf8050135ea9e8cdc487053f1dc6880949dc684c",Kit.bytesToHexString(script_pubkey.getOutputKey()));
+        Test.check("address","BIP86",
+                "bc1p5cyxnuxmeuwuvkwfem96lqzszd02n6xdcjrs20cac6yqjjwudpxqkedrcr",script_pubkey.getAddress(false));
+        var parsed = ScriptPubKey.parse(script_pubkey.rawSerialize());
+        Test.check("parse","BIP86",true,parsed instanceof P2TRScriptPubKey);
+        Test.__END_TEST();
+    }
+
+    public static void test_taproot_key_path() {
+        Test.__BEGIN_TEST("P2TR key path spending");
+        var pk = new PrivateKey(new BigInteger("8675309"));
+        var script_pubkey = P2TRScriptPubKey.fromInternalKey(pk.point,null).rawSerialize();
+        var tweaked = pk.tweakTaproot(null);
+        Test.check("tweaked key","",Kit.bytesToHexString(new Script(script_pubkey).getCommands().elementAt(0).value),
+                Kit.bytesToHexString(tweaked.point.xOnly()));
+
+        // funding transaction, made known to the fetcher so that the test runs offline
+        var funding_ins = new ArrayList<TxIn>();
+        funding_ins.add(new TxIn(new byte[32],0xffffffffL,new byte[0]));
+        var funding_outs = new ArrayList<TxOut>();
+        funding_outs.add(new TxOut(100000,script_pubkey));
+        funding_outs.add(new TxOut(50000,script_pubkey));
+        var funding = new Tx(1,funding_ins,funding_outs,0,true);
+        TxFetcher.add(funding);
+
+        var prev_tx = Kit.hexStringToByteArray(funding.getId());
+        var tx_ins = new ArrayList<TxIn>();
+        tx_ins.add(new TxIn(prev_tx,0,new byte[0]));
+        tx_ins.add(new TxIn(prev_tx,1,new byte[0]));
+        var tx_outs = new ArrayList<TxOut>();
+        tx_outs.add(new TxOut(140000,script_pubkey));
+        var tx = new Tx(2,tx_ins,tx_outs,0,true,true);
+
+        // input 0 with SIGHASH_DEFAULT, input 1 with SIGHASH_ALL|SIGHASH_ANYONECANPAY
+        var sig0 = tweaked.signSchnorr(tx.getSigHashBIP341(0,0,null)).serialize();
+        var sig1 = Kit.concatBytes(tweaked.signSchnorr(tx.getSigHashBIP341(1,0x81,null)).serialize(),new byte[]{(byte)0x81});
+        var witness0 = new ArrayList<byte[]>();
+        witness0.add(sig0);
+        tx_ins.get(0).setWitnessData(witness0);
+        var witness1 = new ArrayList<byte[]>();
+        witness1.add(sig1);
+        tx_ins.get(1).setWitnessData(witness1);
+        Test.check("verify default hash type","",true,tx.verifyInput(0));
+        Test.check("verify anyonecanpay","",true,tx.verifyInput(1));
+
+        // the hash type is committed to: same signature with an explicit SIGHASH_ALL
+        witness0.set(0,Kit.concatBytes(sig0,new byte[]{1}));
+        tx_ins.get(0).setWitnessData(witness0);
+        Test.check("wrong hash type","",false,tx.verifyInput(0));
+        // an explicit SIGHASH_DEFAULT is invalid
+        witness0.set(0,Kit.concatBytes(sig0,new byte[]{0}));
+        tx_ins.get(0).setWitnessData(witness0);
+        Test.check("explicit default hash type","",false,tx.verifyInput(0));
+        // the untweaked key can't spend
+        witness0.set(0,pk.signSchnorr(tx.getSigHashBIP341(0,0,null)).serialize());
+        tx_ins.get(0).setWitnessData(witness0);
+        Test.check("untweaked key","",false,tx.verifyInput(0));
+        Test.check("untweaked key error","",ScriptError.SCHNORR_SIG,tx.checkInput(0));
+        // a script and a control block: script path spending
+        var script_path = new ArrayList<byte[]>();
+        script_path.add(new byte[]{0x51});
+        script_path.add(Kit.concatBytes(new byte[]{(byte) 0xc0},pk.point.xOnly()));
+        tx_ins.get(0).setWitnessData(script_path);
+        Test.check("script path unsupported","",ScriptError.UNSUPPORTED,tx.checkInput(0));
+        // a valid signature with a scriptsig
+        tx_ins.set(1,new TxIn(prev_tx,1,new byte[]{0x51}));
+        tx_ins.get(1).setWitnessData(witness1);
+        Test.check("scriptsig with witness v1","",ScriptError.WITNESS_MALLEATED,tx.checkInput(1));
+        Test.__END_TEST();
+    }
+
+    // BIP341 wallet test vectors, keyPathSpending: the unsigned tx, the outputs it spends
+    // and the sigHash of the inputs signed with every hash type
+    private static final String BIP341_TX = "02000000097de20cbff686da83a54981d2b9bab3586f4ca7e48f57f5b55963115f3b334e9c010000000000000000d7b7cab57b1393ace2d064f4d4a2cb8af6def61273e127517d44759b6dafdd990000000000fffffffff8e1f583384333689228c5d28eac13366be082dc57441760d957275419a418420000000000fffffffff0689180aa63b30cb162a73c6d2a38b7eeda2a83ece74310fda0843ad604853b0100000000feffffffaa5202bdf6d8ccd2ee0f0202afbbb7461d9264a25e5bfd3c5a52ee1239e0ba6c0000000000feffffff956149bdc66faa968eb2be2d2faa29718acbfe3941215893a2a3446d32acd050000000000000000000e664b9773b88c09c32cb70a2a3e4da0ced63b7ba3b22f848531bbb1d5d5f4c94010000000000000000e9aa6b8e6c9de67619e6a3924ae25696bb7b694bb677a632a74ef7eadfd4eabf0000000000ffffffffa778eb6a263dc090464cd125c466b5a99667720b1c110468831d058aa1b82af10100000000ffffffff0200ca9a3b000000001976a91406afd46bcdfd22ef94ac122aa11f241244a37ecc88ac807840cb0000000020ac9a87f5594be208f8532db38cff670c450ed2fea8fcdefcc9a663f78bab962b0065cd1d";
+    private static final String[][] BIP341_UTXOS = {
+            {"512053a1f6e454df1aa2776a2814a721372d6258050de330b3c6d10ee8f4e0dda343","420000000"},
+            {"5120147c9c57132f6e7ecddba9800bb0c4449251c92a1e60371ee77557b6620f3ea3","462000000"},
+            {"76a914751e76e8199196d454941c45d1b3a323f1433bd688ac","294000000"},
+            {"5120e4d810fd50586274face62b8a807eb9719cef49c04177cc6b76a9a4251d5450e","504000000"},
+            {"512091b64d5324723a985170e4dc5a0f84c041804f2cd12660fa5dec09fc21783605","630000000"},
+            {"00147dd65592d0ab2fe0d0257d571abf032cd9db93dc","378000000"},
+            {"512075169f4001aa68f15bbed28b218df1d0a62cbbcf1188c6665110c293c907b831","672000000"},
+            {"5120712447206d7a5238acc7ff53fbe94a3b64539ad291c7cdbc490b7577e4b17df5","546000000"},
+            {"512077e30a5522dd9f894c3f8b8bd4c4b2cf82ca7da8a3ea6a239655c39c050ab220","588000000"},
+    };
+    // {input, hash type, sigHash}
+    private static final String[][] BIP341_SIGHASHES = {
+            {"0","03","2514a6272f85cfa0f45eb907fcb0d121b808ed37c6ea160a5a9046ed5526d555"},
+            {"1","83","325a644af47e8a5a2591cda0ab0723978537318f10e6a63d4eed783b96a71a4d"},
+            {"3","01","bf013ea93474aa67815b1b6cc441d23b64fa310911d991e713cd34c7f5d46669"},
+            {"4","00","4f900a0bae3f1446fd48490c2958b5a023228f01661cda3496a11da502a7f7ef"},
+            {"6","02","15f25c298eb5cdc7eb1d638dd2d45c97c4c59dcaec6679cfc16ad84f30876b85"},
+            {"7","82","cd292de50313804dabe4685e83f923d2969577191a3e1d2882220dca88cbeb10"},
+            {"8","81","cccb739eca6c13a8a89e6e5cd317ffe55669bbda23f2fd37b0f18755e008edd2"},
+    };
+
+    public static void test_bip341_sighash() {
+        Test.__BEGIN_TEST("BIP341 signature hash");
+        var tx = Tx.parse(Kit.hexStringToByteArray(BIP341_TX),false);
+        var utxos = new MemoryUtxoView();
+        for (int i=0;i<BIP341_UTXOS.length;i++) {
+            var tx_in = tx.getTxIns().get(i);
+            utxos.add(tx_in.getPrevTxId(),tx_in.getPrevIndex(),
+                    new TxOut(Long.parseLong(BIP341_UTXOS[i][1]),Kit.hexStringToByteArray(BIP341_UTXOS[i][0])));
+        }
+        Test.check("spent outputs","",true,tx.loadPrevouts(utxos));
+        for (var v: BIP341_SIGHASHES) {
+            int input = Integer.parseInt(v[0]);
+            int hash_type = Integer.parseInt(v[1],16);
+            Test.check("input "+input+" hash type "+v[1],"",v[2],
+                    Kit.bytesToHexString(tx.getSigHashBIP341(input,hash_type,null)));
+        }
+        Test.__END_TEST();
+    }
+}
@@ -1,18 +1,40 @@
 package Tests;
 
+import bitcoffee.Block;
+import bitcoffee.FileUtxoView;
+import bitcoffee.HttpUtxoView;
 import bitcoffee.Kit;
+import bitcoffee.MemoryUtxoView;
+import bitcoffee.P2PKHScriptPubKey;
+import bitcoffee.PrivateKey;
 import bitcoffee.Script;
 import bitcoffee.ScriptCmd;
+import bitcoffee.ScriptError;
+import bitcoffee.ScriptInterpreter;
+import bitcoffee.ScriptProgram;
+import bitcoffee.SignatureCache;
+import bitcoffee.TemplateVerifier;
+import bitcoffee.Tx;
+import bitcoffee.TxFetcher;
+import bitcoffee.TxIn;
+import bitcoffee.TxOut;
+import bitcoffee.UtxoStore;
+import bitcoffee.UtxoView;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
 
 public class TestScript {
 
     @SuppressWarnings("ConstantConditions")
     public static void main(String[] args) throws IOException {
+        Tx.setStrictParse(true);
         System.out.println("---------------------------------------------------");
         System.out.println("Testing encode_num:");
 
@@ -86,6 +108,39 @@ public class TestScript {
         System.out.println(combined_script);
         System.out.println("--> Result: " +combined_script.evaluate(z));
 
+        System.out.println("----------------------------------------------------");
+        System.out.println("Testing signature cache");
+        var cache = SignatureCache.getInstance();
+        var hits = cache.getHits();
+        var stack = new Stack<byte[]>();
+        stack.push(sig);
+        stack.push(sec);
+        ScriptCmd.OP_CHECKSIG(stack,z);
+        System.out.println("cached signature verified: "+Arrays.equals(stack.pop(),Script.encodeNum(1))
+                +" hit counted: "+(cache.getHits()==hits+1));
+        // a different z must not hit the cache
+        var z2 = Kit.hash256(z);
+        stack.push(sig);
+        stack.push(sec);
+        ScriptCmd.OP_CHECKSIG(stack,z2);
+        System.out.println("other z rejected: "+Arrays.equals(stack.pop(),Script.encodeNum(0)));
+        System.out.println(cache);
+        // past max_entries the victims are random: most of the last entries are still there
+        var small_cache = new SignatureCache(1000);
+        for (int i=0;i<200000;i++)
+            small_cache.add(Kit.intToLittleEndianBytes(i),sec,sig);
+        for (int i=0;i<50;i++)
+            small_cache.add(Kit.intToLittleEndianBytes(200000+i),sec,sig);
+        int recent = 0;
+        for (int i=199800;i<200000;i++)
+            if (small_cache.contains(Kit.intToLittleEndianBytes(i),sec,sig)) recent++;
+        System.out.println("full cache keeps recent entries: "+(small_cache.size()==1000 && recent>150));
+        // the same bytes as a schnorr entry are another key
+        var typed_cache = new SignatureCache(10);
+        typed_cache.add(z,sec,sig);
+        System.out.println("signature types apart: "+(typed_cache.contains(z,sec,sig)
+                && !typed_cache.contains(SignatureCache.SCHNORR,z,sec,sig)));
+
         System.out.println("----------------------------------------------------");
         System.out.println(" Testing exercise 3 - chapter 6");
 
@@ -103,7 +158,308 @@ public class TestScript {
         var combined3 = new Script(script_pubkey3);
         combined3.addTop(script_sig3);
 
-        System.out.println("Result: "+combined3.evaluate(null));
+        // OP_MUL is disabled by consensus, the interpreter rejects the exercise script
+        System.out.println("OP_MUL disabled: "+(combined3.check(null)==ScriptError.DISABLED_OPCODE));
+
+        System.out.println("----------------------------------------------------");
+        System.out.println("Testing flat script program");
+        var p2pkh = new ScriptProgram(Kit.hexStringToByteArray("76a914bc3b654dca7e56b04dca18f2566cdaf02e8d9ada88ac"));
+        System.out.println("p2pkh template: "+(p2pkh.isP2pkh() && !p2pkh.isP2sh() && !p2pkh.isWitnessProgram()));
+        System.out.println("p2pkh instructions: "+(p2pkh.size()==5 && p2pkh.type(0)==ScriptCmd.Type.OP_DUP
+                && p2pkh.isPush(2) && p2pkh.dataLength(2)==20 && p2pkh.type(4)==ScriptCmd.Type.OP_CHECKSIG));
+        System.out.println("p2pkh hash160: "+Kit.bytesToHexString(p2pkh.hash160()).equals("bc3b654dca7e56b04dca18f2566cdaf02e8d9ada"));
+        System.out.println("same as Script: "+(p2pkh.toScript().isP2pkhScriptPubKey()
+                && Arrays.equals(p2pkh.toScript().rawSerialize(),p2pkh.getBytes())));
+
+        var p2wpkh = new ScriptProgram(Kit.hexStringToByteArray("0014"+"00".repeat(20)));
+        var p2tr = new ScriptProgram(Kit.hexStringToByteArray("5120"+"11".repeat(32)));
+        System.out.println("witness templates: "+(p2wpkh.isP2wpkh() && p2wpkh.witnessVersion()==0
+                && p2tr.isP2tr() && p2tr.witnessVersion()==1 && p2tr.witnessProgram().length==32));
+
+        // OP_0 <PUSHDATA1 3 bytes> OP_5, then a push of 5 bytes with only 2 left
+        var pushes = new ScriptProgram(Kit.hexStringToByteArray("004c03aabbcc55"));
+        System.out.println("push only: "+(pushes.isPushOnly() && pushes.size()==3 && pushes.dataLength(0)==0
+                && Kit.bytesToHexString(pushes.pushData(1)).equals("aabbcc") && pushes.pushData(2)==null));
+        var truncated = new ScriptProgram(Kit.hexStringToByteArray("5105aabb"));
+        System.out.println("truncated: "+(truncated.isTruncated() && truncated.size()==1 && !truncated.isPushOnly()));
+        System.out.println("opcode table: "+(ScriptCmd.Type.fromInt(0x51)==ScriptCmd.Type.OP_1
+                && ScriptCmd.Type.fromInt(0x14)==ScriptCmd.Type.DATA && ScriptCmd.Type.fromInt(0xac)==ScriptCmd.Type.OP_CHECKSIG));
+
+        System.out.println("----------------------------------------------------");
+        System.out.println("Testing script interpreter");
+        var engine = ScriptInterpreter.getInstance();
+        var none = ScriptInterpreter.fixedZ(null);
+        // 2 3 OP_ADD 5 OP_EQUAL
+        System.out.println("arithmetic: "+(engine.evaluate(program("52539355 87"),none)==ScriptError.OK));
+        // 0 OP_IF 1 OP_ELSE 0 OP_IF 0 OP_ELSE 1 OP_ENDIF OP_ENDIF
+        System.out.println("nested if: "+(engine.evaluate(program("00 63 51 67 00 63 00 67 51 68 68"),none)==ScriptError.OK));
+        // OP_1 OP_NOTIF OP_RETURN OP_ENDIF OP_1: the OP_RETURN is not executed
+        System.out.println("skipped branch: "+(engine.evaluate(program("51 64 6a 68 51"),none)==ScriptError.OK));
+        System.out.println("unbalanced if: "+(engine.evaluate(program("51 63 51"),none)==ScriptError.UNBALANCED_CONDITIONAL
+                && engine.evaluate(program("51 68"),none)==ScriptError.UNBALANCED_CONDITIONAL));
+        // OP_0 OP_IF OP_CAT OP_ENDIF OP_1: disabled even when not executed
+        System.out.println("disabled opcode: "+(engine.evaluate(program("00 63 7e 68 51"),none)==ScriptError.DISABLED_OPCODE));
+        System.out.println("bad opcode: "+(engine.evaluate(program("51 ba"),none)==ScriptError.BAD_OPCODE
+                && engine.evaluate(program("51 05 aabb"),none)==ScriptError.BAD_OPCODE));
+        System.out.println("errors: "+(engine.evaluate(program("6a"),none)==ScriptError.OP_RETURN
+                && engine.evaluate(program("76"),none)==ScriptError.INVALID_STACK_OPERATION
+                && engine.evaluate(program("00"),none)==ScriptError.EVAL_FALSE
+                && engine.evaluate(program("51 52 88"),none)==ScriptError.EQUALVERIFY));
+        // 5 bytes operand to OP_1ADD
+        System.out.println("number overflow: "+(engine.evaluate(program("05 0000000080 8b"),none)==ScriptError.SCRIPTNUM));
+        System.out.println("op count: "+(engine.evaluate(program("51"+" 61".repeat(201)),none)==ScriptError.OK
+                && engine.evaluate(program("51"+" 61".repeat(202)),none)==ScriptError.OP_COUNT));
+        // the pushes don't count as operations
+        System.out.println("stack size: "+(engine.evaluate(program("51".repeat(1000)),none)==ScriptError.OK
+                && engine.evaluate(program("51".repeat(1001)),none)==ScriptError.STACK_SIZE));
+        // 1 2 3 OP_2 OP_ROLL -> 2 3 1, 1 OP_PICK -> 2 3 1 3
+        System.out.println("roll and pick: "+(engine.evaluate(program("51 52 53 52 7a 51 79 53 88 51 88 53 88 52 87"),none)==ScriptError.OK));
+        System.out.println("script numbers: "+(ScriptInterpreter.decodeNum(ScriptInterpreter.encodeNum(-255))==-255
+                && Kit.bytesToHexString(ScriptInterpreter.encodeNum(-256)).equals("0081")
+                && Kit.bytesToHexString(ScriptInterpreter.encodeNum(128)).equals("8000")
+                && !ScriptInterpreter.castToBool(Kit.hexStringToByteArray("0080"))));
+
+        // p2pk with a checker on z: a valid and a tampered signature
+        var p2pk_sig = new ScriptProgram(Kit.concatBytes(new byte[]{(byte) sig.length},sig));
+        var p2pk_pubkey = program("41"+Kit.bytesToHexString(sec)+"ac");
+        System.out.println("p2pk: "+(engine.verify(p2pk_sig,p2pk_pubkey,null,ScriptInterpreter.fixedZ(z))==ScriptError.OK
+                && engine.verify(p2pk_sig,p2pk_pubkey,null,ScriptInterpreter.fixedZ(z2))==ScriptError.EVAL_FALSE));
+        // the same signature with an extra padding byte in r
+        var bad_der = Kit.hexStringToByteArray("304602210000eff69ef2b1bd93a66ed5219add4fb51e11a840f404876325a1e8ffe0529a2c022100c7207fee197d27c618aea621406f6bf5ef6fca38681d82b2f06fddbdce6feab601");
+        var bad_sig = new ScriptProgram(Kit.concatBytes(new byte[]{(byte) bad_der.length},bad_der));
+        System.out.println("strict der: "+(engine.verify(bad_sig,p2pk_pubkey,null,ScriptInterpreter.fixedZ(z))==ScriptError.SIG_DER));
+        // 1-of-1 multisig, then with a not empty dummy element
+        var multisig = program("51 41"+Kit.bytesToHexString(sec)+"51 ae");
+        var multisig_sig = new ScriptProgram(Kit.concatBytes(new byte[]{0,(byte) sig.length},sig));
+        var dummy_sig = new ScriptProgram(Kit.concatBytes(new byte[]{0x51,(byte) sig.length},sig));
+        System.out.println("multisig: "+(engine.verify(multisig_sig,multisig,null,ScriptInterpreter.fixedZ(z))==ScriptError.OK
+                && engine.verify(dummy_sig,multisig,null,ScriptInterpreter.fixedZ(z))==ScriptError.SIG_NULLDUMMY));
+        // 2 OP_CHECKLOCKTIMEVERIFY without a tx
+        System.out.println("locktime: "+(engine.evaluate(program("52 b1"),none)==ScriptError.UNSATISFIED_LOCKTIME
+                && engine.evaluate(program("4f b1"),none)==ScriptError.NEGATIVE_LOCKTIME));
+        // OP_HASH160 <hash160 of OP_1> OP_EQUAL spent by the push of the redeem script
+        var redeem = new byte[]{0x51};
+        var p2sh = program("a9 14"+Kit.bytesToHexString(Kit.hash160(redeem))+"87");
+        System.out.println("p2sh: "+(engine.verify(program("0151"),p2sh,null,none)==ScriptError.OK
+                && engine.verify(program("51 0151"),p2sh,null,none)==ScriptError.OK
+                && engine.verify(program("0152"),p2sh,null,none)==ScriptError.EVAL_FALSE
+                && engine.verify(program("51 76 0151"),p2sh,null,none)==ScriptError.SIG_PUSHONLY));
+        // p2wsh of OP_1 with the witness script alone on the witness
+        var p2wsh = new ScriptProgram(Kit.concatBytes(new byte[]{0,32},Kit.sha256(redeem)));
+        System.out.println("p2wsh: "+(engine.verify(program(""),p2wsh,List.of(redeem),none)==ScriptError.OK
+                && engine.verify(program(""),p2wsh,List.of(),none)==ScriptError.WITNESS_PROGRAM_WITNESS_EMPTY
+                && engine.verify(program(""),p2wsh,List.of(new byte[]{0x52}),none)==ScriptError.WITNESS_PROGRAM_MISMATCH
+                && engine.verify(program("51"),p2wsh,List.of(redeem),none)==ScriptError.WITNESS_MALLEATED
+                && engine.verify(program("51"),program("51"),List.of(redeem),none)==ScriptError.WITNESS_UNEXPECTED));
+
+        System.out.println("----------------------------------------------------");
+        System.out.println("Testing input verification");
+        var key = new PrivateKey(8675309);
+        var key_sec = Kit.hexStringToByteArray(key.point.SEC33());
+        var lock_script = Kit.hexStringToByteArray("52b17551"); // 2 OP_CHECKLOCKTIMEVERIFY OP_DROP OP_1
+        // funding tx, made known to the fetcher so that the test runs offline
+        var funding_ins = new ArrayList<TxIn>();
+        funding_ins.add(new TxIn(new byte[32],0xffffffffL,new byte[0]));
+        var funding_outs = new ArrayList<TxOut>();
+        funding_outs.add(new TxOut(30000,new P2PKHScriptPubKey(Kit.hash160(key_sec)).rawSerialize()));
+        funding_outs.add(new TxOut(20000,Kit.concatBytes(new byte[]{0,20},Kit.hash160(key_sec))));
+        funding_outs.add(new TxOut(10000,Kit.concatBytes(new byte[]{0,32},Kit.sha256(lock_script))));
+        var nested_redeem = Kit.concatBytes(new byte[]{0,20},Kit.hash160(key_sec));
+        funding_outs.add(new TxOut(5000,Kit.concatBytes(Kit.concatBytes(new byte[]{(byte) 0xa9,20},Kit.hash160(nested_redeem)),new byte[]{(byte) 0x87})));
+        var funding = new Tx(1,funding_ins,funding_outs,0,true);
+        TxFetcher.add(funding);
+
+        var funding_id = Kit.hexStringToByteArray(funding.getId());
+        var spend_ins = new ArrayList<TxIn>();
+        spend_ins.add(new TxIn(funding_id,0,new byte[0]));
+        spend_ins.add(new TxIn(funding_id,1,new byte[0]));
+        spend_ins.add(new TxIn(funding_id,2,new byte[0],Kit.hexStringToByteArray("fffffffe")));
+        spend_ins.add(new TxIn(funding_id,3,Kit.concatBytes(new byte[]{22},nested_redeem)));
+        var spend_outs = new ArrayList<TxOut>();
+        spend_outs.add(new TxOut(55000,funding_outs.get(0).getScriptPubkeyBytes()));
+        var spend = new Tx(1,spend_ins,spend_outs,10,true,true);
+
+        var p2wpkh_sig = Kit.hexStringToByteArray(key.signDeterminisk(spend.getSigHashBIP143(1,null,null)).DER()+"01");
+        var witness = new ArrayList<byte[]>();
+        witness.add(p2wpkh_sig);
+        witness.add(key_sec);
+        spend_ins.get(1).setWitnessData(witness);
+        var lock_witness = new ArrayList<byte[]>();
+        lock_witness.add(lock_script);
+        spend_ins.get(2).setWitnessData(lock_witness);
+        var nested_sig = Kit.hexStringToByteArray(key.signDeterminisk(
+                spend.getSigHashBIP143(3,new Script(nested_redeem),null)).DER()+"01");
+        var nested_witness = new ArrayList<byte[]>();
+        nested_witness.add(nested_sig);
+        nested_witness.add(key_sec);
+        spend_ins.get(3).setWitnessData(nested_witness);
+        var p2pkh_sig = Kit.hexStringToByteArray(key.signDeterminisk(spend.getSigHash(0)).DER()+"01");
+        var script_sig_bytes = Kit.concatBytes(Kit.concatBytes(new byte[]{(byte) p2pkh_sig.length},p2pkh_sig),
+                Kit.concatBytes(new byte[]{(byte) key_sec.length},key_sec));
+        spend_ins.set(0,new TxIn(funding_id,0,script_sig_bytes));
+        System.out.println("p2pkh input: "+(spend.checkInput(0)==ScriptError.OK));
+        System.out.println("p2wpkh input: "+(spend.checkInput(1)==ScriptError.OK));
+        System.out.println("locktime input: "+(spend.checkInput(2)==ScriptError.OK));
+        System.out.println("p2sh-p2wpkh input: "+(spend.checkInput(3)==ScriptError.OK));
+        System.out.println("tx verified: "+spend.verify());
+        // the spent outputs from the views, none of them downloading
+        UtxoView nothing = (prev_tx_id,prev_index) -> null;
+        var block_view = MemoryUtxoView.prefetch(List.of(funding,spend),nothing);
+        System.out.println("memory view: "+(block_view.size()==4 && spend.verify(block_view)
+                && spend.calculateFee(block_view)==10000 && !spend.verify(new MemoryUtxoView())));
+        var tx_dir = Files.createTempDirectory("txs");
+        var file_view = new FileUtxoView(tx_dir,true);
+        file_view.put(funding);
+        System.out.println("file view: "+(spend.verify(file_view) && spend.verify(new HttpUtxoView(true,file_view))
+                && file_view.getOutput(Kit.hexStringToByteArray(funding.getId()),9)==null));
+        // the outputs from a UtxoStore, block by block
+        var store_dir = Files.createTempDirectory("utxo");
+        var many_outs = new ArrayList<TxOut>();
+        for (int i=0;i<40;i++)
+            many_outs.add(new TxOut(1000+i,funding_outs.get(0).getScriptPubkeyBytes()));
+        var many = new Tx(1,funding_ins,many_outs,1,true);
+        var bits = Kit.hexStringToByteArray(Block.LOWEST_BITS);
+        var block1 = new Block(1,new byte[32],new byte[32],0,bits,new byte[4]);
+        var block2 = new Block(1,block1.hash(),new byte[32],0,bits,new byte[4]);
+        var store = new UtxoStore(store_dir);
+        store.applyBlock(block1,List.of(funding,many));
+        boolean store_ok = store.size()==44 && spend.verify(store) && store.connectBlock(block2,List.of(spend))
+                && store.size()==41 && store.getOutput(funding_id,0)==null;
+        try {
+            store.applyBlock(new Block(1,block2.hash(),new byte[32],0,bits,new byte[4]),List.of(spend));
+            store_ok = false;
+        } catch (RuntimeException e) {
+            store_ok &= store.size()==41 && store.getHeight()==1;
+        }
+        store.close();
+        store = new UtxoStore(store_dir);
+        store_ok &= store.size()==41 && Arrays.equals(store.getTipHash(),block2.hash())
+                && store.getOutput(Kit.hexStringToByteArray(many.getId()),39).getAmount()==1039;
+        store.undoBlock();
+        long log_size = store.getLogSize();
+        store.compact();
+        store_ok &= store.size()==44 && store.getHeight()==0 && store.getLogSize()<log_size;
+        store.close();
+        store = new UtxoStore(store_dir);
+        store_ok &= store.size()==44 && spend.verify(store) && store.getOutput(funding_id,2).getAmount()==10000;
+        store.close();
+        System.out.println("utxo store: "+store_ok);
+        // crash after the log and undo writes of a block, before its header: the header and
+        // the index are still those of the previous block
+        var idx_path = Files.list(store_dir).filter(f -> f.getFileName().toString().endsWith(".idx")).findFirst().get();
+        var head_path = store_dir.resolve("utxo.head");
+        var saved_head = Files.readAllBytes(head_path);
+        var saved_idx = Files.readAllBytes(idx_path);
+        store = new UtxoStore(store_dir);
+        log_size = store.getLogSize();
+        store.connectBlock(block2,List.of(spend));
+        store.close();
+        Files.write(head_path,saved_head);
+        Files.write(idx_path,saved_idx);
+        store = new UtxoStore(store_dir);
+        boolean crash_ok = store.size()==44 && store.getHeight()==0 && store.getLogSize()==log_size
+                && store.getOutput(funding_id,0)!=null && store.getOutput(Kit.hexStringToByteArray(spend.getId()),0)==null
+                && store.connectBlock(block2,List.of(spend)) && store.size()==41;
+        store.close();
+        store = new UtxoStore(store_dir);
+        crash_ok &= store.size()==41 && Arrays.equals(store.getTipHash(),block2.hash());
+        store.close();
+        System.out.println("utxo store crash before header: "+crash_ok);
+        // a record running past the end of the log stops the compaction
+        var log_path = Files.list(store_dir).filter(f -> f.getFileName().toString().endsWith(".log")).findFirst().get();
+        var log_bytes = Files.readAllBytes(log_path);
+        log_bytes[44] = (byte) 0xfd;
+        Files.write(log_path,log_bytes);
+        store = new UtxoStore(store_dir);
+        boolean corrupt_rejected = false;
+        try {
+            store.compact();
+        } catch (RuntimeException e) {
+            corrupt_rejected = true;
+        }
+        store.close();
+        System.out.println("corrupted log rejected: "+corrupt_rejected);
+        // crash while a block changes the index: the pages of the slots it fills reached the
+        // disk and not those of the slots it empties, which tears the backward shifts of the
+        // removals, and the last header is the one marking the block as applied
+        var torn_dir = Files.createTempDirectory("utxo");
+        store = new UtxoStore(torn_dir);
+        store.applyBlock(block1,List.of(funding,many));
+        store.close();
+        var torn_idx_path = Files.list(torn_dir).filter(f -> f.getFileName().toString().endsWith(".idx")).findFirst().get();
+        var torn_idx = Files.readAllBytes(torn_idx_path);
+        store = new UtxoStore(torn_dir);
+        store.applyBlock(block2,List.of(spend));
+        store.close();
+        var applied_idx = Files.readAllBytes(torn_idx_path);
+        for (int i=0;i<applied_idx.length;i+=16)
+            if (Kit.readInt64LE(applied_idx,i)!=0)
+                System.arraycopy(applied_idx,i,torn_idx,i,16);
+        Files.write(torn_idx_path,torn_idx);
+        var torn_head_path = torn_dir.resolve("utxo.head");
+        var torn_head = Files.readAllBytes(torn_head_path);
+        torn_head[Kit.readInt64LE(torn_head,8)>Kit.readInt64LE(torn_head,512+8) ? 0 : 512] = 0;
+        Files.write(torn_head_path,torn_head);
+        store = new UtxoStore(torn_dir);
+        var many_id = Kit.hexStringToByteArray(many.getId());
+        var spend_all_ins = new ArrayList<TxIn>();
+        boolean torn_ok = store.size()==41 && store.getHeight()==1 && store.getOutput(funding_id,0)==null;
+        for (int i=0;i<40;i++) {
+            torn_ok &= store.getOutput(many_id,i)!=null;
+            spend_all_ins.add(new TxIn(many_id,i,new byte[0]));
+        }
+        var spend_all = new Tx(1,spend_all_ins,new ArrayList<>(List.of(new TxOut(1000,funding_outs.get(0).getScriptPubkeyBytes()))),0,true);
+        store.applyBlock(new Block(1,block2.hash(),new byte[32],0,bits,new byte[4]),List.of(spend_all));
+        store.close();
+        store = new UtxoStore(torn_dir);
+        torn_ok &= store.size()==2 && store.getHeight()==2;
+        for (int i=0;i<40;i++)
+            torn_ok &= store.getOutput(many_id,i)==null;
+        store.close();
+        System.out.println("utxo store torn index: "+torn_ok);
+        witness.set(0,p2pkh_sig);
+        spend_ins.get(1).setWitnessData(witness);
+        System.out.println("wrong witness signature: "+(spend.checkInput(1)==ScriptError.EVAL_FALSE));
+        spend.setLocktime(1);
+        System.out.println("locktime not reached: "+(spend.checkInput(2)==ScriptError.UNSATISFIED_LOCKTIME));
+
+        System.out.println("----------------------------------------------------");
+        System.out.println("Testing standard templates");
+        // same results as the interpreter, with the p2pk signature on z
+        var pkh = program("76a914"+Kit.bytesToHexString(Kit.hash160(sec))+"88ac");
+        var other_pkh = program("76a914"+"00".repeat(20)+"88ac");
+        var pkh_sig = program("48"+Kit.bytesToHexString(sig)+"41"+Kit.bytesToHexString(sec));
+        var pkh_bad_der = program("49"+Kit.bytesToHexString(bad_der)+"41"+Kit.bytesToHexString(sec));
+        var with_z = ScriptInterpreter.fixedZ(z);
+        var with_z2 = ScriptInterpreter.fixedZ(z2);
+        System.out.println("p2pkh valid: "+sameResult(pkh_sig,pkh,null,with_z,ScriptError.OK));
+        System.out.println("p2pkh wrong z: "+sameResult(pkh_sig,pkh,null,with_z2,ScriptError.EVAL_FALSE));
+        System.out.println("p2pkh wrong key: "+sameResult(pkh_sig,other_pkh,null,with_z,ScriptError.EQUALVERIFY));
+        System.out.println("p2pkh bad der: "+sameResult(pkh_bad_der,pkh,null,with_z,ScriptError.SIG_DER));
+        var wpkh = program("0014"+Kit.bytesToHexString(Kit.hash160(sec)));
+        System.out.println("p2wpkh valid: "+sameResult(program(""),wpkh,List.of(sig,sec),with_z,ScriptError.OK));
+        System.out.println("p2wpkh wrong z: "+sameResult(program(""),wpkh,List.of(sig,sec),with_z2,ScriptError.EVAL_FALSE));
+        var nested = program("a914"+Kit.bytesToHexString(Kit.hash160(wpkh.getBytes()))+"87");
+        var nested_push = program("16"+Kit.bytesToHexString(wpkh.getBytes()));
+        System.out.println("p2sh-p2wpkh valid: "+sameResult(nested_push,nested,List.of(sig,sec),with_z,ScriptError.OK));
+        System.out.println("p2sh-p2wpkh wrong redeem: "+sameResult(nested_push,program("a914"+"00".repeat(20)+"87"),
+                List.of(sig,sec),with_z,ScriptError.EVAL_FALSE));
+        // out of the templates: left to the interpreter
+        System.out.println("not templates: "+(TemplateVerifier.verify(program("51"+pkh_sig.toString()),pkh,null,with_z)==null
+                && TemplateVerifier.verify(pkh_sig,pkh,List.of(sig),with_z)==null
+                && TemplateVerifier.verify(program(""),wpkh,List.of(sig,sec,sec),with_z)==null
+                && TemplateVerifier.verify(pkh_sig,program("51"),null,with_z)==null));
+    }
+
+    // the template verifier and the interpreter both give the expected result
+    private static boolean sameResult(ScriptProgram script_sig, ScriptProgram script_pubkey, List<byte[]> witness,
+                                      ScriptInterpreter.Checker checker, ScriptError expected) {
+        return TemplateVerifier.verify(script_sig,script_pubkey,witness,checker)==expected
+                && ScriptInterpreter.getInstance().verify(script_sig,script_pubkey,witness,checker)==expected;
+    }
 
+    // script from hex, spaces allowed between the bytes
+    private static ScriptProgram program(String hex) {
+        return new ScriptProgram(Kit.hexStringToByteArray(hex.replace(" ","")));
     }
 }
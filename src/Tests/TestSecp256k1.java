@@ -3,10 +3,18 @@ package Tests;
 import bitcoffee.*;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 public class TestSecp256k1 {
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
+        test_field_limbs();
+        test_mod_inverse();
+        test_jacobian_points();
+        test_generator_table();
+        test_multi_scalar();
+        test_batch_normalize();
         test_infinity();
         test_manual_signature();
         test_message_signature();
@@ -39,6 +47,157 @@ public class TestSecp256k1 {
         Test.__END_TEST();
 
     }
+    public static void test_field_limbs() {
+        Test.__BEGIN_TEST("S256Limbs field arithmetic");
+        var p = Secp256k1.p;
+        var rnd = new Random(256);
+        var x = new BigInteger(256,rnd).mod(p);
+        // close to p, to exercise the final reductions
+        var y = p.subtract(BigInteger.valueOf(977));
+        var fx = new S256Limbs(x);
+        var fy = new S256Limbs(y);
+        var desc = "x="+x.toString(16)+"\ny="+y.toString(16);
+
+        Test.check("x+y",desc,x.add(y).mod(p),fx.copy().add(fy).toBigInteger());
+        Test.check("x-y",desc,x.subtract(y).mod(p),fx.copy().subtract(fy).toBigInteger());
+        Test.check("y-x",desc,y.subtract(x).mod(p),fy.copy().subtract(fx).toBigInteger());
+        Test.check("x*y",desc,x.multiply(y).mod(p),fx.copy().multiply(fy).toBigInteger());
+        Test.check("y^2",desc,y.multiply(y).mod(p),fy.copy().square().toBigInteger());
+        Test.check("1/x",desc,x.modInverse(p),fx.copy().invert().toBigInteger());
+
+        var sq = fx.copy().square();
+        sq.sqrt();
+        var root = sq.toBigInteger();
+        Test.check("sqrt(x^2)",desc,true,root.equals(x) || root.equals(p.subtract(x)));
+
+        // same operations through the S256Field wrapper
+        var a = new S256Field(x);
+        var b = new S256Field(y);
+        Test.check("S256Field x/y",desc,x.multiply(y.modInverse(p)).mod(p),a.divide(b).getNum());
+        Test.__END_TEST();
+    }
+
+    public static void test_mod_inverse() {
+        Test.__BEGIN_TEST("safegcd modular inversion");
+        var rnd = new Random(590);
+        var moduli = new BigInteger[]{Secp256k1.p,Secp256k1.N};
+        var inverses = new S256ModInverse[]{S256ModInverse.FIELD,S256ModInverse.ORDER};
+        var names = new String[]{"p","N"};
+        for (int k=0;k<moduli.length;k++) {
+            var m = moduli[k];
+            // edge values and random ones
+            var values = new BigInteger[]{BigInteger.ONE,BigInteger.TWO,m.subtract(BigInteger.ONE),
+                    BigInteger.ONE.shiftLeft(255),new BigInteger(256,rnd).mod(m),new BigInteger(256,rnd).mod(m)};
+            boolean ok_ct = true, ok_var = true;
+            for (var x:values) {
+                var expected = x.modInverse(m);
+                ok_ct &= expected.equals(inverses[k].invert(x));
+                ok_var &= expected.equals(inverses[k].invertVar(x));
+            }
+            Test.check("constant time 1/x mod "+names[k],"",true,ok_ct);
+            Test.check("variable time 1/x mod "+names[k],"",true,ok_var);
+        }
+        var x = new BigInteger(256,rnd).mod(Secp256k1.p);
+        Test.check("S256Limbs invertVar","x="+x.toString(16),x.modInverse(Secp256k1.p),new S256Limbs(x).invertVar().toBigInteger());
+        Test.__END_TEST();
+    }
+
+    public static void test_jacobian_points() {
+        Test.__BEGIN_TEST("S256Point Jacobian arithmetic");
+        // generic affine point, used as reference
+        var p = Secp256k1.p;
+        var G = new FieldElementPoint(new FieldElement(Secp256k1.Gx,p),new FieldElement(Secp256k1.Gy,p),
+                new FieldElement(Secp256k1.a,p),new FieldElement(Secp256k1.b,p));
+        var rnd = new Random(2);
+        var k1 = new BigInteger(256,rnd);
+        var k2 = new BigInteger(256,rnd);
+        var desc = "k1="+k1.toString(16)+"\nk2="+k2.toString(16);
+
+        var P1 = Secp256k1.G.multiplyBin(k1);
+        var P2 = Secp256k1.G.multiplyBin(k2);
+        var R1 = G.multiplyBin(k1);
+        var R2 = G.multiplyBin(k2);
+        Test.check("k1*G",desc,R1.getCoordString(),P1.getCoordString());
+        Test.check("P1+P2",desc,R1.add(R2).getCoordString(),P1.add(P2).getCoordString());
+        Test.check("P1+P1",desc,R1.add(R1).getCoordString(),P1.add(P1).getCoordString());
+        Test.check("k2*P1",desc,R1.multiplyBin(k2).getCoordString(),P1.multiplyBin(k2).getCoordString());
+        Test.check("(N-1)*G+G",desc,"(INF,INF)",
+                Secp256k1.G.multiplyBin(Secp256k1.N.subtract(BigInteger.ONE)).add(Secp256k1.G).getCoordString());
+        Test.__END_TEST();
+    }
+
+    public static void test_generator_table() {
+        Test.__BEGIN_TEST("S256Point fixed-base multiplication");
+        var rnd = new Random(3);
+        var k = new BigInteger(256,rnd);
+        var n1 = Secp256k1.N.subtract(BigInteger.ONE);
+        var desc = "k="+k.toString(16);
+        // reference: k*G = (N-k)*(-G), computed with double and add
+        var minus_G = new S256Point(Secp256k1.Gx,Secp256k1.p.subtract(Secp256k1.Gy));
+        var expected = minus_G.multiplyBin(Secp256k1.N.subtract(k));
+        Test.check("k*G",desc,expected.getCoordString(),S256GeneratorTable.multiply(k).getCoordString());
+        Test.check("(N-1)*G","",minus_G.getCoordString(),S256GeneratorTable.multiply(n1).getCoordString());
+        Test.check("N*G","","(INF,INF)",S256GeneratorTable.multiply(Secp256k1.N).getCoordString());
+        // the constant time walk, zero digits included
+        Test.check("const k*G",desc,expected.getCoordString(),S256GeneratorTable.multiplyConst(k).getCoordString());
+        Test.check("const (N-1)*G","",minus_G.getCoordString(),S256GeneratorTable.multiplyConst(n1).getCoordString());
+        var sparse = BigInteger.ONE.shiftLeft(252).add(BigInteger.valueOf(0x10));
+        Test.check("const sparse k","",S256GeneratorTable.multiply(sparse).getCoordString(),
+                S256GeneratorTable.multiplyConst(sparse).getCoordString());
+        Test.check("const N*G","","(INF,INF)",S256GeneratorTable.multiplyConst(Secp256k1.N).getCoordString());
+        Test.__END_TEST();
+    }
+
+    public static void test_multi_scalar() {
+        Test.__BEGIN_TEST("S256Point multi-scalar multiplication");
+        var rnd = new Random(4);
+        var u = new BigInteger(256,rnd);
+        var v = new BigInteger(256,rnd);
+        var w = new BigInteger(256,rnd);
+        var P = Secp256k1.G.multiplyBin(new BigInteger(256,rnd));
+        var Q = Secp256k1.G.multiplyBin(new BigInteger(256,rnd));
+        var desc = "u="+u.toString(16)+"\nv="+v.toString(16)+"\nw="+w.toString(16);
+
+        var expected = Secp256k1.G.multiplyBin(u).add(P.multiplyBin(v));
+        Test.check("u*G+v*P",desc,expected.getCoordString(),S256MultiScalar.multiply(u,v,P).toAffine().getCoordString());
+        expected = expected.add(Q.multiplyBin(w));
+        var res = S256MultiScalar.multiply(u,new BigInteger[]{v,w},new S256Point[]{P,Q}).toAffine();
+        Test.check("u*G+v*P+w*Q",desc,expected.getCoordString(),res.getCoordString());
+        // v*P-v*P
+        res = S256MultiScalar.multiply(null,new BigInteger[]{v,Secp256k1.N.subtract(v)},new S256Point[]{P,P}).toAffine();
+        Test.check("v*P+(N-v)*P",desc,"(INF,INF)",res.getCoordString());
+
+        var pk = new PrivateKey(w);
+        var z = Kit.hash256("multi scalar");
+        var sig = pk.signDeterminisk(z);
+        var z_num = new BigInteger(1,z);
+        Test.check("verify",desc,true,pk.point.verify(z_num,sig));
+        Test.check("verify wrong z",desc,false,pk.point.verify(z_num.add(BigInteger.ONE),sig));
+        Test.__END_TEST();
+    }
+
+    public static void test_batch_normalize() {
+        Test.__BEGIN_TEST("S256Point batch normalization");
+        var p = Secp256k1.p;
+        var rnd = new Random(5);
+        var values = new BigInteger[]{new BigInteger(256,rnd).mod(p),BigInteger.ZERO,new BigInteger(256,rnd).mod(p)};
+        var limbs = new S256Limbs[values.length];
+        for (int i=0;i<values.length;i++)
+            limbs[i] = new S256Limbs(values[i]);
+        S256Limbs.batchInvert(limbs);
+        Test.check("batch invert a0","",values[0].modInverse(p),limbs[0].toBigInteger());
+        Test.check("batch invert zero","",BigInteger.ZERO,limbs[1].toBigInteger());
+        Test.check("batch invert a2","",values[2].modInverse(p),limbs[2].toBigInteger());
+
+        var secrets = new BigInteger[]{new BigInteger(256,rnd),Secp256k1.N,new BigInteger(256,rnd)};
+        var keys = PrivateKey.fromSecrets(secrets);
+        for (int i=0;i<secrets.length;i++) {
+            var expected = Secp256k1.G.multiplyBin(secrets[i]);
+            Test.check("fromSecrets "+i,"secret="+secrets[i].toString(16),expected.getCoordString(),keys[i].point.getCoordString());
+        }
+        Test.__END_TEST();
+    }
+
     public static void test_infinity() {
         Test.__BEGIN_TEST("sec256k1 computing G*N");
         Test.__BEGIN_TEST("you should see points at infinity (null,null)");
@@ -4,6 +4,7 @@ import bitcoffee.*;
 
 public class TestSegwit {
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 
         Test.__BEGIN_TEST("verify Tx");
         var tx_id = "452c629d67e41baec3ac6f04fe744b4b9617f8f859c63b3002f8684e7a4fee03";
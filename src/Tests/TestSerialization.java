@@ -2,10 +2,13 @@ package Tests;
 
 import bitcoffee.*;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Objects;
 
 public class TestSerialization {
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
         var e = BigInteger.valueOf(5000);
         var pk = new PrivateKey(e.toByteArray());
         String target = "04ffe558e388852f0120e46af2d1b370f85854a8eb0841811ece0e3e03d282d57c315dc72890a4f10a1481c031b03b351b0dc79901ca18a00cf009dbdb157a1d10";
@@ -47,6 +50,13 @@ public class TestSerialization {
         System.out.println("-->Testing parsed point from compressed SEC33:");
         System.out.println(parsed_point);
         System.out.println(pk.point.equals(parsed_point));
+        System.out.println("----------------------------------------------------------");
+
+        var hits = SECPointCache.getInstance().getHits();
+        var cached_point = S256Point.parseSEC(sec33);
+        System.out.println("-->Testing parsed point cache on compressed SEC33:");
+        System.out.println((cached_point==parsed_point)+" "+(SECPointCache.getInstance().getHits()==hits+1));
+        System.out.println(SECPointCache.getInstance());
 
 
         System.out.println("----------------------------------------------------------");
@@ -182,5 +192,180 @@ public class TestSerialization {
         System.out.println("Result encode:"+hex_string.equals(Kit.bytesToHexString(Objects.requireNonNull(Kit.encodeVarint(target_n)))));
         System.out.println("-----------------------------------------------------------");
 
+        System.out.println("-->Testing little endian and varint primitives");
+        var le = new byte[12];
+        Kit.writeInt32LE(le,0,0xfffffffeL);
+        Kit.writeInt64LE(le,4,-2L);
+        System.out.println("int32:"+(Kit.readUInt32LE(le,0)==0xfffffffeL && Kit.readInt32LE(le,0)==-2));
+        System.out.println("int64:"+(Kit.readInt64LE(le,4)==-2L));
+        System.out.println("old api:"+(Kit.litteEndianBytesToInt(Arrays.copyOf(le,4)).longValue()==0xfffffffeL));
+        var varint_ok = true;
+        var varint_buffer = ByteBuffer.allocate(9*8);
+        long[] values = {0, 0xfc, 0xfd, 0xffff, 0x10000, 0xffffffffL, 0x100000000L, Long.MAX_VALUE};
+        for (long v: values) {
+            var enc = Kit.encodeVarint(v);
+            varint_ok &= enc.length==Kit.varintSize(v) && Kit.readVarint(enc)==v;
+            Kit.putVarint(varint_buffer,v);
+        }
+        varint_buffer.flip();
+        for (long v: values)
+            varint_ok &= Kit.readVarint(varint_buffer)==v;
+        System.out.println("varint round trip:"+varint_ok);
+        System.out.println("-----------------------------------------------------------");
+
+        System.out.println("-->Testing thread local SHA-256 on slices and buffers");
+        var framed = Kit.asciiStringToBytes("xxabcxx");
+        var target_sha = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+        var target_hash256 = "4f8b42c22dd3729b519ba6f68d2da7cc5b2d606d05daed5ad5128cc03e6c6358";
+        System.out.println("sha256 slice:"+target_sha.equals(Kit.bytesToHexString(Sha256.hash(framed,2,3))));
+        var buffer = ByteBuffer.wrap(framed,2,3);
+        System.out.println("sha256 buffer:"+target_sha.equals(Kit.bytesToHexString(Sha256.hash(buffer)))+" position kept:"+(buffer.position()==2));
+        var out = new byte[40];
+        Sha256.doubleHash(framed,2,3,out,8);
+        System.out.println("hash256 into buffer:"+target_hash256.equals(Kit.bytesToHexString(Arrays.copyOfRange(out,8,40))));
+        System.out.println("hash256:"+target_hash256.equals(Kit.bytesToHexString(Kit.hash256("abc"))));
+        System.out.println("-----------------------------------------------------------");
+        System.out.println("-->Testing zero copy TxView");
+        var legacy_hex = "0100000001813f79011acb80925dfe69b3def355fe914bd1d96a3f5f71bf8303c6a989c7d1000000006b483045022100ed81ff192e75a3fd2304004dcadb746fa5e24c5031ccfcf21320b0277457c98f02207a986d955c6e0cb35d446a89d3f56100f4d7f67801c31967743a9c8e10615bed01210349fc4e631e3624a545de3f89f5d8684c7b8138bd94bdd531d2e213bf016b278afeffffff02a135ef01000000001976a914bc3b654dca7e56b04dca18f2566cdaf02e8d9ada88ac99c39800000000001976a9141c4bc762dd5423e332166702cb75f40df79fea1288ac19430600";
+        var legacy = Tx.parse(Kit.hexStringToByteArray(legacy_hex),false);
+        var view = TxView.parse(ByteBuffer.wrap(Kit.hexStringToByteArray(legacy_hex)));
+        System.out.println("txid:"+legacy.getId().equals(view.getId()));
+        System.out.println("version and locktime:"+(view.getVersion()==1 && view.getLocktime()==legacy.getLocktime()));
+        System.out.println("prev tx:"+Arrays.equals(legacy.getTxIns().get(0).getPrevTxId(),view.getPrevTxIdBytes(0)));
+        System.out.println("script sig:"+Arrays.equals(legacy.getTxIns().get(0).getScriptSig(),view.getScriptSigBytes(0)));
+        System.out.println("sequence:"+(view.getSequence(0)==0xfffffffeL));
+        System.out.println("amount:"+(view.getAmount(1)==legacy.getTxOuts().get(1).getAmount()));
+        System.out.println("script pubkey:"+Arrays.equals(legacy.getTxOuts().get(1).getScriptPubkeyBytes(),view.getScriptPubKeyBytes(1)));
+        System.out.println("toTx:"+legacy_hex.equals(view.toTx(false).getSerialString()));
+
+        // segwit tx in a direct buffer, after the legacy one
+        var ins = new java.util.ArrayList<TxIn>();
+        ins.add(new TxIn(Kit.hash256("prev"),3,new byte[0]));
+        var witness = new java.util.ArrayList<byte[]>();
+        witness.add(Kit.hash256("signature"));
+        witness.add(new byte[]{0});
+        witness.add(Kit.hash160(Kit.asciiStringToBytes("key")));
+        ins.get(0).setWitnessData(witness);
+        var outs = new java.util.ArrayList<TxOut>();
+        outs.add(new TxOut(5000,new P2WPKHScriptPubKey(Kit.hash160(Kit.asciiStringToBytes("key"))).rawSerialize()));
+        var segwit = new Tx(2,ins,outs,0,false,true);
+        var segwit_ser = segwit.getPayload();
+        var direct = ByteBuffer.allocateDirect(legacy_hex.length()/2+segwit_ser.length);
+        direct.put(Kit.hexStringToByteArray(legacy_hex)).put(segwit_ser).flip();
+        TxView.parse(direct);
+        var segwit_view = TxView.parse(direct);
+        System.out.println("buffer consumed:"+!direct.hasRemaining());
+        System.out.println("segwit txid:"+segwit.getId().equals(segwit_view.getId()));
+        System.out.println("witness items:"+(segwit_view.getWitnessCount(0)==3 && segwit_view.getWitnessItem(0,1).remaining()==0));
+        System.out.println("witness item:"+Arrays.equals(witness.get(2),toBytes(segwit_view.getWitnessItem(0,2))));
+        System.out.println("segwit toTx:"+Kit.bytesToHexString(segwit_ser).equals(segwit_view.toTx(false).getSerialString()));
+        System.out.println("sizes:"+(segwit_view.size()==segwit_ser.length && segwit_view.strippedSize()==segwit_ser.length-2-(1+33+1+21)));
+
+        System.out.println("-->Testing pre-sized serialization");
+        System.out.println("legacy size:"+(legacy.serializedSize()==legacy_hex.length()/2 && legacy.strippedSize()==legacy.serializedSize()));
+        System.out.println("segwit size:"+(segwit.serializedSize()==segwit_ser.length && segwit.strippedSize()==segwit_view.strippedSize()));
+        var out_buffer = ByteBuffer.allocateDirect(legacy.serializedSize()+segwit.serializedSize());
+        legacy.writeTo(out_buffer);
+        segwit.writeTo(out_buffer);
+        out_buffer.flip();
+        var written = toBytes(out_buffer);
+        System.out.println("writeTo:"+Arrays.equals(written,Kit.concatBytes(Kit.hexStringToByteArray(legacy_hex),segwit_ser)));
+        var big_push = new byte[70000];
+        var script_bytes = new byte[5+big_push.length];
+        script_bytes[0] = 0x4e;
+        script_bytes[1] = (byte) 0x70;
+        script_bytes[2] = (byte) 0x11;
+        script_bytes[3] = 1;
+        var script = new Script(script_bytes);
+        System.out.println("pushdata4 round trip:"+(Arrays.equals(script_bytes,script.rawSerialize()) && script.serializedSize()==script.serialize().length));
+
+        System.out.println("-->Testing memoized txid, wtxid and weight");
+        var parsed_segwit = Tx.parse(segwit_ser,false);
+        System.out.println("txid from wire bytes:"+segwit.getId().equals(parsed_segwit.getId()));
+        System.out.println("wtxid:"+Arrays.equals(Kit.hash256(segwit_ser),parsed_segwit.witnessHash()));
+        System.out.println("legacy wtxid:"+legacy.getId().equals(legacy.getWitnessId()));
+        var stripped = segwit_view.strippedSize();
+        System.out.println("weight:"+(parsed_segwit.getWeight()==stripped*3+segwit_ser.length && parsed_segwit.getVSize()==(stripped*3+segwit_ser.length+3)/4));
+        var old_wtxid = parsed_segwit.getWitnessId();
+        var new_witness = new java.util.ArrayList<byte[]>();
+        new_witness.add(Kit.hash256("other signature"));
+        parsed_segwit.getTxIns().get(0).setWitnessData(new_witness);
+        System.out.println("witness update:"+(!old_wtxid.equals(parsed_segwit.getWitnessId()) && parsed_segwit.getId().equals(segwit.getId())
+                && parsed_segwit.getSize()==parsed_segwit.getPayload().length));
+        parsed_segwit.updateLockTime(500000);
+        System.out.println("locktime update:"+!parsed_segwit.getId().equals(segwit.getId()));
+        var parsed_legacy = Tx.parse(Kit.hexStringToByteArray(legacy_hex),false);
+        var legacy_id = parsed_legacy.getId();
+        parsed_legacy.setLocktime(parsed_legacy.getLocktime()+1);
+        System.out.println("setLocktime update:"+(!parsed_legacy.getId().equals(legacy_id)
+                && !Kit.bytesToHexString(parsed_legacy.getPayload()).equals(legacy_hex)
+                && parsed_legacy.getId().equals(Tx.parse(parsed_legacy.getPayload(),false).getId())));
+        // the witness changes only through setWitnessData
+        var updated_wtxid = parsed_segwit.getWitnessId();
+        new_witness.set(0,Kit.hash256("changed after set"));
+        boolean read_only = false;
+        try {
+            parsed_segwit.getTxIns().get(0).getWitnessData().set(0,new byte[1]);
+        } catch (UnsupportedOperationException ex) {
+            read_only = true;
+        }
+        System.out.println("witness not shared:"+(read_only && parsed_segwit.getWitnessId().equals(updated_wtxid)));
+
+        System.out.println("-->Testing structural checks of the parser");
+        var legacy_bytes = Kit.hexStringToByteArray(legacy_hex);
+        System.out.println("truncated rejected:"+parseFails(Arrays.copyOf(legacy_bytes,legacy_bytes.length-1)));
+        System.out.println("trailing byte rejected:"+parseFails(Arrays.copyOf(legacy_bytes,legacy_bytes.length+1)));
+        // one input, count as fd0100
+        var non_canonical = Kit.concatBytes(Kit.concatBytes(Arrays.copyOf(legacy_bytes,4),Kit.hexStringToByteArray("fd0100")),
+                Arrays.copyOfRange(legacy_bytes,5,legacy_bytes.length));
+        System.out.println("non canonical varint rejected:"+parseFails(non_canonical));
+        var huge_count = Arrays.copyOf(legacy_bytes,legacy_bytes.length);
+        huge_count[4] = (byte) 0xfc;
+        System.out.println("input count rejected:"+parseFails(huge_count));
+        System.out.println("non strict parse:"+legacy.getId().equals(Tx.parse(legacy_bytes,false,false).getId()));
+        // strict mode rejects what the lenient one accepts
+        var trailing = Arrays.copyOf(legacy_bytes,legacy_bytes.length+1);
+        System.out.println("strict rejects non canonical varint:"+strictOnly(non_canonical,legacy.getId()));
+        System.out.println("strict rejects trailing bytes:"+strictOnly(trailing,legacy.getId()));
+        // no inputs, two outputs with empty scripts: the 0 is the input count, not a marker
+        var no_inputs_hex = "01000000"+"00"+"02"+"000000000000000000"+"000000000000000000"+"00000000";
+        var no_inputs = Kit.hexStringToByteArray(no_inputs_hex);
+        System.out.println("strict rejects marker without flag:"+strictOnly(no_inputs,Kit.bytesToHexString(Kit.reverseBytes(Kit.hash256(no_inputs)))));
+        var lenient = Tx.parse(no_inputs,false,false);
+        System.out.println("marker without flag is legacy:"+(!lenient.isSegwit() && lenient.getTxIns().isEmpty()
+                && lenient.getTxOuts().size()==2 && lenient.getSerialString().equals(no_inputs_hex)));
+        boolean view_rejects = false;
+        try {
+            TxView.parse(ByteBuffer.wrap(non_canonical));
+        } catch (RuntimeException ex) {
+            view_rejects = true;
+        }
+        System.out.println("view rejects non canonical varint:"+view_rejects);
+        System.out.println("-----------------------------------------------------------");
+    }
+
+    private static boolean parseFails(byte[] serialization) {
+        try {
+            Tx.parse(serialization,false);
+            return false;
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    // true if only the lenient parse accepts serialization, giving the tx with the given id
+    private static boolean strictOnly(byte[] serialization, String id) {
+        try {
+            Tx.parse(serialization,false,true);
+            return false;
+        } catch (RuntimeException e) {
+            return Tx.parse(serialization,false,false).getId().equals(id);
+        }
+    }
+
+    private static byte[] toBytes(ByteBuffer b) {
+        var out = new byte[b.remaining()];
+        b.duplicate().get(out);
+        return out;
     }
 }
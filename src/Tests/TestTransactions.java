@@ -6,6 +6,7 @@ import bitcoffee.TxFetcher;
 
 public class TestTransactions {
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
 
         System.out.println("--------------------------------------------------------");
         System.out.println(">> Tests.Test: Transaction decoding");
@@ -1,10 +1,38 @@
 package Tests;
+import bitcoffee.Kit;
+import bitcoffee.Tx;
+import wallet.HDPrivateKey;
 import wallet.Mnemonic;
 
 public class TestWallet {
 
     public static void main(String[] args) {
+        Tx.setStrictParse(true);
+       test_hd_children();
+
        var mn = Mnemonic.getInstance();
+    }
 
+    public static void test_hd_children() {
+        Test.__BEGIN_TEST("HD batch child derivation");
+        var seed = Kit.hexStringToByteArray("000102030405060708090a0b0c0d0e0f");
+        var root = HDPrivateKey.fromSeed(seed,false,null,null);
+        var children = root.children(0,3);
+        for (int i=0;i<children.length;i++) {
+            var expected = root.child(i);
+            Test.check("child "+i,"",expected.xpub(null),children[i].xpub(null));
+        }
+        // BIP32 test vector 1, chain m/0h
+        var hardened = root.children(0x80000000L,1)[0];
+        Test.check("child 0h","BIP32 test vector 1",
+                "xpub68Gmy5EdvgibQVfPdqkBBCHxA5htiqg55crXYuXoQRKfDBFA1WEjWgP6LHhwBZeNK1VTsfTFUHCdrfp1bgwQ9xv5ski8PX9rL2dZXvgGDnw",
+                hardened.xpub(null));
+        // a non-hardened step, m/0h/1
+        var normal = hardened.child(1);
+        Test.check("child 0h/1 xpub","BIP32 test vector 1",
+                "xpub6ASuArnXKPbfEwhqN6e3mwBcDTgzisQN1wXN9BJcM47sSikHjJf3UFHKkNAWbWMiGj7Wf5uMash7SyYq527Hqck2AxYysAA7xmALppuCkwQ",
+                normal.xpub(null));
+        Test.check("path m/0h/1","BIP32 test vector 1",normal.xpub(null),root.traverse("m/0h/1").xpub(null));
+        Test.__END_TEST();
     }
 }
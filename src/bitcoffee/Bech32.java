@@ -38,7 +38,7 @@ public class Bech32 {
         long c = 1;
         for (byte v:values ) {
             long c0 = c >> 25;
-            c = (c & 0x1ffffff << 5)^v;
+            c = ((c & 0x1ffffff) << 5)^v;
 
             for (int i = 0;i< GEN.length;i++) {
                 if ( ((c0>>i) & 1)!=0 ) c ^= GEN[i];
@@ -147,7 +147,7 @@ public class Bech32 {
 
         for (byte c: s) {
             unused_bits+=8;
-            current = (current<<8) +c;
+            current = (current<<8) + (c & 0xff);
 
             while (unused_bits>5) {
                 unused_bits-=5;
@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -18,6 +19,10 @@ public class Block {
 
     private ArrayList<String> tx_hashes;
 
+    // not to be used directly
+    private byte[] _header = null;
+    private byte[] _target = null;
+
     public final static String GENESIS_BLOCK = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a29ab5f49ffff001d1dac2b7c";
     public final static String TESTNET_GENESIS_BLOCK = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4adae5494dffff001d1aa4ae18";
     public final static String LOWEST_BITS = "ffff001d";
@@ -68,14 +73,14 @@ public class Block {
 
     /********************************************************************************/
     public static Block parseSerial(ByteArrayInputStream bis) throws IOException {
-        var version = Kit.litteEndianBytesToInt(bis.readNBytes(4));
+        var version = Kit.readInt32LE(bis);
         var prev_block = Kit.reverseBytes(bis.readNBytes(32));
         var merkle_root = Kit.reverseBytes(bis.readNBytes(32));
-        var timestamp = Kit.litteEndianBytesToInt(bis.readNBytes(4)).intValue();
+        var timestamp = Kit.readInt32LE(bis);
         var bits = bis.readNBytes(4);
         var nonce = bis.readNBytes(4);
 
-        return new Block(version.intValue(),prev_block,merkle_root,timestamp,bits,nonce);
+        return new Block(version,prev_block,merkle_root,timestamp,bits,nonce);
     }
     /********************************************************************************/
     public static Block parseSerial(byte[] serial)  {
@@ -89,38 +94,57 @@ public class Block {
 
     /********************************************************************************/
     public byte[] serializeHeader() {
-        var bos = new ByteArrayOutputStream();
-
-        var n = Kit.intToLittleEndianBytes(this.version);
-        var nb = Arrays.copyOfRange(n,0,4);
-        try {
-            bos.write(nb);
-            bos.write(Kit.reverseBytes(this.prev_block));
-            bos.write(Kit.reverseBytes(merkle_root));
-            bos.write(Arrays.copyOfRange(Kit.intToLittleEndianBytes(timestamp),0,4));
-            bos.write(bits);
-            bos.write(nonce);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        if (bos.toByteArray().length!=80) {
-            System.out.println("FATAL: Wrong size in block header serialization ");
-            System.out.println("Expected: 80, Computed: "+bos.toByteArray().length);
-            System.exit(-1);
+        // the fields are final, so the serialization is done once
+        if (this._header == null) {
+            var size = 4 + prev_block.length + merkle_root.length + 4 + bits.length + nonce.length;
+            if (size!=80) {
+                System.out.println("FATAL: Wrong size in block header serialization ");
+                System.out.println("Expected: 80, Computed: "+size);
+                System.exit(-1);
+            }
+
+            var header = new byte[80];
+            Kit.writeInt32LE(header,0,version);
+            for (int i=0;i<32;i++) {
+                header[4+i] = prev_block[31-i];
+                header[36+i] = merkle_root[31-i];
+            }
+            Kit.writeInt32LE(header,68,timestamp);
+            System.arraycopy(bits,0,header,72,4);
+            System.arraycopy(nonce,0,header,76,4);
+            this._header = header;
         }
+        return this._header.clone();
+    }
 
-        return bos.toByteArray();
+    // writes the 80 bytes header at the position of buf
+    public void writeHeaderTo(ByteBuffer buf) {
+        if (this._header == null) serializeHeader();
+        buf.put(this._header);
     }
 
+
     public String getSerialHeaderString() {
         return Kit.bytesToHexString(this.serializeHeader());
     }
 
     /********************************************************************************/
     public byte[] hash() {
-        var s = this.serializeHeader();
-        return Kit.reverseBytes(Kit.hash256(s));
+        this.serializeHeader();
+        return Kit.reverseBytes(Sha256.doubleHash(this._header));
+    }
+
+    // hasher of this header with the midstate of its first 64 bytes, for the nonce search
+    public HeaderHasher headerHasher() {
+        this.serializeHeader();
+        return new HeaderHasher(this._header);
+    }
+
+    // the same block with another nonce, given as the little endian integer of the header
+    public Block withNonce(int nonce) {
+        var nonce_bytes = new byte[4];
+        Kit.writeInt32LE(nonce_bytes,0,nonce);
+        return new Block(version,prev_block,merkle_root,timestamp,bits,nonce_bytes,tx_hashes);
     }
     /********************************************************************************/
 
@@ -149,7 +173,7 @@ public class Block {
         BigInteger target;
 
         var exp = bits[3];
-        var coeff = Kit.litteEndianBytesToInt(Arrays.copyOfRange(bits,0,3));
+        var coeff = BigInteger.valueOf(Kit.readInt32LE(bits,0) & 0xffffff);
         target = coeff.multiply(BigInteger.valueOf(256).pow(exp-3));
 
         return target;
@@ -159,6 +183,30 @@ public class Block {
         return Block.bitsToTarget(this.bits);
     }
 
+    // target as 32 bytes big endian
+    byte[] getTargetBytes() {
+        if (this._target == null) {
+            var target = getTarget();
+            if (target.bitLength()>256) {
+                // no hash can be above it
+                this._target = new byte[32];
+                Arrays.fill(this._target,(byte)0xff);
+            }
+            else this._target = Kit.intToBigEndian(target,32);
+        }
+        return this._target;
+    }
+
+    // true if the hash256 (internal byte order, so little endian) is lower than the target
+    static boolean isBelowTarget(byte[] hash, byte[] target) {
+        for (int i=0;i<32;i++) {
+            int h = hash[31-i] & 0xff;
+            int t = target[i] & 0xff;
+            if (h!=t) return h<t;
+        }
+        return false;
+    }
+
     public String getTargetHexString() {
         var ba = getTarget().toByteArray();
         ba = Kit.to32bytes(ba);
@@ -182,10 +230,8 @@ public class Block {
 
     public boolean checkPoW() {
 
-        var h256 = Kit.hash256(this.serializeHeader());
-        var proof = Kit.litteEndianBytesToInt(h256);
-
-        return proof.compareTo(this.getTarget())<0;
+        this.serializeHeader();
+        return isBelowTarget(Sha256.doubleHash(this._header),this.getTargetBytes());
     }
     /********************************************************************************/
 
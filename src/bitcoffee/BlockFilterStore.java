@@ -0,0 +1,158 @@
+package bitcoffee;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Append-only store of the BIP158 basic filters and their headers, indexed by block height.
+// filters.dat holds for every height: the filter header (32 bytes), the filter length
+// (4 bytes little endian) and the serialized filter.
+// filters.idx holds the 8 bytes offset of every record in filters.dat, so that the
+// filter at any height is read with a single positioned read.
+// A record is written before its index entry: a crash can leave a record without index
+// entry, which is cut away when the store is opened again
+public class BlockFilterStore implements Closeable {
+    private static final int RECORD_HEADER_LEN = 36;
+
+    private final FileChannel data;
+    private final FileChannel index;
+    private long[] offsets;
+    private int count;
+    private byte[] last_header = new byte[32];
+
+    public BlockFilterStore(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            data = new RandomAccessFile(dir.resolve("filters.dat").toFile(), "rw").getChannel();
+            index = new RandomAccessFile(dir.resolve("filters.idx").toFile(), "rw").getChannel();
+            load();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open the filter store in " + dir, e);
+        }
+    }
+
+    private void load() throws IOException {
+        int n = (int) (index.size() / 8);
+        var idx = ByteBuffer.allocate(n * 8).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(index, idx, 0);
+        idx.flip();
+        offsets = new long[Math.max(n, 1024)];
+        long data_end = 0;
+        for (int i = 0; i < n; i++) {
+            long offset = idx.getLong();
+            // entries beyond the written data come from a torn write
+            var len = ByteBuffer.allocate(RECORD_HEADER_LEN).order(ByteOrder.LITTLE_ENDIAN);
+            if (offset != data_end || offset + RECORD_HEADER_LEN > data.size()) break;
+            readFully(data, len, offset);
+            long end = offset + RECORD_HEADER_LEN + len.getInt(32);
+            if (end > data.size()) break;
+            offsets[count++] = offset;
+            data_end = end;
+        }
+        index.truncate(count * 8L);
+        data.truncate(data_end);
+        if (count > 0)
+            last_header = getHeader(count - 1);
+    }
+
+    /***************************************************************************/
+    // appends the filter of the next height, computing its header from the previous one.
+    // Returns the height of the filter
+    public synchronized int append(GCSFilter filter) {
+        var header = filter.header(last_header);
+        var encoded = filter.serialize();
+        try {
+            long offset = data.size();
+            var record = ByteBuffer.allocate(RECORD_HEADER_LEN + encoded.length).order(ByteOrder.LITTLE_ENDIAN);
+            record.put(header).putInt(encoded.length).put(encoded).flip();
+            writeFully(data, record, offset);
+            var entry = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(offset).flip();
+            writeFully(index, entry, count * 8L);
+            if (count == offsets.length)
+                offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count] = offset;
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot append filter " + count, e);
+        }
+        last_header = header;
+        return count++;
+    }
+
+    // the serialized filter at height
+    public byte[] getFilterBytes(int height) {
+        try {
+            long offset = offsetOf(height);
+            var len = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(data, len, offset + 32);
+            var filter = ByteBuffer.allocate(len.getInt(0));
+            readFully(data, filter, offset + RECORD_HEADER_LEN);
+            return filter.array();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read filter " + height, e);
+        }
+    }
+
+    public GCSFilter getFilter(int height, byte[] block_hash) {
+        return GCSFilter.parseBasic(block_hash, getFilterBytes(height));
+    }
+
+    // filter header at height, internal byte order
+    public byte[] getHeader(int height) {
+        try {
+            var header = ByteBuffer.allocate(32);
+            readFully(data, header, offsetOf(height));
+            return header.array();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read filter header " + height, e);
+        }
+    }
+
+    private synchronized long offsetOf(int height) {
+        if (height < 0 || height >= count)
+            throw new RuntimeException("No filter at height " + height);
+        return offsets[height];
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized byte[] getLastHeader() {
+        return last_header.clone();
+    }
+
+    public void sync() {
+        try {
+            data.force(false);
+            index.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot sync the filter store", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+        index.close();
+    }
+
+    /***************************************************************************/
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int r = ch.read(buf, pos);
+            if (r < 0) throw new IOException("Unexpected end of file");
+            pos += r;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining())
+            pos += ch.write(buf, pos);
+    }
+}
@@ -1,29 +1,81 @@
 package bitcoffee;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigInteger;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class BloomFilter {
     final static String BIP37_CONSTANT_STRING = "fba4c795";
     public final static long BIP37_CONSTANT = new BigInteger(1, Kit.hexStringToByteArray(BIP37_CONSTANT_STRING)).longValue();
 
+    // BIP37 limits
+    public final static int MAX_SIZE = 36000;
+    public final static int MAX_FUNCTION_COUNT = 50;
+    // what a matching output adds to the filter, so that its spending is matched too
+    public final static int BLOOM_UPDATE_NONE = 0;
+    public final static int BLOOM_UPDATE_ALL = 1;
+    public final static int BLOOM_UPDATE_P2PUBKEY_ONLY = 2;
+    public final static int BLOOM_UPDATE_MASK = 3;
+    public final static int DEFAULT_FLAGS = BLOOM_UPDATE_ALL;
+
     private final int size;
     private final int function_count;
     private final int tweak;
-    private final ArrayList<Boolean> bit_field;
-
-    public BloomFilter(int size, int function_count, int tweak) {
-
-        bit_field = new ArrayList<>();
+    private final int flags;
+    // bit i of the filter is bit i%64 of bits[i/64], so byte j of the serialization
+    // is byte j%8 (little endian) of bits[j/8]
+    private final long[] bits;
 
+    public BloomFilter(int size, int function_count, int tweak, int flags) {
         this.function_count = function_count;
         this.size = size;
         this.tweak = tweak;
+        this.flags = flags;
+        this.bits = new long[(size + 7) / 8];
+    }
+
+    public BloomFilter(int size, int function_count, int tweak) {
+        this(size, function_count, tweak, DEFAULT_FLAGS);
+    }
+
+    // the filter sent by a peer with a filterload message
+    public static BloomFilter parseFilterLoad(byte[] payload) {
+        var bis = new ByteArrayInputStream(payload);
+        int size = (int) Kit.readVarint(bis);
+        if (size > MAX_SIZE || bis.available() != size + 9)
+            throw new RuntimeException("Invalid filterload payload");
+        int pos = payload.length - bis.available();
+        var filter_bytes = Arrays.copyOfRange(payload, pos, pos + size);
+        var tail = Arrays.copyOfRange(payload, pos + size, payload.length);
+        int function_count = Kit.readInt32LE(tail, 0);
+        if (function_count < 0 || function_count > MAX_FUNCTION_COUNT)
+            throw new RuntimeException("Too many bloom filter functions: " + function_count);
+
+        var filter = new BloomFilter(size, function_count, Kit.readInt32LE(tail, 4), tail[8] & 0xff);
+        for (int j=0;j<size;j++)
+            filter.bits[j >>> 3] |= (long) (filter_bytes[j] & 0xff) << ((j & 7) << 3);
+        return filter;
+    }
+
+    /***************************************************************************/
+    // BIP37 sizing for n elements and the false positive rate fp_rate (e.g. 0.0001)
+    public static BloomFilter create(int n, double fp_rate, int tweak) {
+        if (n <= 0 || fp_rate <= 0 || fp_rate >= 1)
+            throw new RuntimeException("Invalid bloom filter parameters: n="+n+" fp_rate="+fp_rate);
+        var ln2 = Math.log(2);
+        int size = (int) Math.min(-1 / (ln2 * ln2) * n * Math.log(fp_rate) / 8, MAX_SIZE);
+        size = Math.max(size, 1);
+        int function_count = (int) Math.min(size * 8.0 / n * ln2, MAX_FUNCTION_COUNT);
+        function_count = Math.max(function_count, 1);
+        return new BloomFilter(size, function_count, tweak);
+    }
 
-        for (int i=0;i<size*8;i++)
-            bit_field.add(false);
+    /***************************************************************************/
+    private int bitIndex(byte[] item, int offset, int len, int i) {
+        int seed = (int) (i * BIP37_CONSTANT + tweak);
+        var h = Murmur3.hash32(item, offset, len, seed);
+        return (int) (Integer.toUnsignedLong(h) % (this.size * 8L));
     }
 
     public void add(String item) {
@@ -32,32 +84,152 @@ public class BloomFilter {
     }
 
     public void add(byte[] item) {
+        add(item, 0, item.length);
+    }
 
+    public void add(byte[] item, int offset, int len) {
         for (int i=0;i<function_count;i++) {
-            long seed = i*BIP37_CONSTANT+tweak;
-            var h = Murmur3.hash_x86_32(item,item.length,seed);
-            int bit = h.mod(BigInteger.valueOf(this.size* 8L)).intValue();
-            bit_field.set(bit,true);
+            int bit = bitIndex(item, offset, len, i);
+            bits[bit >>> 6] |= 1L << bit;
         }
     }
 
-    public Message filterLoad() {
-        var bos = new ByteArrayOutputStream();
-        try {
-            bos.write(Kit.encodeVarint(this.size));
-            bos.write(Kit.bitFieldToBytes(this.bit_field));
-            bos.write(Kit.intToLittleEndianBytes(this.function_count),0,4);
-            bos.write(Kit.intToLittleEndianBytes(this.tweak),0,4);
-            bos.write(Kit.intToLittleEndianBytes(1),0,1);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /***************************************************************************/
+    // true if item may be in the filter, false if it surely isn't
+    public boolean contains(byte[] item) {
+        return contains(item, 0, item.length);
+    }
+
+    public boolean contains(byte[] item, int offset, int len) {
+        for (int i=0;i<function_count;i++) {
+            int bit = bitIndex(item, offset, len, i);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
         }
+        return true;
+    }
+
+    public boolean contains(String item) {
+        return contains(Kit.asciiStringToBytes(item));
+    }
 
-        return new MessageGeneric("filterload",bos.toByteArray());
+    /***************************************************************************/
+    // BIP37 matching of a transaction, as done by a node serving SPV peers: the txid, the
+    // data pushed by the output scripts, the spent outpoints and the data pushed by the
+    // input scripts. A matching output adds its outpoint to the filter, as the flags say
+    public boolean isRelevantAndUpdate(Tx tx) {
+        var txid = tx.hash();
+        boolean found = contains(txid);
 
+        var tx_outs = tx.getTxOuts();
+        for (int i=0;i<tx_outs.size();i++) {
+            var script_pubkey = tx_outs.get(i).getScriptPubkeyBytes();
+            if (!scriptMatches(script_pubkey)) continue;
+            found = true;
+            int update = flags & BLOOM_UPDATE_MASK;
+            if (update == BLOOM_UPDATE_ALL || (update == BLOOM_UPDATE_P2PUBKEY_ONLY && isPubKeyScript(script_pubkey)))
+                add(outpoint(txid, i));
+        }
+        if (found) return true;
+
+        for (TxIn tx_in: tx.getTxIns()) {
+            if (contains(outpoint(Kit.reverseBytes(tx_in.getPrevTxId()), tx_in.getPrevIndex())))
+                return true;
+            if (scriptMatches(tx_in.getScriptSig()))
+                return true;
+        }
+        return false;
+    }
+
+    // prev tx hash (internal byte order) and little endian index
+    private static byte[] outpoint(byte[] tx_hash, long index) {
+        var outpoint = Arrays.copyOf(tx_hash, 36);
+        for (int k=0;k<4;k++)
+            outpoint[32+k] = (byte) (index >>> (8*k));
+        return outpoint;
+    }
+
+    // true if any non empty data pushed by the script is in the filter. The script is
+    // walked in place, without parsing it into commands
+    private boolean scriptMatches(byte[] script) {
+        int pos = 0;
+        while (pos < script.length) {
+            int op = script[pos++] & 0xff;
+            int len;
+            if (op >= 1 && op <= 75) len = op;
+            else if (op == 76 && pos + 1 <= script.length) {
+                len = script[pos] & 0xff;
+                pos += 1;
+            }
+            else if (op == 77 && pos + 2 <= script.length) {
+                len = (script[pos] & 0xff) | (script[pos+1] & 0xff) << 8;
+                pos += 2;
+            }
+            else if (op == 78 && pos + 4 <= script.length) {
+                len = Kit.readInt32LE(script, pos);
+                pos += 4;
+            }
+            else if (op >= 76 && op <= 78) return false;
+            else continue;
+
+            // truncated push
+            if (len < 0 || len > script.length - pos) return false;
+            if (len > 0 && contains(script, pos, len)) return true;
+            pos += len;
+        }
+        return false;
+    }
+
+    // pay to pubkey or bare multisig
+    private static boolean isPubKeyScript(byte[] script) {
+        int n = script.length;
+        if ((n == 35 && script[0] == 33) || (n == 67 && script[0] == 65))
+            return (script[n-1] & 0xff) == 0xac;
+        // OP_m <pubkeys> OP_n OP_CHECKMULTISIG
+        return n >= 37 && (script[n-1] & 0xff) == 0xae
+                && (script[0] & 0xff) >= 0x51 && (script[0] & 0xff) <= 0x60;
+    }
+
+    /***************************************************************************/
+    public byte[] toBytes() {
+        var bytes = new byte[size];
+        for (int j=0;j<size;j++)
+            bytes[j] = (byte) (bits[j >>> 3] >>> ((j & 7) << 3));
+        return bytes;
+    }
+
+    // payload of the filterload message
+    public byte[] serializeFilterLoad() {
+        var bos = new ByteArrayOutputStream(size + 18);
+        Kit.writeVarint(bos,this.size);
+        bos.writeBytes(toBytes());
+        Kit.writeInt32LE(bos, this.function_count);
+        Kit.writeInt32LE(bos, this.tweak);
+        bos.write(flags);
+        return bos.toByteArray();
+    }
+
+    public Message filterLoad() {
+        return new MessageGeneric("filterload",serializeFilterLoad());
     }
 
     public String getBitField() {
-        return Kit.bytesToHexString(Kit.bitFieldToBytes(bit_field));
+        return Kit.bytesToHexString(toBytes());
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getFunctionCount() {
+        return function_count;
+    }
+
+    public int getTweak() {
+        return tweak;
+    }
+
+    public int getFlags() {
+        return flags;
     }
 }
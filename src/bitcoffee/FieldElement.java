@@ -16,8 +16,14 @@ public class FieldElement {
     }
 
     public FieldElement(BigInteger num, BigInteger prime) {
+        this(num,prime,false);
+    }
+
+    // skip_check: the caller already guarantees num in 0..prime-1
+    // (subclasses keeping their own representation can pass a null num and override getNum)
+    protected FieldElement(BigInteger num, BigInteger prime, boolean skip_check) {
 
-        if (num.compareTo(prime)>=0 || num.compareTo(BigInteger.ZERO) <0) {
+        if (!skip_check && (num.compareTo(prime)>=0 || num.compareTo(BigInteger.ZERO) <0)) {
             System.out.println(" Element "+num+ " not in 0.."+(prime.subtract(BigInteger.ONE)));
             System.exit(-1);
         }
@@ -41,7 +47,7 @@ public class FieldElement {
             System.exit(-1);
         }
 
-        var sum = (this.num.add(other.num)).mod(this.prime);
+        var sum = (this.getNum().add(other.getNum())).mod(this.prime);
         return new FieldElement(sum,this.prime);
     }
 
@@ -52,7 +58,7 @@ public class FieldElement {
             System.exit(-1);
         }
 
-        var product = (this.num.multiply(other.num)).mod(this.prime);
+        var product = (this.getNum().multiply(other.getNum())).mod(this.prime);
 
         return new FieldElement(product,this.prime);
     }
@@ -60,14 +66,15 @@ public class FieldElement {
     public FieldElement pow(BigInteger exp) {
         exp = exp.mod(this.prime.subtract(BigInteger.ONE));
 
-        var num_res  = this.num.modPow(exp,this.prime);
+        var num_res  = this.getNum().modPow(exp,this.prime);
 
         return new FieldElement(num_res,this.prime);
     }
 
     public FieldElement divide(FieldElement other) {
-        var exp = this.prime.subtract(BigInteger.TWO);
-        return this.multiply(other.pow(exp));
+        // extended gcd inverse, cheaper than other^(prime-2)
+        var inverse = other.getNum().modInverse(this.prime);
+        return this.multiply(new FieldElement(inverse,this.prime));
     }
 
     public FieldElement subtract(FieldElement other) {
@@ -75,14 +82,14 @@ public class FieldElement {
             System.out.println("Different fields "+this.prime+" and "+other.prime);
             System.exit(-1);
         }
-        var diff = (this.num.subtract(other.num)).mod(this.prime);
+        var diff = (this.getNum().subtract(other.getNum())).mod(this.prime);
         return new FieldElement(diff,this.prime);
 
     }
 
     @Override
     public String toString() {
-        return "Field_" + prime + "_(" + num + ')';
+        return "Field_" + prime + "_(" + getNum() + ')';
     }
 
     @Override
@@ -91,11 +98,11 @@ public class FieldElement {
         //if (o == null || getClass() != o.getClass()) return false;
         if (o == null) return false;
         FieldElement that = (FieldElement) o;
-        return num.equals(that.num) && prime.equals(that.prime);
+        return getNum().equals(that.getNum()) && prime.equals(that.prime);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(num, prime);
+        return Objects.hash(getNum(), prime);
     }
 }
@@ -22,23 +22,32 @@ public class FieldElementPoint {
 
 
     public FieldElementPoint(FieldElement x, FieldElement y, FieldElement a, FieldElement b) {
+        this(x, y, a, b, false);
+    }
+
+    // used by subclasses building points that are on the curve by construction
+    protected FieldElementPoint(FieldElement x, FieldElement y, FieldElement a, FieldElement b, boolean skip_check) {
         this.x = x;
         this.y = y;
         this.a = a;
         this.b = b;
 
-        if (!inTheCurve()){
+        if (!skip_check && !inTheCurve()){
             System.out.println("Not in the curve!" + this);
             System.exit(-1);
         }
 
     }
     public FieldElementPoint(FieldElementPoint other) {
+        this(other, false);
+    }
+
+    protected FieldElementPoint(FieldElementPoint other, boolean skip_check) {
         this.x = other.x;
         this.y = other.y;
         this.a = other.a;
         this.b = other.b;
-        if (!inTheCurve()){
+        if (!skip_check && !inTheCurve()){
             System.out.println("Not in the curve!" + this);
             System.exit(-1);
         }
@@ -93,9 +102,8 @@ public class FieldElementPoint {
             // y3=s*(x1-x3)-y1
             var num = this.x.pow(BigInteger.TWO).multiply(new FieldElement(3,prime)).add(this.a);
             var den = this.y.multiply(new FieldElement(2,prime));
-            var div = (num.divide(den));
             // slope
-            var s = num.divide(this.y.multiply(new FieldElement(2,prime)));
+            var s = num.divide(den);
             var x3 = s.pow(BigInteger.TWO).subtract(this.x.multiply(new FieldElement(2,prime)));
             var y3 = s.multiply(this.x.subtract(x3)).subtract(this.y);
             return new FieldElementPoint(x3,y3,this.a,this.b);
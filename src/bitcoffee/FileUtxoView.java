@@ -0,0 +1,59 @@
+package bitcoffee;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+// Outputs of the transactions saved in a directory, one file per transaction named by its
+// id and holding its serialization. Used as a local copy of the previous transactions, so
+// that they are downloaded only once. Every output of a saved tx is returned, spent or not
+public class FileUtxoView implements UtxoView {
+    private final Path dir;
+    private final boolean testnet;
+
+    public FileUtxoView(Path dir, boolean testnet) {
+        this.dir = dir;
+        this.testnet = testnet;
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot create the tx directory " + dir, e);
+        }
+    }
+
+    public void put(Tx tx) {
+        var file = fileOf(tx.getId());
+        if (Files.exists(file)) return;
+        try {
+            // written aside and moved, so that a crash doesn't leave a truncated tx
+            var tmp = dir.resolve(tx.getId() + ".tmp");
+            Files.write(tmp, tx.getPayload());
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot save tx " + tx.getId(), e);
+        }
+    }
+
+    // the saved tx, null if not in the directory
+    public Tx getTx(String tx_id) {
+        var file = fileOf(tx_id);
+        if (!Files.exists(file)) return null;
+        try {
+            return Tx.parse(Files.readAllBytes(file), testnet);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read tx " + tx_id, e);
+        }
+    }
+
+    @Override
+    public TxOut getOutput(byte[] prev_tx_id, long prev_index) {
+        var tx = getTx(Kit.bytesToHexString(prev_tx_id));
+        if (tx == null || prev_index >= tx.getTxOuts().size()) return null;
+        return tx.getTxOuts().get((int) prev_index);
+    }
+
+    private Path fileOf(String tx_id) {
+        return dir.resolve(tx_id + ".tx");
+    }
+}
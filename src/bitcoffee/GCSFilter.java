@@ -0,0 +1,233 @@
+package bitcoffee;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+// BIP158 Golomb-coded set filter. The N elements are hashed with SipHash (keyed by the first
+// 16 bytes of the block hash) to the range 0..N*M-1, sorted, and the differences between
+// consecutive values are Golomb-Rice coded with parameter P.
+// Serialization: varint N followed by the bit stream
+public final class GCSFilter {
+    // basic filter parameters
+    public static final int BASIC_P = 19;
+    public static final long BASIC_M = 784931;
+
+    private final int p;
+    private final long m;
+    private final long k0, k1;
+    private final int n;
+    private final byte[] encoded;
+
+    private GCSFilter(int p, long m, byte[] key, int n, byte[] encoded) {
+        this.p = p;
+        this.m = m;
+        this.k0 = Kit.readInt64LE(key, 0);
+        this.k1 = Kit.readInt64LE(key, 8);
+        this.n = n;
+        this.encoded = encoded;
+    }
+
+    /***************************************************************************/
+    // filter of the elements (duplicates are removed), key is 16 bytes
+    public static GCSFilter build(int p, long m, byte[] key, Collection<byte[]> elements) {
+        var unique = new HashSet<ByteBuffer>();
+        for (byte[] e : elements)
+            unique.add(ByteBuffer.wrap(e));
+
+        int n = unique.size();
+        var filter = new GCSFilter(p, m, key, n, null);
+        var values = new long[n];
+        int i = 0;
+        for (ByteBuffer e : unique)
+            values[i++] = filter.hashToRange(e.array(), n);
+        // values are below 2^63, the signed sort is fine
+        Arrays.sort(values);
+
+        var bos = new ByteArrayOutputStream();
+        Kit.writeVarint(bos,n);
+        var writer = new BitWriter(bos);
+        long last = 0;
+        for (long v : values) {
+            writer.writeGolombRice(v - last, p);
+            last = v;
+        }
+        writer.flush();
+        return new GCSFilter(p, m, key, n, bos.toByteArray());
+    }
+
+    // filter serialized as by serialize()
+    public static GCSFilter parse(int p, long m, byte[] key, byte[] encoded) {
+        var bis = new ByteArrayInputStream(encoded);
+        long n = Kit.readVarint(bis);
+        if (n > Integer.MAX_VALUE)
+            throw new RuntimeException("Too many filter elements: " + n);
+        return new GCSFilter(p, m, key, (int) n, encoded);
+    }
+
+    /***************************************************************************/
+    // BIP158 basic filter of a block: the script pubkeys of all the outputs (except the
+    // OP_RETURN ones) and the script pubkeys of all the outputs spent by the block,
+    // given in spent_scripts since they are not in the block itself
+    public static GCSFilter basic(Block block, List<Tx> txs, List<byte[]> spent_scripts) {
+        var elements = new ArrayList<byte[]>();
+        for (Tx tx : txs) {
+            for (TxOut tx_out : tx.getTxOuts()) {
+                var script = tx_out.getScriptPubkeyBytes();
+                if (script.length == 0 || (script[0] & 0xff) == 0x6a) continue;
+                elements.add(script);
+            }
+        }
+        for (byte[] script : spent_scripts)
+            if (script.length > 0)
+                elements.add(script);
+        return build(BASIC_P, BASIC_M, basicKey(block.hash()), elements);
+    }
+
+    public static GCSFilter parseBasic(byte[] block_hash, byte[] encoded) {
+        return parse(BASIC_P, BASIC_M, basicKey(block_hash), encoded);
+    }
+
+    // the first 16 bytes of the block hash, in internal byte order (block_hash is displayed order)
+    private static byte[] basicKey(byte[] block_hash) {
+        return Arrays.copyOf(Kit.reverseBytes(block_hash), 16);
+    }
+
+    /***************************************************************************/
+    // (siphash(e) * f) >> 64, f = n*m, the unsigned 128 bits product
+    private long hashToRange(byte[] e, int n) {
+        long h = SipHash.hash(k0, k1, e);
+        long f = n * m;
+        return Math.multiplyHigh(h, f) + ((h >> 63) & f) + ((f >> 63) & h);
+    }
+
+    public boolean match(byte[] element) {
+        return matchAny(List.of(element));
+    }
+
+    // true if any of the elements is (probably, 1/M false positives) in the set.
+    // The queries are hashed and sorted, then merged with the decoded values in a single pass
+    public boolean matchAny(Collection<byte[]> elements) {
+        if (n == 0 || elements.isEmpty()) return false;
+        var queries = new long[elements.size()];
+        int i = 0;
+        for (byte[] e : elements)
+            queries[i++] = hashToRange(e, n);
+        Arrays.sort(queries);
+
+        var reader = new BitReader(encoded, encoded.length - bitsLength());
+        long value = 0;
+        int q = 0;
+        for (int k = 0; k < n; k++) {
+            value += reader.readGolombRice(p);
+            while (queries[q] < value) {
+                if (++q == queries.length) return false;
+            }
+            if (queries[q] == value) return true;
+        }
+        return false;
+    }
+
+    // length of the bit stream, after the varint
+    private int bitsLength() {
+        return encoded.length - Kit.varintSize(n);
+    }
+
+    /***************************************************************************/
+    public byte[] serialize() {
+        return encoded.clone();
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    // hash256 of the serialization, internal byte order
+    public byte[] getHash() {
+        return Kit.hash256(encoded);
+    }
+
+    // BIP157 filter header: hash256(filter hash || previous header), internal byte order.
+    // The previous header of the genesis block is 32 zero bytes
+    public byte[] header(byte[] prev_header) {
+        return Kit.hash256(Kit.concatBytes(getHash(), prev_header));
+    }
+
+    /***************************************************************************/
+    // most significant bit first
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out;
+        private int current = 0;
+        private int used = 0;
+
+        BitWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void writeBit(int bit) {
+            current = (current << 1) | bit;
+            if (++used == 8) {
+                out.write(current);
+                current = 0;
+                used = 0;
+            }
+        }
+
+        void writeBits(long v, int count) {
+            for (int i = count - 1; i >= 0; i--)
+                writeBit((int) (v >>> i) & 1);
+        }
+
+        // quotient in unary (ones ended by a zero), then the p bits of the remainder
+        void writeGolombRice(long v, int p) {
+            for (long q = v >>> p; q > 0; q--)
+                writeBit(1);
+            writeBit(0);
+            writeBits(v, p);
+        }
+
+        void flush() {
+            if (used > 0)
+                out.write(current << (8 - used));
+            current = 0;
+            used = 0;
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] data;
+        private int pos;
+        private int bit = 0;
+
+        BitReader(byte[] data, int offset) {
+            this.data = data;
+            this.pos = offset;
+        }
+
+        int readBit() {
+            if (pos >= data.length)
+                throw new RuntimeException("Truncated filter");
+            int b = (data[pos] >>> (7 - bit)) & 1;
+            if (++bit == 8) {
+                bit = 0;
+                pos++;
+            }
+            return b;
+        }
+
+        long readGolombRice(int p) {
+            long q = 0;
+            while (readBit() == 1)
+                q++;
+            long r = 0;
+            for (int i = 0; i < p; i++)
+                r = (r << 1) | readBit();
+            return (q << p) | r;
+        }
+    }
+}
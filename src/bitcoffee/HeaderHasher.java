@@ -0,0 +1,121 @@
+package bitcoffee;
+
+// Double SHA-256 of an 80 bytes block header, for the nonce search.
+// The first 64 bytes of the header don't depend on the nonce, so their SHA-256 state
+// (the midstate) is computed once: every nonce costs the compression of the last 16 bytes
+// plus padding, and of the 32 bytes of the second hash. Not thread safe, one per thread
+public final class HeaderHasher {
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+    private static final int[] H0 = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private final int[] midstate = new int[8];
+    // big endian words of header bytes 64..75: end of the merkle root, timestamp and bits
+    private final int tail0, tail1, tail2;
+
+    private final int[] w = new int[64];
+    private final int[] state = new int[8];
+
+    public HeaderHasher(byte[] header) {
+        if (header.length != 80)
+            throw new RuntimeException("Block header must be 80 bytes, found " + header.length);
+        System.arraycopy(H0, 0, midstate, 0, 8);
+        for (int i = 0; i < 16; i++)
+            w[i] = readInt(header, 4 * i);
+        compress(midstate, w);
+        tail0 = readInt(header, 64);
+        tail1 = readInt(header, 68);
+        tail2 = readInt(header, 72);
+    }
+
+    /***************************************************************************/
+    // writes at out[offset..offset+32] the hash256 of the header with the given nonce,
+    // the nonce being the little endian integer of the last 4 header bytes.
+    // The hash is in the internal byte order, as Kit.hash256
+    public void hash(int nonce, byte[] out, int offset) {
+        // second block of the header: 16 bytes, the padding bit and the length (640 bits)
+        System.arraycopy(midstate, 0, state, 0, 8);
+        w[0] = tail0;
+        w[1] = tail1;
+        w[2] = tail2;
+        w[3] = Integer.reverseBytes(nonce);
+        w[4] = 0x80000000;
+        for (int i = 5; i < 15; i++)
+            w[i] = 0;
+        w[15] = 640;
+        compress(state, w);
+
+        // second hash of the 32 bytes digest, 256 bits
+        System.arraycopy(state, 0, w, 0, 8);
+        w[8] = 0x80000000;
+        for (int i = 9; i < 15; i++)
+            w[i] = 0;
+        w[15] = 256;
+        System.arraycopy(H0, 0, state, 0, 8);
+        compress(state, w);
+
+        for (int i = 0; i < 8; i++) {
+            int s = state[i];
+            out[offset + 4 * i] = (byte) (s >>> 24);
+            out[offset + 4 * i + 1] = (byte) (s >>> 16);
+            out[offset + 4 * i + 2] = (byte) (s >>> 8);
+            out[offset + 4 * i + 3] = (byte) s;
+        }
+    }
+
+    public byte[] hash(int nonce) {
+        var out = new byte[32];
+        hash(nonce, out, 0);
+        return out;
+    }
+
+    /***************************************************************************/
+    // SHA-256 compression of the 16 words at the start of w into s
+    private static void compress(int[] s, int[] w) {
+        for (int i = 16; i < 64; i++) {
+            int w15 = w[i - 15];
+            int w2 = w[i - 2];
+            int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+            int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = s[0], b = s[1], c = s[2], d = s[3], e = s[4], f = s[5], g = s[6], h = s[7];
+        for (int i = 0; i < 64; i++) {
+            int t1 = h + (Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25))
+                    + ((e & f) ^ (~e & g)) + K[i] + w[i];
+            int t2 = (Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22))
+                    + ((a & b) ^ (a & c) ^ (b & c));
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        s[0] += a;
+        s[1] += b;
+        s[2] += c;
+        s[3] += d;
+        s[4] += e;
+        s[5] += f;
+        s[6] += g;
+        s[7] += h;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+}
@@ -0,0 +1,31 @@
+package bitcoffee;
+
+// Outputs of the previous transactions downloaded by TxFetcher, saved to a FileUtxoView
+// when one is given, so that each of them is downloaded once. Every output of a fetched tx
+// is returned, spent or not
+public class HttpUtxoView implements UtxoView {
+    private final boolean testnet;
+    private final FileUtxoView saved;
+
+    public HttpUtxoView(boolean testnet) {
+        this(testnet, null);
+    }
+
+    public HttpUtxoView(boolean testnet, FileUtxoView saved) {
+        this.testnet = testnet;
+        this.saved = saved;
+    }
+
+    @Override
+    public TxOut getOutput(byte[] prev_tx_id, long prev_index) {
+        if (saved != null) {
+            var tx_out = saved.getOutput(prev_tx_id, prev_index);
+            if (tx_out != null) return tx_out;
+        }
+        var tx = TxFetcher.fetch(Kit.bytesToHexString(prev_tx_id), testnet, false);
+        if (tx == null) return null;
+        if (saved != null) saved.put(tx);
+        if (prev_index >= tx.getTxOuts().size()) return null;
+        return tx.getTxOuts().get((int) prev_index);
+    }
+}
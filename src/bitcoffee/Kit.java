@@ -6,9 +6,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -96,24 +95,21 @@ public class Kit {
     }
     /***************************************************************************/
     public static byte[] sha256(byte[] b) {
-        MessageDigest digester = null;
-        try {
-            digester = MessageDigest.getInstance("SHA-256");
-        } catch (
-                NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-
-        assert digester != null;
-        return digester.digest(b);
+        return Sha256.hash(b);
     }
 
     /***************************************************************************/
     public static byte[] hash256(byte[] b) {
-        return sha256(sha256(b));
+        return Sha256.doubleHash(b);
     }
 
 
+    /***************************************************************************/
+    // BIP340 tagged hash: sha256(sha256(tag) || sha256(tag) || msg)
+    public static byte[] taggedHash(String tag, byte[] msg) {
+        return Sha256.taggedHash(tag,msg);
+    }
+
     /***************************************************************************/
     public static byte[] hash160(byte[] b) {
         return RIPEMD160(sha256(b));
@@ -177,8 +173,7 @@ public class Kit {
         var len = combined.length;
         byte[] checksum_start = Arrays.copyOfRange(combined,len-4,len);
         var checksum_start_hex = Kit.bytesToHexString(checksum_start);
-        var original = Arrays.copyOfRange(combined,0,len-4);
-        var computed_checksum = hash256(original);
+        var computed_checksum = Sha256.doubleHash(combined,0,len-4);
         var computed_checksim_start = Arrays.copyOfRange(computed_checksum,0,4);
 
         if (!Arrays.equals(computed_checksim_start,checksum_start)) {
@@ -232,14 +227,19 @@ public class Kit {
 
     /***************************************************************************/
     public static BigInteger litteEndianBytesToInt(byte[] bytes) {
-
+        // up to 8 bytes fit a long, the sign bit excluded
+        if (bytes.length < 8)
+            return BigInteger.valueOf(readLE(bytes, 0, bytes.length));
         var reversed_bytes = to32bytes(reverseBytes(bytes));
         return new BigInteger(reversed_bytes);
     }
 
     /***************************************************************************/
+    // the 32 bytes little endian form of n, as the BigInteger version below
     public static byte[] intToLittleEndianBytes(long n) {
-        return intToLittleEndianBytes(BigInteger.valueOf(n));
+        var bytes = new byte[32];
+        writeInt64LE(bytes, 0, n);
+        return bytes;
     }
 
     /***************************************************************************/
@@ -250,8 +250,76 @@ public class Kit {
 
     /***************************************************************************/
     public static BigInteger littleEndianBytesToInt(byte[] little_bytes) {
-        byte[] reversed = to32bytes(reverseBytes(little_bytes));
-        return new BigInteger(reversed);
+        return litteEndianBytesToInt(little_bytes);
+    }
+
+    /***************************************************************************/
+    // little endian primitives on arrays and streams, for the serializers
+    public static int readInt32LE(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off+1] & 0xff) << 8 | (b[off+2] & 0xff) << 16 | (b[off+3] & 0xff) << 24;
+    }
+
+    public static long readUInt32LE(byte[] b, int off) {
+        return readInt32LE(b, off) & 0xffffffffL;
+    }
+
+    public static long readInt64LE(byte[] b, int off) {
+        return readLE(b, off, 8);
+    }
+
+    // n <= 8 bytes, unsigned
+    private static long readLE(byte[] b, int off, int n) {
+        long v = 0;
+        for (int i = n - 1; i >= 0; i--)
+            v = (v << 8) | (b[off + i] & 0xff);
+        return v;
+    }
+
+    // the low 32 bits of n
+    public static void writeInt32LE(byte[] b, int off, long n) {
+        b[off] = (byte) n;
+        b[off+1] = (byte) (n >>> 8);
+        b[off+2] = (byte) (n >>> 16);
+        b[off+3] = (byte) (n >>> 24);
+    }
+
+    public static void writeInt64LE(byte[] b, int off, long n) {
+        writeInt32LE(b, off, n);
+        writeInt32LE(b, off + 4, n >>> 32);
+    }
+
+    public static int readInt32LE(ByteArrayInputStream bis) {
+        int v = 0;
+        for (int i = 0; i < 4; i++)
+            v |= readByte(bis) << (8 * i);
+        return v;
+    }
+
+    public static long readUInt32LE(ByteArrayInputStream bis) {
+        return readInt32LE(bis) & 0xffffffffL;
+    }
+
+    public static long readInt64LE(ByteArrayInputStream bis) {
+        return readUInt32LE(bis) | ((long) readInt32LE(bis) << 32);
+    }
+
+    private static int readByte(ByteArrayInputStream bis) {
+        int b = bis.read();
+        if (b < 0)
+            throw new RuntimeException("Unexpected end of data");
+        return b;
+    }
+
+    public static void writeInt32LE(ByteArrayOutputStream bos, long n) {
+        bos.write((int) n);
+        bos.write((int) (n >>> 8));
+        bos.write((int) (n >>> 16));
+        bos.write((int) (n >>> 24));
+    }
+
+    public static void writeInt64LE(ByteArrayOutputStream bos, long n) {
+        writeInt32LE(bos, n);
+        writeInt32LE(bos, n >>> 32);
     }
 
     /***************************************************************************/
@@ -277,76 +345,135 @@ public class Kit {
     }
 
     /***************************************************************************/
+    // CompactSize varints: values below 0xfd in one byte, else a 0xfd, 0xfe or 0xff prefix
+    // and 2, 4 or 8 little endian bytes. An empty stream reads as -1
     public static long readVarint(ByteArrayInputStream bis) {
-        byte[] buffer;
-        long n;
-        long i = bis.read();
-
-        try {
-            if (i==0xfd) {
-                buffer = bis.readNBytes(2);
-                n = litteEndianBytesToInt(buffer).longValue();
-                return n;
-            }
-            else if(i==0xfe) {
-                buffer = bis.readNBytes(4);
-                n = litteEndianBytesToInt(buffer).longValue();
-                return n;
-            }
-            else if(i==0xff) {
-                buffer = bis.readNBytes(8);
-                n = litteEndianBytesToInt(buffer).longValue();
-                return n;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int i = bis.read();
+        if (i==0xfd)
+            return readByte(bis) | readByte(bis) << 8;
+        else if (i==0xfe)
+            return readUInt32LE(bis);
+        else if (i==0xff)
+            return readInt64LE(bis);
         return i;
-
     }
 
     /***************************************************************************/
     public static long readVarint(byte[] bytes) {
-        var bis = new ByteArrayInputStream(bytes);
-        return readVarint(bis);
+        return readVarint(bytes, 0);
+    }
+
+    public static long readVarint(byte[] b, int off) {
+        int i = b[off] & 0xff;
+        if (i==0xfd) return readLE(b, off+1, 2);
+        if (i==0xfe) return readLE(b, off+1, 4);
+        if (i==0xff) return readLE(b, off+1, 8);
+        return i;
+    }
+
+    // reads at the position of buf, moving it after the varint
+    public static long readVarint(ByteBuffer buf) {
+        int i = buf.get() & 0xff;
+        long v = 0;
+        int n = i==0xfd ? 2 : i==0xfe ? 4 : i==0xff ? 8 : 0;
+        if (n==0) return i;
+        for (int k = 0; k < n; k++)
+            v |= (long) (buf.get() & 0xff) << (8 * k);
+        return v;
+    }
+
+    // varint at the absolute index pos of buf, the position is unchanged
+    public static long readVarint(ByteBuffer buf, int pos) {
+        int i = buf.get(pos) & 0xff;
+        int n = varintLength(buf.get(pos));
+        if (n==1) return i;
+        long v = 0;
+        for (int k = n - 1; k >= 1; k--)
+            v = (v << 8) | (buf.get(pos + k) & 0xff);
+        return v;
+    }
+
+    // length of the varint starting with the byte first
+    public static int varintLength(byte first) {
+        switch (first & 0xff) {
+            case 0xfd: return 3;
+            case 0xfe: return 5;
+            case 0xff: return 9;
+            default: return 1;
+        }
+    }
+
+    // length of the encoding of i (unsigned)
+    public static int varintSize(long i) {
+        if (i>=0 && i<0xfd) return 1;
+        if (i>=0 && i<0x10000) return 3;
+        if (i>=0 && i<0x100000000L) return 5;
+        return 9;
     }
 
     /***************************************************************************/
     public static byte[] encodeVarint(long i) {
-        byte[] buffer;
-        byte[] result;
-        byte prefix;
-        var bos = new ByteArrayOutputStream();
-        if (i<0xfd) {
-            // single byte, not need to reorder little endian
-            //return BigInteger.valueOf(i).toByteArray();
-            return new byte[] {(byte)i};
-        }
-        else if (i<0x10000) {
-            buffer = intToLittleEndianBytes(i);
-            prefix = (byte)0xfd;
-            bos.write(prefix);
-            bos.write(buffer,0,2);
-            result = bos.toByteArray();
-            return result;
+        var bytes = new byte[varintSize(i)];
+        writeVarint(bytes, 0, i);
+        return bytes;
+    }
+
+    // writes i at b[off..], returns the number of bytes written
+    public static int writeVarint(byte[] b, int off, long i) {
+        int size = varintSize(i);
+        switch (size) {
+            case 1:
+                b[off] = (byte) i;
+                break;
+            case 3:
+                b[off] = (byte) 0xfd;
+                b[off+1] = (byte) i;
+                b[off+2] = (byte) (i >>> 8);
+                break;
+            case 5:
+                b[off] = (byte) 0xfe;
+                writeInt32LE(b, off+1, i);
+                break;
+            default:
+                b[off] = (byte) 0xff;
+                writeInt64LE(b, off+1, i);
         }
-        else if (i<0x100000000L) {
-            buffer = intToLittleEndianBytes(i);
-            prefix = (byte)0xfe;
-            bos.write(prefix);
-            bos.write(buffer,0,4);
-            result = bos.toByteArray();
-            return result;
+        return size;
+    }
+
+    public static void writeVarint(ByteArrayOutputStream bos, long i) {
+        int size = varintSize(i);
+        if (size==1) {
+            bos.write((int) i);
+            return;
         }
-        else if (BigInteger.valueOf(i).compareTo(BigInteger.TWO.pow(64))<0) {
-            buffer = intToLittleEndianBytes(i);
-            prefix = (byte)0xff;
-            bos.write(prefix);
-            bos.write(buffer,0,8);
-            result = bos.toByteArray();
-            return result;
+        bos.write(size==3 ? 0xfd : size==5 ? 0xfe : 0xff);
+        for (int k = 0; k < size - 1; k++)
+            bos.write((int) (i >>> (8 * k)));
+    }
+
+    // little endian whatever the byte order of buf
+    public static void putInt32LE(ByteBuffer buf, long n) {
+        buf.put((byte) n);
+        buf.put((byte) (n >>> 8));
+        buf.put((byte) (n >>> 16));
+        buf.put((byte) (n >>> 24));
+    }
+
+    public static void putInt64LE(ByteBuffer buf, long n) {
+        putInt32LE(buf, n);
+        putInt32LE(buf, n >>> 32);
+    }
+
+    public static void putVarint(ByteBuffer buf, long i) {
+        int size = varintSize(i);
+        if (size==1) {
+            buf.put((byte) i);
+            return;
         }
-        return null;
+        buf.put((byte) (size==3 ? 0xfd : size==5 ? 0xfe : 0xff));
+        for (int k = 0; k < size - 1; k++)
+            buf.put((byte) (i >>> (8 * k)));
     }
 
 
@@ -0,0 +1,64 @@
+package bitcoffee;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+
+// Outputs kept in a hash map by outpoint, e.g. the ones spent by a block, prefetched
+// before validating it. An output stays until remove() spends it
+public class MemoryUtxoView implements UtxoView {
+    private final HashMap<ByteBuffer, TxOut> outputs = new HashMap<>();
+
+    public void add(byte[] tx_id, long index, TxOut tx_out) {
+        outputs.put(key(tx_id, index), tx_out);
+    }
+
+    // all the outputs of tx
+    public void addOutputs(Tx tx) {
+        var tx_id = Kit.hexStringToByteArray(tx.getId());
+        var tx_outs = tx.getTxOuts();
+        for (int i = 0; i < tx_outs.size(); i++)
+            add(tx_id, i, tx_outs.get(i));
+    }
+
+    // spends the output, returning it (null if unknown)
+    public TxOut remove(byte[] tx_id, long index) {
+        return outputs.remove(key(tx_id, index));
+    }
+
+    public int size() {
+        return outputs.size();
+    }
+
+    @Override
+    public TxOut getOutput(byte[] prev_tx_id, long prev_index) {
+        return outputs.get(key(prev_tx_id, prev_index));
+    }
+
+    private static ByteBuffer key(byte[] tx_id, long index) {
+        return ByteBuffer.wrap(UtxoView.outpoint(tx_id, index));
+    }
+
+    /***************************************************************************/
+    // the outputs spent by txs (the transactions of a block, in order), taken from the
+    // earlier transactions of the list or, once each, from source. Coinbase inputs and
+    // outputs unknown to source are left out: the validation of their tx fails. Two inputs
+    // spending the same output both find it: the double spends are left to the caller
+    public static MemoryUtxoView prefetch(List<Tx> txs, UtxoView source) {
+        var created = new MemoryUtxoView();
+        var spent = new MemoryUtxoView();
+        for (Tx tx : txs) {
+            if (!tx.isCoinbase()) {
+                for (TxIn tx_in : tx.getTxIns()) {
+                    var tx_out = created.getOutput(tx_in);
+                    if (tx_out == null)
+                        tx_out = source.getOutput(tx_in);
+                    if (tx_out != null)
+                        spent.add(tx_in.getPrevTxId(), tx_in.getPrevIndex(), tx_out);
+                }
+            }
+            created.addOutputs(tx);
+        }
+        return spent;
+    }
+}
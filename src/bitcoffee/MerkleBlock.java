@@ -1,6 +1,7 @@
 package bitcoffee;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -15,6 +16,8 @@ public class MerkleBlock implements Message {
     final private int total_txs;
     final private String flags;
     private ArrayList<String> tx_hashes;
+    // for the blocks built by fromBlock, the transactions to send after the merkleblock
+    private ArrayList<Tx> matched_txs = null;
 
     final static String GENESIS_BLOCK = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a29ab5f49ffff001d1dac2b7c";
     final static String TESTNET_GENESIS_BLOCK = "0100000000000000000000000000000000000000000000000000000000000000000000003ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4adae5494dffff001d1aa4ae18";
@@ -29,7 +32,21 @@ public class MerkleBlock implements Message {
 
     @Override
     public byte[] getPayload() {
-        throw new RuntimeException("Not implemented");
+        var bos = new ByteArrayOutputStream();
+        Kit.writeInt32LE(bos,version);
+        bos.writeBytes(Kit.reverseBytes(Kit.hexStringToByteArray(prev_block)));
+        bos.writeBytes(Kit.reverseBytes(Kit.hexStringToByteArray(merkle_root)));
+        Kit.writeInt32LE(bos,timestamp);
+        bos.writeBytes(Kit.hexStringToByteArray(bits));
+        bos.writeBytes(Kit.hexStringToByteArray(nonce));
+        Kit.writeInt32LE(bos,total_txs);
+        Kit.writeVarint(bos,tx_hashes.size());
+        for (String h: tx_hashes)
+            bos.writeBytes(Kit.reverseBytes(Kit.hexStringToByteArray(h)));
+        var flag_bytes = Kit.hexStringToByteArray(flags);
+        Kit.writeVarint(bos,flag_bytes.length);
+        bos.writeBytes(flag_bytes);
+        return bos.toByteArray();
     }
 
 
@@ -53,16 +70,15 @@ public class MerkleBlock implements Message {
 
     /********************************************************************************/
     public static MerkleBlock parseSerial(ByteArrayInputStream bis) throws IOException {
-        var version = Kit.litteEndianBytesToInt(bis.readNBytes(4));
-        var version_str = version.toString(16);
+        var version = Kit.readInt32LE(bis);
 
         var prev_block = Kit.bytesToHexString(Kit.reverseBytes(bis.readNBytes(32)));
         var merkle_root = Kit.bytesToHexString(Kit.reverseBytes(bis.readNBytes(32)));
-        var timestamp = Kit.litteEndianBytesToInt(bis.readNBytes(4)).intValue();
+        var timestamp = Kit.readInt32LE(bis);
         var bits = Kit.bytesToHexString(bis.readNBytes(4));
         var nonce = Kit.bytesToHexString(bis.readNBytes(4));
 
-        var total_txs = Kit.litteEndianBytesToInt(bis.readNBytes(4)).intValue();
+        var total_txs = Kit.readInt32LE(bis);
         var num_hashes = Kit.readVarint(bis);
 
         var hashes = new ArrayList<String>();
@@ -75,7 +91,7 @@ public class MerkleBlock implements Message {
 
         var flags = Kit.bytesToHexString(bis.readNBytes(flags_length));
 
-        return new MerkleBlock(version.intValue(),prev_block,merkle_root,timestamp,bits,nonce,total_txs,hashes,flags);
+        return new MerkleBlock(version,prev_block,merkle_root,timestamp,bits,nonce,total_txs,hashes,flags);
     }
     /********************************************************************************/
     public static MerkleBlock parseSerial(byte[] serial)  {
@@ -103,6 +119,92 @@ public class MerkleBlock implements Message {
         return computed_root.equals(this.merkle_root);
     }
 
+    /********************************************************************************/
+    // BIP37 server side: the filtered block of the txs (in block order) matched by filter,
+    // which is updated with the outpoints of the matching outputs
+    public static MerkleBlock fromBlock(Block block, ArrayList<Tx> txs, BloomFilter filter) {
+        int n = txs.size();
+        var txids = new byte[n][];
+        var matches = new boolean[n];
+        var matched_txs = new ArrayList<Tx>();
+        for (int i=0;i<n;i++) {
+            var tx = txs.get(i);
+            txids[i] = tx.hash();
+            matches[i] = filter.isRelevantAndUpdate(tx);
+            if (matches[i]) matched_txs.add(tx);
+        }
+        var mb = fromBlock(block,txids,matches);
+        mb.matched_txs = matched_txs;
+        return mb;
+    }
+
+    // partial merkle tree of the txids (internal byte order) keeping the matched ones
+    public static MerkleBlock fromBlock(Block block, byte[][] txids, boolean[] matches) {
+        int n = txids.length;
+        if (n == 0 || matches.length != n)
+            throw new RuntimeException("Invalid merkle block transactions");
+
+        // all the levels of the tree, computed once: levels[0] are the txids
+        int height = 0;
+        while (width(n,height) > 1) height++;
+        var levels = new byte[height+1][][];
+        levels[0] = txids;
+        var concat = new byte[64];
+        for (int h=1;h<=height;h++) {
+            var below = levels[h-1];
+            var level = new byte[width(n,h)][];
+            for (int pos=0;pos<level.length;pos++) {
+                var left = below[2*pos];
+                // the last node of an odd level is paired with itself
+                var right = 2*pos+1 < below.length ? below[2*pos+1] : left;
+                System.arraycopy(left,0,concat,0,32);
+                System.arraycopy(right,0,concat,32,32);
+                level[pos] = Sha256.doubleHash(concat);
+            }
+            levels[h] = level;
+        }
+
+        // depth first traversal: a flag bit for every node visited, tells if a matched
+        // tx is below it; the hashes of the leaves and of the subtrees without matches
+        var flag_bits = new ArrayList<Boolean>();
+        var hashes = new ArrayList<String>();
+        traverse(levels,matches,height,0,flag_bits,hashes);
+
+        var flag_bytes = new byte[(flag_bits.size()+7)/8];
+        for (int i=0;i<flag_bits.size();i++)
+            if (flag_bits.get(i)) flag_bytes[i/8] |= 1 << (i%8);
+
+        return new MerkleBlock(block.getVersion(),Kit.bytesToHexString(block.getPrev_block()),
+                Kit.bytesToHexString(block.getMerkle_root()),block.getTimestamp(),
+                Kit.bytesToHexString(block.getBits()),Kit.bytesToHexString(block.getNonce()),
+                n,hashes,Kit.bytesToHexString(flag_bytes));
+    }
+
+    // number of nodes at height h of a tree with n leaves
+    private static int width(int n, int h) {
+        return (n + (1 << h) - 1) >> h;
+    }
+
+    private static void traverse(byte[][][] levels, boolean[] matches, int h, int pos,
+                                 ArrayList<Boolean> flag_bits, ArrayList<String> hashes) {
+        boolean parent_of_match = false;
+        int n = matches.length;
+        for (int i = pos << h; i < Math.min((pos+1) << h, n) && !parent_of_match; i++)
+            parent_of_match = matches[i];
+        flag_bits.add(parent_of_match);
+        if (h == 0 || !parent_of_match) {
+            hashes.add(Kit.bytesToHexString(Kit.reverseBytes(levels[h][pos])));
+            return;
+        }
+        traverse(levels,matches,h-1,2*pos,flag_bits,hashes);
+        if (2*pos+1 < levels[h-1].length)
+            traverse(levels,matches,h-1,2*pos+1,flag_bits,hashes);
+    }
+
+    public ArrayList<Tx> getMatchedTxs() {
+        return matched_txs;
+    }
+
     public ArrayList<String> getTx_hashes() {
         return tx_hashes;
     }
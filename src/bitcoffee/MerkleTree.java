@@ -21,8 +21,10 @@ public class MerkleTree {
             }
         }
 
-        var merged = Kit.bytesToHexString(hash1)+Kit.bytesToHexString(hash2);
-        return Kit.hash256(Kit.hexStringToByteArray(merged));
+        var merged = new byte[64];
+        System.arraycopy(hash1,0,merged,0,32);
+        System.arraycopy(hash2,0,merged,32,32);
+        return Sha256.doubleHash(merged);
     }
 
     /***************************************************************************/
@@ -63,9 +63,9 @@ public class MessageGetData implements Message {
         var bos = new ByteArrayOutputStream();
 
         try {
-            bos.write(Kit.encodeVarint(data.size()));
+            Kit.writeVarint(bos,data.size());
             for (DataEntry d: data) {
-                bos.write(Kit.intToLittleEndianBytes(d.type),0,4);
+                Kit.writeInt32LE(bos,d.type);
                 bos.write(Kit.reverseBytes(Kit.hexStringToByteArray(d.identifier)));
             }
         } catch (IOException e) {
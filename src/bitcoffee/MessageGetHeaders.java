@@ -2,7 +2,6 @@ package bitcoffee;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Objects;
 
 public class MessageGetHeaders implements Message {
     final private int version;
@@ -43,8 +42,8 @@ public class MessageGetHeaders implements Message {
         var bos = new ByteArrayOutputStream();
 
         try {
-            bos.write(Kit.intToLittleEndianBytes(this.version),0,4);
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(this.n_hashes)));
+            Kit.writeInt32LE(bos,this.version);
+            Kit.writeVarint(bos,this.n_hashes);
             bos.write(Kit.reverseBytes(Kit.hexStringToByteArray(this.start_header)));
             bos.write(Kit.reverseBytes(Kit.hexStringToByteArray(this.end_header)));
             bos.flush();
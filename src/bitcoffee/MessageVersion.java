@@ -4,7 +4,6 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Arrays;
-import java.util.Objects;
 import java.util.Random;
 
 public class MessageVersion implements Message {
@@ -39,7 +38,8 @@ public class MessageVersion implements Message {
 
         var timestamp = Instant.now().getEpochSecond();
         var rand = new Random();
-        var nonce = Kit.intToLittleEndianBytes(rand.nextLong());
+        var nonce = new byte[8];
+        Kit.writeInt64LE(nonce,0,rand.nextLong());
 
         this.version = 70015;
         this.services = 0;
@@ -99,10 +99,10 @@ public class MessageVersion implements Message {
         var bos = new ByteArrayOutputStream();
 
         try {
-            bos.write(Kit.intToLittleEndianBytes(this.version),0,4);
-            bos.write(Kit.intToLittleEndianBytes(this.services),0,8);
-            bos.write(Kit.intToLittleEndianBytes(this.timestamp),0,8);
-            bos.write(Kit.intToLittleEndianBytes(this.receiver_services),0,8);
+            Kit.writeInt32LE(bos,this.version);
+            Kit.writeInt64LE(bos,this.services);
+            Kit.writeInt64LE(bos,this.timestamp);
+            Kit.writeInt64LE(bos,this.receiver_services);
             // assuming ipv4
             bos.write(Kit.hexStringToByteArray("00000000000000000000ffff"));
             bos.write(this.receiver_ip);
@@ -113,7 +113,7 @@ public class MessageVersion implements Message {
                 System.out.println("ERROR: unsupported receiver port" +this.receiver_port);
             }
 
-            bos.write(Kit.intToLittleEndianBytes(this.sender_services),0,8);
+            Kit.writeInt64LE(bos,this.sender_services);
             bos.write(Kit.hexStringToByteArray("00000000000000000000ffff"));
             bos.write(this.sender_ip);
             if (this.sender_port==8333)
@@ -123,10 +123,10 @@ public class MessageVersion implements Message {
             }
 
             bos.write(nonce);
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(user_agent.length)));
+            Kit.writeVarint(bos,user_agent.length);
             bos.write(user_agent);
 
-            bos.write(Kit.intToLittleEndianBytes(latest_block),0,4);
+            Kit.writeInt32LE(bos,latest_block);
 
             if (this.relay)
                 bos.write(0x01);
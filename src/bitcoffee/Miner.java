@@ -0,0 +1,109 @@
+package bitcoffee;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// CPU miner for regtest/testnet blocks and for benchmarking the header hashing:
+// the 2^32 nonces are split in contiguous ranges, one per thread, each thread hashing
+// with its own midstate HeaderHasher until one of them meets the target
+public class Miner {
+    // hashes done between two checks of the stop flag
+    private static final int BATCH = 1 << 12;
+
+    private final Block template;
+    private final int threads;
+    private final LongAdder hashes = new LongAdder();
+    private long elapsed_nanos = 0;
+    // stop flag of the running mine(), null when idle
+    private volatile AtomicBoolean stop = null;
+
+    public Miner(Block template, int threads) {
+        if (threads < 1)
+            throw new RuntimeException("Miner needs at least one thread");
+        this.template = template;
+        this.threads = threads;
+    }
+
+    public Miner(Block template) {
+        this(template, Runtime.getRuntime().availableProcessors());
+    }
+
+    /***************************************************************************/
+    // returns the template block with a nonce meeting its target, null if none of the
+    // 2^32 nonces does (the caller must then change the timestamp or the coinbase) or if
+    // mining was stopped or interrupted first. The workers have all ended when it returns
+    public Block mine() {
+        var target = template.getTargetBytes();
+        var found = new AtomicBoolean(false);
+        stop = found;
+        var result = new AtomicLong(-1);
+        var workers = new Thread[threads];
+        long range = (1L << 32) / threads;
+
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            long from = t * range;
+            long to = (t == threads - 1) ? (1L << 32) : from + range;
+            workers[t] = new Thread(() -> search(from, to, target, found, result), "miner-" + t);
+            workers[t].start();
+        }
+        // the workers see the flag within a batch: wait for them, then restore the interrupt
+        boolean interrupted = false;
+        for (var worker : workers) {
+            while (true) {
+                try {
+                    worker.join();
+                    break;
+                } catch (InterruptedException e) {
+                    found.set(true);
+                    interrupted = true;
+                }
+            }
+        }
+        stop = null;
+        elapsed_nanos += System.nanoTime() - start;
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (result.get() < 0) return null;
+        return template.withNonce((int) result.get());
+    }
+
+    private void search(long from, long to, byte[] target, AtomicBoolean found, AtomicLong result) {
+        var hasher = template.headerHasher();
+        var hash = new byte[32];
+        long nonce = from;
+        while (nonce < to && !found.get()) {
+            long batch_start = nonce;
+            long end = Math.min(to, nonce + BATCH);
+            for (; nonce < end; nonce++) {
+                hasher.hash((int) nonce, hash, 0);
+                if (Block.isBelowTarget(hash, target)) {
+                    hashes.add(nonce - batch_start + 1);
+                    if (found.compareAndSet(false, true))
+                        result.set(nonce);
+                    return;
+                }
+            }
+            hashes.add(end - batch_start);
+        }
+    }
+
+    // makes the running mine() return as soon as its workers end, from another thread
+    public void stop() {
+        var flag = stop;
+        if (flag != null)
+            flag.set(true);
+    }
+
+    /***************************************************************************/
+    public long getHashes() {
+        return hashes.sum();
+    }
+
+    public double getHashesPerSecond() {
+        if (elapsed_nanos == 0) return 0;
+        return hashes.sum() * 1e9 / elapsed_nanos;
+    }
+}
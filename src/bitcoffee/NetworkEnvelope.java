@@ -63,7 +63,7 @@ public class NetworkEnvelope {
             if (count_end_zeros!=0)
                 command = Arrays.copyOfRange(command,0,12-count_end_zeros);
 
-            var payload_len = Kit.litteEndianBytesToInt(bis.readNBytes(4)).intValue();
+            var payload_len = Integer.reverseBytes(bis.readInt());
             var checksum = bis.readNBytes(4);
             var payload = bis.readNBytes(payload_len);
             var calculated_checksum = Arrays.copyOfRange(Kit.hash256(payload),0,4);
@@ -99,7 +99,7 @@ public class NetworkEnvelope {
             for (int i =0;i<12-this.command.length();i++)
                 bos.write(0);
 
-            bos.write(Kit.intToLittleEndianBytes(this.payload.length),0,4);
+            Kit.writeInt32LE(bos,this.payload.length);
             bos.write(Kit.hash256(this.payload),0,4);
             bos.write(this.payload);
 
@@ -1,23 +1,47 @@
 package bitcoffee;
 
+import java.math.BigInteger;
 import java.util.Stack;
 
-public class P2TRScriptPubKey extends ScriptPubKey{
-    // Convert the 20 bytes hash in a ScriptPubKey
+public class P2TRScriptPubKey extends SegwitPubKey {
+    // Witness v1 program: OP_1 <32 bytes x-only output key>
 
-    public P2TRScriptPubKey(byte[] h160) {
+    public P2TRScriptPubKey(byte[] output_key) {
+        if (output_key.length!=32)
+            throw new RuntimeException("Taproot output key must be 32 bytes");
         var cmds = new Stack<ScriptCmd>();
-        throw new RuntimeException("Not implemented");
+        cmds.push(new ScriptCmd(ScriptCmd.Type.DATA,output_key));
+        cmds.push(new ScriptCmd(ScriptCmd.Type.OP_1));
+        this.commands = cmds;
+    }
+
+    // output key committing to the internal key and to the script tree merkle_root
+    // (null for key path only outputs, as BIP86)
+    public static P2TRScriptPubKey fromInternalKey(S256Point internal_key, byte[] merkle_root) {
+        return new P2TRScriptPubKey(tweakPublicKey(internal_key,merkle_root).xOnly());
+    }
+
+    // BIP341 tweak: t = hash_TapTweak(P || merkle_root), Q = P + t*G, P taken with even y
+    public static S256Point tweakPublicKey(S256Point internal_key, byte[] merkle_root) {
+        var p = internal_key.hasEvenY() ? internal_key : internal_key.negate();
+        var t = tweak(p.xOnly(),merkle_root);
+        return S256GeneratorTable.multiply(t).add(p);
+    }
 
-        //this.commands = cmds;
+    static BigInteger tweak(byte[] internal_x, byte[] merkle_root) {
+        var data = merkle_root==null ? internal_x : Kit.concatBytes(internal_x,merkle_root);
+        var t = new BigInteger(1,Kit.taggedHash("TapTweak",data));
+        if (t.compareTo(Secp256k1.N)>=0)
+            throw new RuntimeException("Invalid taproot tweak");
+        return t;
     }
 
-    public byte[] getHash160() {
-        return getCommands().get(1).value;
+    public byte[] getOutputKey() {
+        return getCommands().get(0).value;
     }
 
     @Override
     public String getAddress(boolean testnet){
-        return P2SHScriptPubKey.h160ToAddress(this.getHash160(),testnet);
+        return Bech32.encode_bech32_checksum(rawSerialize(),testnet,true);
     }
 }
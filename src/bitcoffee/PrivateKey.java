@@ -2,6 +2,7 @@ package bitcoffee;
 
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
+import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -18,23 +19,36 @@ public class PrivateKey {
     public PrivateKey(byte[] secret) {
         this.secret_n = new BigInteger(1,secret);
         this.secret_bytes = Kit.to32bytes(secret);
-        var point = Secp256k1.G.multiplyBin(secret_n);
-        this.point = new S256Point(point);
+        this.point = S256GeneratorTable.multiplyConst(secret_n);
     }
     public PrivateKey(BigInteger n) {
         var secret_bin = Kit.hexStringToByteArray(n.toString(16));
         this.secret_bytes = Kit.to32bytes(secret_bin);
         this.secret_n = n;
-        var point = Secp256k1.G.multiplyBin(this.secret_n);
-        this.point = new S256Point(point);
+        this.point = S256GeneratorTable.multiplyConst(this.secret_n);
     }
 
     public PrivateKey(long n) {
         var secret_bin= Kit.hexStringToByteArray(Long.toHexString(n));
         this.secret_bytes = Kit.to32bytes(secret_bin);
         this.secret_n = BigInteger.valueOf(n);
-        var point = Secp256k1.G.multiplyBin(this.secret_n);
-        this.point = new S256Point(point);
+        this.point = S256GeneratorTable.multiplyConst(this.secret_n);
+    }
+
+    private PrivateKey(BigInteger n, S256Point point) {
+        this.secret_bytes = Kit.intToBigEndian(n, 32);
+        this.secret_n = n;
+        this.point = point;
+    }
+
+    // builds the keys of many secrets at once, sharing a single field inversion
+    // for all the public points
+    public static PrivateKey[] fromSecrets(BigInteger[] secrets) {
+        var points = S256GeneratorTable.multiplyConst(secrets);
+        var keys = new PrivateKey[secrets.length];
+        for (int i = 0; i < secrets.length; i++)
+            keys[i] = new PrivateKey(secrets[i], points[i]);
+        return keys;
     }
 
     public Signature signRandomK(byte[] z_bytes) {
@@ -59,9 +73,9 @@ public class PrivateKey {
         if (k.compareTo(Secp256k1.N)>=0)
             k = k.mod(Secp256k1.N);
         // r = x coordinate of (k*G)
-        var r = (Secp256k1.G.multiplyBin(k)).getX().getNum();
-        // k_inv = k^(N-2)
-        var k_inv = k.modPow(Secp256k1.N.subtract(BigInteger.TWO), Secp256k1.N);
+        var r = S256GeneratorTable.multiplyConst(k).getX().getNum();
+        // k_inv = 1/k, in constant time since k is secret
+        var k_inv = S256ModInverse.ORDER.invert(k);
         // s = (z+r*secret)*k_inv%N
 
         var s = z.add(r.multiply(this.secret_n)).multiply(k_inv).mod(Secp256k1.N);
@@ -72,6 +86,52 @@ public class PrivateKey {
         return new Signature(r,s);
     }
 
+    /***************************************************************************/
+    // BIP340 Schnorr signature of msg, aux_rand are 32 bytes of auxiliary randomness
+    public SchnorrSignature signSchnorr(byte[] msg, byte[] aux_rand) {
+        var n = Secp256k1.N;
+        if (this.secret_n.signum()<=0 || this.secret_n.compareTo(n)>=0)
+            throw new RuntimeException("Invalid secret for Schnorr signature");
+        if (aux_rand.length!=32)
+            throw new RuntimeException("Auxiliary randomness must be 32 bytes");
+
+        // the x-only key stands for the point with even y, so the secret may need to be negated
+        var d = this.point.hasEvenY() ? this.secret_n : n.subtract(this.secret_n);
+        var px = this.point.xOnly();
+
+        var t = Kit.intToBigEndian(d,32);
+        var aux_hash = Kit.taggedHash("BIP0340/aux",aux_rand);
+        for (int i=0;i<32;i++)
+            t[i] ^= aux_hash[i];
+
+        var rand = Kit.taggedHash("BIP0340/nonce",Kit.concatBytes(Kit.concatBytes(t,px),msg));
+        var k = new BigInteger(1,rand).mod(n);
+        if (k.signum()==0)
+            throw new RuntimeException("Schnorr nonce is zero");
+
+        var big_r = S256GeneratorTable.multiplyConst(k);
+        if (!big_r.hasEvenY())
+            k = n.subtract(k);
+        var rx = big_r.xOnly();
+        var e = SchnorrSignature.challenge(rx,px,msg);
+        return new SchnorrSignature(rx,k.add(e.multiply(d)).mod(n));
+    }
+
+    public SchnorrSignature signSchnorr(byte[] msg) {
+        var aux_rand = new byte[32];
+        new SecureRandom().nextBytes(aux_rand);
+        return signSchnorr(msg,aux_rand);
+    }
+
+    // BIP341 tweaked secret for key path spending of the output built by
+    // P2TRScriptPubKey.fromInternalKey(this.point, merkle_root)
+    public PrivateKey tweakTaproot(byte[] merkle_root) {
+        var n = Secp256k1.N;
+        var d = this.point.hasEvenY() ? this.secret_n : n.subtract(this.secret_n);
+        var t = P2TRScriptPubKey.tweak(this.point.xOnly(),merkle_root);
+        return new PrivateKey(d.add(t).mod(n));
+    }
+
     @SuppressWarnings({"LoopConditionNotUpdatedInsideLoop", "ConstantConditions"})
     public BigInteger getDeterministicK(byte[] z_bytes){
         byte[] k = new byte[32];
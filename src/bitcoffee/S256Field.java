@@ -2,12 +2,104 @@ package bitcoffee;
 
 import java.math.BigInteger;
 
+// secp256k1 field element: the arithmetic is done on the fixed size limbs of S256Limbs
+// instead of going through BigInteger mod operations
 public class S256Field extends FieldElement {
+    private final S256Limbs limbs;
+    // BigInteger value, computed only when requested
+    private BigInteger num = null;
+
     public S256Field(BigInteger n) {
         super(n, Secp256k1.p);
+        this.limbs = new S256Limbs(n);
+        this.num = n;
+    }
+
+    // the limbs are owned by the new element, must not be modified afterwards
+    public S256Field(S256Limbs limbs) {
+        super(null, Secp256k1.p, true);
+        this.limbs = limbs;
+    }
+
+    @Override
+    public BigInteger getNum() {
+        if (this.num == null)
+            this.num = limbs.toBigInteger();
+        return this.num;
+    }
+
+    // returns a copy, the internal limbs are never exposed
+    public S256Limbs getLimbs() {
+        return limbs.copy();
+    }
+
+    // internal limbs, for the package point arithmetic: must not be modified
+    S256Limbs limbs() {
+        return limbs;
+    }
+
+    private static S256Limbs limbsOf(FieldElement other) {
+        if (other instanceof S256Field)
+            return ((S256Field) other).limbs;
+        if (!other.getPrime().equals(Secp256k1.p))
+            return null;
+        return new S256Limbs(other.getNum());
+    }
+
+    @Override
+    public FieldElement add(FieldElement other) {
+        var o = limbsOf(other);
+        if (o == null) return super.add(other);
+        return new S256Field(limbs.copy().add(o));
+    }
+
+    @Override
+    public FieldElement subtract(FieldElement other) {
+        var o = limbsOf(other);
+        if (o == null) return super.subtract(other);
+        return new S256Field(limbs.copy().subtract(o));
+    }
+
+    @Override
+    public FieldElement multiply(FieldElement other) {
+        var o = limbsOf(other);
+        if (o == null) return super.multiply(other);
+        return new S256Field(limbs.copy().multiply(o));
+    }
+
+    @Override
+    public FieldElement pow(BigInteger exp) {
+        // fast path for the squares and cubes of the curve equation
+        if (exp.equals(BigInteger.TWO))
+            return new S256Field(limbs.copy().square());
+        if (exp.equals(BigInteger.valueOf(3)))
+            return new S256Field(limbs.copy().square().multiply(limbs));
+        return new S256Field(limbs.copy().pow(exp));
+    }
+
+    @Override
+    public FieldElement divide(FieldElement other) {
+        var o = limbsOf(other);
+        if (o == null) return super.divide(other);
+        return new S256Field(o.copy().invertVar().multiply(limbs));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof S256Field)
+            return limbs.equals(((S256Field) o).limbs);
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
     }
 
     public S256Field sqrt() {
-        return new S256Field(this.pow(Secp256k1.p.add(BigInteger.ONE).divide(BigInteger.valueOf(4))).getNum());
+        var r = limbs.copy();
+        if (!r.sqrt())
+            throw new RuntimeException("No square root for " + this);
+        return new S256Field(r);
     }
 }
@@ -0,0 +1,159 @@
+package bitcoffee;
+
+import java.math.BigInteger;
+
+// Fixed-base multiplication k*G with a precomputed table of multiples of the generator.
+// The scalar is split in 64 windows of 4 bits: window i holds d*16^i*G for d=1..15,
+// so k*G is the sum of one table entry per non zero window, with no doublings at all.
+// That walk reads the table at the digits of k and skips the zero ones: it is for public
+// scalars. The secret ones (private keys, nonces) go through multiplyConst(), see below.
+// The tables are built the first time they are needed
+public final class S256GeneratorTable {
+    static final int WINDOW_BITS = 4;
+    static final int WINDOWS = 256 / WINDOW_BITS;
+    static final int WINDOW_SIZE = (1 << WINDOW_BITS) - 1;
+
+    private S256GeneratorTable() {
+    }
+
+    // lazy holder: the JVM builds the table once, on first access
+    private static final class Holder {
+        static final S256Point[][] TABLE = build();
+    }
+
+    private static S256Point[][] build() {
+        // all the entries are computed in Jacobian coordinates and normalized together
+        var jac = new S256JacobianPoint[WINDOWS * WINDOW_SIZE];
+        // base = 16^i*G
+        var base = S256JacobianPoint.fromAffine(Secp256k1.G);
+        for (int i = 0; i < WINDOWS; i++) {
+            var acc = new S256JacobianPoint();
+            for (int d = 0; d < WINDOW_SIZE; d++) {
+                acc.add(base);
+                jac[i * WINDOW_SIZE + d] = acc.copy();
+            }
+            for (int j = 0; j < WINDOW_BITS; j++)
+                base.twice();
+        }
+        var affine = S256JacobianPoint.toAffine(jac);
+        var table = new S256Point[WINDOWS][WINDOW_SIZE];
+        for (int i = 0; i < WINDOWS; i++)
+            System.arraycopy(affine, i * WINDOW_SIZE, table[i], 0, WINDOW_SIZE);
+        return table;
+    }
+
+    /***************************************************************************/
+    // k*G in Jacobian coordinates, k is taken modulo N
+    public static S256JacobianPoint multiplyJacobian(BigInteger k) {
+        var table = Holder.TABLE;
+        var coef = scalarBytes(k);
+        var result = new S256JacobianPoint();
+        for (int i = 0; i < WINDOWS; i++) {
+            // the nibble i, counting from the least significant one
+            int d = (coef[31 - (i >> 1)] >> ((i & 1) * WINDOW_BITS)) & WINDOW_SIZE;
+            if (d != 0)
+                result.addAffine(table[i][d - 1]);
+        }
+        return result;
+    }
+
+    // k modulo N as 32 bytes big endian
+    static byte[] scalarBytes(BigInteger k) {
+        var n = k.mod(Secp256k1.N).toByteArray();
+        var out = new byte[32];
+        int len = Math.min(n.length, 32);
+        System.arraycopy(n, n.length - len, out, 32 - len, len);
+        return out;
+    }
+
+    public static S256Point multiply(BigInteger k) {
+        return multiplyJacobian(k).toAffine();
+    }
+
+    /***************************************************************************/
+    // The constant time table: window i holds d*16^i*G + O_i for d=0..15, with the offsets
+    // O_i = H for i<63 and O_63 = -63*H, which add up to zero. A zero digit is an entry like
+    // the others, so every window adds exactly one point, picked by a masked scan of its 16
+    // entries: neither the branches nor the memory accesses depend on the digits.
+    // H is a point with unknown discrete log, so that the additions never meet the doubling
+    // and infinity cases of the formulas. The BigInteger reduction of k in scalarBytes is
+    // out of this scheme, and the JIT gives no hard timing guarantee
+    private static final class ConstHolder {
+        static final S256Limbs[] XS = new S256Limbs[WINDOWS * (WINDOW_SIZE + 1)];
+        static final S256Limbs[] YS = new S256Limbs[WINDOWS * (WINDOW_SIZE + 1)];
+
+        static {
+            var table = Holder.TABLE;
+            var h = offsetPoint();
+            var last = new S256JacobianPoint();
+            for (int i = 0; i < WINDOWS - 1; i++)
+                last.addAffine(h);
+            var last_offset = last.negate().toAffine();
+
+            var jac = new S256JacobianPoint[XS.length];
+            for (int i = 0; i < WINDOWS; i++) {
+                var offset = i < WINDOWS - 1 ? h : last_offset;
+                jac[i * (WINDOW_SIZE + 1)] = S256JacobianPoint.fromAffine(offset);
+                for (int d = 1; d <= WINDOW_SIZE; d++)
+                    jac[i * (WINDOW_SIZE + 1) + d] = S256JacobianPoint.fromAffine(table[i][d - 1]).addAffine(offset);
+            }
+            var affine = S256JacobianPoint.toAffine(jac);
+            for (int j = 0; j < affine.length; j++) {
+                XS[j] = affine[j].xLimbs();
+                YS[j] = affine[j].yLimbs();
+            }
+        }
+
+        // the first point with x = SHA256("bitcoffee/offset" || counter)
+        private static S256Point offsetPoint() {
+            for (int counter = 0; ; counter++) {
+                var x = Kit.sha256(Kit.asciiStringToBytes("bitcoffee/offset" + counter));
+                var p = S256Point.liftX(x);
+                if (p != null) return p;
+            }
+        }
+    }
+
+    // k*G in Jacobian coordinates for a secret k, taken modulo N
+    public static S256JacobianPoint multiplyConstJacobian(BigInteger k) {
+        var xs = ConstHolder.XS;
+        var ys = ConstHolder.YS;
+        var coef = scalarBytes(k);
+        var result = new S256JacobianPoint();
+        var ex = new S256Limbs();
+        var ey = new S256Limbs();
+        for (int i = 0; i < WINDOWS; i++) {
+            int d = (coef[31 - (i >> 1)] >> ((i & 1) * WINDOW_BITS)) & WINDOW_SIZE;
+            int base = i * (WINDOW_SIZE + 1);
+            for (int e = 0; e <= WINDOW_SIZE; e++) {
+                // all ones when e == d: e ^ d is 0..15, minus one is negative only for 0
+                long mask = ((long) (e ^ d) - 1) >> 63;
+                ex.cmov(xs[base + e], mask);
+                ey.cmov(ys[base + e], mask);
+            }
+            result.addAffine(ex, ey);
+        }
+        return result;
+    }
+
+    // k*G for a secret k (private key, nonce); the inversion of toAffine is constant time
+    public static S256Point multiplyConst(BigInteger k) {
+        return multiplyConstJacobian(k).toAffine();
+    }
+
+    // k_i*G for all the scalars, with a single inversion for the whole batch
+    public static S256Point[] multiply(BigInteger[] ks) {
+        var jac = new S256JacobianPoint[ks.length];
+        for (int i = 0; i < ks.length; i++)
+            jac[i] = multiplyJacobian(ks[i]);
+        return S256JacobianPoint.toAffine(jac);
+    }
+
+    // the same for secret scalars
+    public static S256Point[] multiplyConst(BigInteger[] ks) {
+        var jac = new S256JacobianPoint[ks.length];
+        for (int i = 0; i < ks.length; i++)
+            jac[i] = multiplyConstJacobian(ks[i]);
+        return S256JacobianPoint.toAffine(jac);
+    }
+}
@@ -0,0 +1,199 @@
+package bitcoffee;
+
+import java.util.List;
+
+// secp256k1 point in Jacobian coordinates: (X,Y,Z) stands for the affine point (X/Z^2, Y/Z^3).
+// Additions and doublings work in place and need no field inversion, the only one
+// is paid when converting back with toAffine()
+public final class S256JacobianPoint {
+    final S256Limbs x = new S256Limbs();
+    final S256Limbs y = new S256Limbs();
+    final S256Limbs z = new S256Limbs();
+    boolean infinity;
+
+    // creates the point at infinity
+    public S256JacobianPoint() {
+        this.infinity = true;
+    }
+
+    public S256JacobianPoint(S256JacobianPoint other) {
+        this.set(other);
+    }
+
+    public static S256JacobianPoint fromAffine(S256Point p) {
+        var r = new S256JacobianPoint();
+        if (p.isInfinity()) return r;
+        r.x.set(p.xLimbs());
+        r.y.set(p.yLimbs());
+        r.z.setInt(1);
+        r.infinity = false;
+        return r;
+    }
+
+    public S256JacobianPoint set(S256JacobianPoint other) {
+        this.x.set(other.x);
+        this.y.set(other.y);
+        this.z.set(other.z);
+        this.infinity = other.infinity;
+        return this;
+    }
+
+    public S256JacobianPoint setInfinity() {
+        this.infinity = true;
+        return this;
+    }
+
+    public S256JacobianPoint copy() {
+        return new S256JacobianPoint(this);
+    }
+
+    public boolean isInfinity() {
+        return infinity;
+    }
+
+    /***************************************************************************/
+    // this = -this
+    public S256JacobianPoint negate() {
+        y.negate();
+        return this;
+    }
+
+    /***************************************************************************/
+    // this = 2*this (dbl-2009-l formulas, curve with a=0)
+    public S256JacobianPoint twice() {
+        if (infinity) return this;
+        if (y.isZero()) return setInfinity();
+
+        var a = x.copy().square();               // A = X1^2
+        var b = y.copy().square();               // B = Y1^2
+        var c = b.copy().square();               // C = B^2
+        var d = x.copy().add(b).square().subtract(a).subtract(c);
+        d.add(d);                                // D = 2*((X1+B)^2-A-C)
+        var e = a.mulInt(3);                     // E = 3*A
+        var f = e.copy().square();               // F = E^2
+
+        z.multiply(y).mulInt(2);                 // Z3 = 2*Y1*Z1
+        x.set(f).subtract(d).subtract(d);        // X3 = F-2*D
+        y.set(d).subtract(x).multiply(e);        // Y3 = E*(D-X3)-8*C
+        y.subtract(c.mulInt(8));
+        return this;
+    }
+
+    /***************************************************************************/
+    // this = this + (ax,ay), with (ax,ay) an affine point (Z2=1)
+    public S256JacobianPoint addAffine(S256Limbs ax, S256Limbs ay) {
+        if (infinity) {
+            x.set(ax);
+            y.set(ay);
+            z.setInt(1);
+            infinity = false;
+            return this;
+        }
+        var z1z1 = z.copy().square();
+        var u2 = ax.copy().multiply(z1z1);       // U2 = X2*Z1^2
+        var s2 = ay.copy().multiply(z1z1).multiply(z); // S2 = Y2*Z1^3
+        var h = u2.subtract(x);                  // H = U2-X1
+        var r = s2.subtract(y);                  // R = S2-Y1
+
+        if (h.isZero()) {
+            if (r.isZero()) return twice();
+            return setInfinity();
+        }
+        finishAdd(x, y, h, r);
+        z.multiply(h);                           // Z3 = Z1*H
+        return this;
+    }
+
+    public S256JacobianPoint addAffine(S256Point other) {
+        if (other.isInfinity()) return this;
+        return addAffine(other.xLimbs(), other.yLimbs());
+    }
+
+    /***************************************************************************/
+    // this = this + other
+    public S256JacobianPoint add(S256JacobianPoint other) {
+        if (other.infinity) return this;
+        if (infinity) return set(other);
+
+        var z1z1 = z.copy().square();
+        var z2z2 = other.z.copy().square();
+        var u1 = x.copy().multiply(z2z2);        // U1 = X1*Z2^2
+        var u2 = other.x.copy().multiply(z1z1);  // U2 = X2*Z1^2
+        var s1 = y.copy().multiply(z2z2).multiply(other.z); // S1 = Y1*Z2^3
+        var s2 = other.y.copy().multiply(z1z1).multiply(z); // S2 = Y2*Z1^3
+        var h = u2.subtract(u1);                 // H = U2-U1
+        var r = s2.subtract(s1);                 // R = S2-S1
+
+        if (h.isZero()) {
+            if (r.isZero()) return twice();
+            return setInfinity();
+        }
+        finishAdd(u1, s1, h, r);
+        z.multiply(other.z).multiply(h);         // Z3 = Z1*Z2*H
+        return this;
+    }
+
+    /***************************************************************************/
+    // common tail of the additions, sets X3 and Y3
+    // X3 = R^2-H^3-2*U1*H^2
+    // Y3 = R*(U1*H^2-X3)-S1*H^3
+    private void finishAdd(S256Limbs u1, S256Limbs s1, S256Limbs h, S256Limbs r) {
+        var hh = h.copy().square();
+        var hhh = hh.copy().multiply(h);
+        var v = hh.multiply(u1);
+        var s1hhh = hhh.copy().multiply(s1);
+
+        x.set(r).square().subtract(hhh).subtract(v).subtract(v);
+        y.set(v).subtract(x).multiply(r).subtract(s1hhh);
+    }
+
+    /***************************************************************************/
+    // true if the affine x coordinate is x, checked as X == x*Z^2 without inversions
+    public boolean hasX(S256Limbs x) {
+        if (infinity) return false;
+        return x.copy().multiply(z.copy().square()).equals(this.x);
+    }
+
+    /***************************************************************************/
+    // normalizes back to affine coordinates, paying one field inversion
+    public S256Point toAffine() {
+        if (infinity) return S256Point.INFINITY;
+        var zinv = z.copy().invert();
+        var zinv2 = zinv.copy().square();
+        var ax = x.copy().multiply(zinv2);
+        var ay = y.copy().multiply(zinv2).multiply(zinv);
+        return new S256Point(ax, ay);
+    }
+
+    /***************************************************************************/
+    // normalizes all the points sharing a single field inversion for the whole batch
+    public static S256Point[] toAffine(S256JacobianPoint[] points) {
+        var zinv = new S256Limbs[points.length];
+        for (int i = 0; i < points.length; i++)
+            zinv[i] = points[i].infinity ? new S256Limbs() : points[i].z.copy();
+        S256Limbs.batchInvert(zinv);
+
+        var res = new S256Point[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i].infinity) {
+                res[i] = S256Point.INFINITY;
+                continue;
+            }
+            var zinv2 = zinv[i].copy().square();
+            var ax = points[i].x.copy().multiply(zinv2);
+            var ay = points[i].y.copy().multiply(zinv2).multiply(zinv[i]);
+            res[i] = new S256Point(ax, ay);
+        }
+        return res;
+    }
+
+    public static S256Point[] toAffine(List<S256JacobianPoint> points) {
+        return toAffine(points.toArray(new S256JacobianPoint[0]));
+    }
+
+    @Override
+    public String toString() {
+        if (infinity) return "S256JacobianPoint(INF)";
+        return "S256JacobianPoint(" + x + "," + y + "," + z + ")";
+    }
+}
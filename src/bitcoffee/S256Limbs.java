@@ -0,0 +1,525 @@
+package bitcoffee;
+
+import java.math.BigInteger;
+
+// Element of the secp256k1 base field stored on four unsigned 64 bits limbs (n0 is the least significant).
+// Differently from FieldElement, the operations are mutable and work in place, so that the point arithmetic
+// can chain them without creating a new object (and a BigInteger) for each step.
+// The value is always kept fully reduced in the range 0..p-1
+public final class S256Limbs {
+    // p = 2^256 - C, so 2^256 = C (mod p)
+    static final long C = 0x1000003D1L;
+    static final long P0 = 0xFFFFFFFEFFFFFC2FL;
+    static final long P1 = 0xFFFFFFFFFFFFFFFFL;
+    static final long P2 = 0xFFFFFFFFFFFFFFFFL;
+    static final long P3 = 0xFFFFFFFFFFFFFFFFL;
+
+    long n0, n1, n2, n3;
+
+    public S256Limbs() {
+    }
+
+    public S256Limbs(long n) {
+        this.setInt(n);
+    }
+
+    public S256Limbs(S256Limbs other) {
+        this.set(other);
+    }
+
+    public S256Limbs(BigInteger n) {
+        var v = n.mod(Secp256k1.p);
+        this.n0 = v.longValue();
+        this.n1 = v.shiftRight(64).longValue();
+        this.n2 = v.shiftRight(128).longValue();
+        this.n3 = v.shiftRight(192).longValue();
+    }
+
+    /***************************************************************************/
+    // reads 32 bytes big endian, the value must be lower than p
+    public static S256Limbs fromBytes(byte[] bytes, int offset) {
+        var r = new S256Limbs();
+        r.n3 = readLong(bytes, offset);
+        r.n2 = readLong(bytes, offset + 8);
+        r.n1 = readLong(bytes, offset + 16);
+        r.n0 = readLong(bytes, offset + 24);
+        if (!r.isReduced())
+            throw new RuntimeException("Field element not in 0..p-1");
+        return r;
+    }
+
+    /***************************************************************************/
+    // writes the value as 32 bytes big endian
+    public void toBytes(byte[] out, int offset) {
+        writeLong(out, offset, n3);
+        writeLong(out, offset + 8, n2);
+        writeLong(out, offset + 16, n1);
+        writeLong(out, offset + 24, n0);
+    }
+
+    public byte[] toBytes() {
+        var out = new byte[32];
+        toBytes(out, 0);
+        return out;
+    }
+
+    public BigInteger toBigInteger() {
+        return new BigInteger(1, toBytes());
+    }
+
+    /***************************************************************************/
+    public S256Limbs set(S256Limbs other) {
+        this.n0 = other.n0;
+        this.n1 = other.n1;
+        this.n2 = other.n2;
+        this.n3 = other.n3;
+        return this;
+    }
+
+    // this = other if mask is all ones, unchanged if it is zero, without branching on mask
+    public S256Limbs cmov(S256Limbs other, long mask) {
+        this.n0 ^= (this.n0 ^ other.n0) & mask;
+        this.n1 ^= (this.n1 ^ other.n1) & mask;
+        this.n2 ^= (this.n2 ^ other.n2) & mask;
+        this.n3 ^= (this.n3 ^ other.n3) & mask;
+        return this;
+    }
+
+    public S256Limbs setInt(long n) {
+        if (n < 0)
+            throw new RuntimeException("Negative small field element " + n);
+        this.n0 = n;
+        this.n1 = 0;
+        this.n2 = 0;
+        this.n3 = 0;
+        return this;
+    }
+
+    public S256Limbs copy() {
+        return new S256Limbs(this);
+    }
+
+    public boolean isZero() {
+        return (n0 | n1 | n2 | n3) == 0;
+    }
+
+    public boolean isOdd() {
+        return (n0 & 1) == 1;
+    }
+
+    public boolean isOne() {
+        return n0 == 1 && (n1 | n2 | n3) == 0;
+    }
+
+    /***************************************************************************/
+    // this = this + other
+    public S256Limbs add(S256Limbs other) {
+        long r0 = n0 + other.n0;
+        long k = carry(r0, n0);
+        long r1 = n1 + other.n1;
+        long k1 = carry(r1, n1);
+        r1 += k;
+        k = k1 | carry(r1, k);
+        long r2 = n2 + other.n2;
+        k1 = carry(r2, n2);
+        r2 += k;
+        k = k1 | carry(r2, k);
+        long r3 = n3 + other.n3;
+        k1 = carry(r3, n3);
+        r3 += k;
+        k = k1 | carry(r3, k);
+
+        reduceOnce(r0, r1, r2, r3, k);
+        return this;
+    }
+
+    /***************************************************************************/
+    // this = this - other
+    public S256Limbs subtract(S256Limbs other) {
+        long r0 = n0 - other.n0;
+        long b = borrow(n0, other.n0);
+        long r1 = n1 - other.n1;
+        long b1 = borrow(n1, other.n1);
+        long t = r1;
+        r1 -= b;
+        b = b1 | borrow(t, b);
+        long r2 = n2 - other.n2;
+        b1 = borrow(n2, other.n2);
+        t = r2;
+        r2 -= b;
+        b = b1 | borrow(t, b);
+        long r3 = n3 - other.n3;
+        b1 = borrow(n3, other.n3);
+        t = r3;
+        r3 -= b;
+        b = b1 | borrow(t, b);
+
+        // on borrow we have this-other+2^256, so we subtract C to get this-other+p
+        long mask = -b;
+        long sc = C & mask;
+        t = r0;
+        r0 -= sc;
+        b = borrow(t, sc);
+        t = r1;
+        r1 -= b;
+        b = borrow(t, b);
+        t = r2;
+        r2 -= b;
+        b = borrow(t, b);
+        r3 -= b;
+
+        n0 = r0;
+        n1 = r1;
+        n2 = r2;
+        n3 = r3;
+        return this;
+    }
+
+    /***************************************************************************/
+    // this = -this
+    public S256Limbs negate() {
+        var zero = new S256Limbs();
+        zero.subtract(this);
+        return this.set(zero);
+    }
+
+    /***************************************************************************/
+    // this = this * m, with m a small non negative integer (m < 2^31)
+    public S256Limbs mulInt(int m) {
+        long lo, hi, c;
+        lo = n0 * m;
+        long t0 = lo;
+        c = mulHigh(n0, m);
+        lo = n1 * m;
+        hi = mulHigh(n1, m);
+        lo += c;
+        hi += carry(lo, c);
+        long t1 = lo;
+        c = hi;
+        lo = n2 * m;
+        hi = mulHigh(n2, m);
+        lo += c;
+        hi += carry(lo, c);
+        long t2 = lo;
+        c = hi;
+        lo = n3 * m;
+        hi = mulHigh(n3, m);
+        lo += c;
+        hi += carry(lo, c);
+        long t3 = lo;
+        c = hi;
+        reduceSmall(t0, t1, t2, t3, c);
+        return this;
+    }
+
+    /***************************************************************************/
+    // this = this * other
+    public S256Limbs multiply(S256Limbs other) {
+        return this.multiply(this, other);
+    }
+
+    /***************************************************************************/
+    // this = this^2
+    public S256Limbs square() {
+        return this.multiply(this, this);
+    }
+
+    /***************************************************************************/
+    // this = a * b (a and b can be this)
+    public S256Limbs multiply(S256Limbs a, S256Limbs b) {
+        long a0 = a.n0, a1 = a.n1, a2 = a.n2, a3 = a.n3;
+        long b0 = b.n0, b1 = b.n1, b2 = b.n2, b3 = b.n3;
+
+        long t0, t1, t2, t3, t4, t5, t6, t7;
+        long lo, hi, c;
+        lo = a0 * b0; hi = mulHigh(a0, b0);
+        t0 = lo; c = hi;
+        lo = a0 * b1; hi = mulHigh(a0, b1);
+        lo += c; hi += carry(lo, c); t1 = lo; c = hi;
+        lo = a0 * b2; hi = mulHigh(a0, b2);
+        lo += c; hi += carry(lo, c); t2 = lo; c = hi;
+        lo = a0 * b3; hi = mulHigh(a0, b3);
+        lo += c; hi += carry(lo, c); t3 = lo; c = hi;
+        t4 = c;
+        lo = a1 * b0; hi = mulHigh(a1, b0);
+        lo += t1; hi += carry(lo, t1);
+        t1 = lo; c = hi;
+        lo = a1 * b1; hi = mulHigh(a1, b1);
+        lo += t2; hi += carry(lo, t2);
+        lo += c; hi += carry(lo, c); t2 = lo; c = hi;
+        lo = a1 * b2; hi = mulHigh(a1, b2);
+        lo += t3; hi += carry(lo, t3);
+        lo += c; hi += carry(lo, c); t3 = lo; c = hi;
+        lo = a1 * b3; hi = mulHigh(a1, b3);
+        lo += t4; hi += carry(lo, t4);
+        lo += c; hi += carry(lo, c); t4 = lo; c = hi;
+        t5 = c;
+        lo = a2 * b0; hi = mulHigh(a2, b0);
+        lo += t2; hi += carry(lo, t2);
+        t2 = lo; c = hi;
+        lo = a2 * b1; hi = mulHigh(a2, b1);
+        lo += t3; hi += carry(lo, t3);
+        lo += c; hi += carry(lo, c); t3 = lo; c = hi;
+        lo = a2 * b2; hi = mulHigh(a2, b2);
+        lo += t4; hi += carry(lo, t4);
+        lo += c; hi += carry(lo, c); t4 = lo; c = hi;
+        lo = a2 * b3; hi = mulHigh(a2, b3);
+        lo += t5; hi += carry(lo, t5);
+        lo += c; hi += carry(lo, c); t5 = lo; c = hi;
+        t6 = c;
+        lo = a3 * b0; hi = mulHigh(a3, b0);
+        lo += t3; hi += carry(lo, t3);
+        t3 = lo; c = hi;
+        lo = a3 * b1; hi = mulHigh(a3, b1);
+        lo += t4; hi += carry(lo, t4);
+        lo += c; hi += carry(lo, c); t4 = lo; c = hi;
+        lo = a3 * b2; hi = mulHigh(a3, b2);
+        lo += t5; hi += carry(lo, t5);
+        lo += c; hi += carry(lo, c); t5 = lo; c = hi;
+        lo = a3 * b3; hi = mulHigh(a3, b3);
+        lo += t6; hi += carry(lo, t6);
+        lo += c; hi += carry(lo, c); t6 = lo; c = hi;
+        t7 = c;
+        reduceWide(t0, t1, t2, t3, t4, t5, t6, t7);
+        return this;
+    }
+
+    /***************************************************************************/
+    // folds the 512 bits product t into 0..p-1, using 2^256 = C (mod p)
+    private void reduceWide(long t0, long t1, long t2, long t3, long t4, long t5, long t6, long t7) {
+        long lo, hi, c, k, s;
+
+        lo = t4 * C;
+        hi = mulHigh(t4, C);
+        s = t0 + lo;
+        k = carry(s, lo);
+        long r0 = s;
+        c = hi + k;
+
+        lo = t5 * C;
+        hi = mulHigh(t5, C);
+        s = t1 + lo;
+        k = carry(s, lo);
+        s += c;
+        k += carry(s, c);
+        long r1 = s;
+        c = hi + k;
+
+        lo = t6 * C;
+        hi = mulHigh(t6, C);
+        s = t2 + lo;
+        k = carry(s, lo);
+        s += c;
+        k += carry(s, c);
+        long r2 = s;
+        c = hi + k;
+
+        lo = t7 * C;
+        hi = mulHigh(t7, C);
+        s = t3 + lo;
+        k = carry(s, lo);
+        s += c;
+        k += carry(s, c);
+        long r3 = s;
+        c = hi + k;
+
+        // here the value is r + c*2^256, with c < 2^34
+        reduceSmall(r0, r1, r2, r3, c);
+    }
+
+    /***************************************************************************/
+    // folds r + top*2^256 into 0..p-1, top must be lower than 2^62
+    private void reduceSmall(long r0, long r1, long r2, long r3, long top) {
+        long lo = top * C;
+        long hi = mulHigh(top, C);
+        long s = r0 + lo;
+        long k = carry(s, lo);
+        r0 = s;
+        long c = hi + k;
+        s = r1 + c;
+        k = carry(s, c);
+        r1 = s;
+        s = r2 + k;
+        k = carry(s, k);
+        r2 = s;
+        s = r3 + k;
+        k = carry(s, k);
+        r3 = s;
+
+        reduceOnce(r0, r1, r2, r3, k);
+    }
+
+    /***************************************************************************/
+    // stores r + k*2^256 (with the value lower than 2p) reduced in 0..p-1
+    private void reduceOnce(long r0, long r1, long r2, long r3, long k) {
+        // t = r + C: the value is >= p if this overflows 2^256 (or it already did)
+        long t0 = r0 + C;
+        long c = carry(t0, C);
+        long t1 = r1 + c;
+        c = carry(t1, c);
+        long t2 = r2 + c;
+        c = carry(t2, c);
+        long t3 = r3 + c;
+        c = carry(t3, c);
+
+        long mask = -(c | k);
+        n0 = (t0 & mask) | (r0 & ~mask);
+        n1 = (t1 & mask) | (r1 & ~mask);
+        n2 = (t2 & mask) | (r2 & ~mask);
+        n3 = (t3 & mask) | (r3 & ~mask);
+    }
+
+    /***************************************************************************/
+    // this = this^(2^n)
+    public S256Limbs squareN(int n) {
+        for (int i = 0; i < n; i++)
+            this.square();
+        return this;
+    }
+
+    /***************************************************************************/
+    // prefix of the addition chain for (p+1)/4
+    // returns {x2, x22, x223} where xk = a^(2^k-1)
+    private static S256Limbs[] powChain(S256Limbs a) {
+        var x2 = a.copy().square().multiply(a);
+        var x3 = x2.copy().square().multiply(a);
+        var x6 = x3.copy().squareN(3).multiply(x3);
+        var x9 = x6.squareN(3).multiply(x3);
+        var x11 = x9.squareN(2).multiply(x2);
+        var x22 = x11.copy().squareN(11).multiply(x11);
+        var x44 = x22.copy().squareN(22).multiply(x22);
+        var x88 = x44.copy().squareN(44).multiply(x44);
+        var x176 = x88.copy().squareN(88).multiply(x88);
+        var x220 = x176.squareN(44).multiply(x44);
+        var x223 = x220.squareN(3).multiply(x3);
+        return new S256Limbs[]{x2, x22, x223};
+    }
+
+    /***************************************************************************/
+    // this = 1/this with the safegcd inversion, constant time
+    public S256Limbs invert() {
+        if (this.isZero())
+            throw new ArithmeticException("Inverse of zero field element");
+        S256ModInverse.FIELD.invert(this);
+        return this;
+    }
+
+    // this = 1/this, variable time: only for public values
+    public S256Limbs invertVar() {
+        if (this.isZero())
+            throw new ArithmeticException("Inverse of zero field element");
+        S256ModInverse.FIELD.invertVar(this);
+        return this;
+    }
+
+    /***************************************************************************/
+    // inverts all the elements in place with a single field inversion (Montgomery's trick):
+    // with the prefix products c_i = a_0*...*a_i, 1/a_i = c_(i-1) * 1/c_i.
+    // Zero elements are skipped and left to zero
+    public static void batchInvert(S256Limbs[] a) {
+        int n = a.length;
+        var prefix = new S256Limbs[n];
+        var acc = new S256Limbs(1);
+        for (int i = 0; i < n; i++) {
+            prefix[i] = acc.copy();
+            if (!a[i].isZero())
+                acc.multiply(a[i]);
+        }
+        // acc = 1/(a_0*...*a_(n-1)), then walk back peeling one element at a time
+        acc.invert();
+        for (int i = n - 1; i >= 0; i--) {
+            if (a[i].isZero()) continue;
+            var inv = prefix[i].multiply(acc);
+            acc.multiply(a[i]);
+            a[i].set(inv);
+        }
+    }
+
+    /***************************************************************************/
+    // this = sqrt(this), computed as this^((p+1)/4)
+    // returns false (leaving this unchanged) if this is not a square
+    public boolean sqrt() {
+        var x = powChain(this);
+        var t = x[2].squareN(23).multiply(x[1]);
+        t.squareN(6).multiply(x[0]);
+        t.squareN(2);
+
+        if (!t.copy().square().equals(this))
+            return false;
+        this.set(t);
+        return true;
+    }
+
+    /***************************************************************************/
+    // this = this^exp, exp is taken modulo p-1
+    public S256Limbs pow(BigInteger exp) {
+        var e = exp.mod(Secp256k1.p.subtract(BigInteger.ONE));
+        var base = this.copy();
+        this.setInt(1);
+        for (int i = e.bitLength() - 1; i >= 0; i--) {
+            this.square();
+            if (e.testBit(i))
+                this.multiply(base);
+        }
+        return this;
+    }
+
+    /***************************************************************************/
+    private boolean isReduced() {
+        // the value is lower than p when adding C does not overflow 2^256
+        long c = carry(n0 + C, C);
+        c = carry(n1 + c, c);
+        c = carry(n2 + c, c);
+        c = carry(n3 + c, c);
+        return c == 0;
+    }
+
+    /***************************************************************************/
+    // 1 if the sum s=x+y wrapped around 2^64, 0 otherwise
+    static long carry(long s, long y) {
+        return Long.compareUnsigned(s, y) < 0 ? 1 : 0;
+    }
+
+    // 1 if x-y needs a borrow, 0 otherwise
+    static long borrow(long x, long y) {
+        return Long.compareUnsigned(x, y) < 0 ? 1 : 0;
+    }
+
+    // high 64 bits of the unsigned product a*b
+    static long mulHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long r = 0;
+        for (int i = 0; i < 8; i++)
+            r = (r << 8) | (b[off + i] & 0xffL);
+        return r;
+    }
+
+    private static void writeLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    /***************************************************************************/
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        S256Limbs that = (S256Limbs) o;
+        return ((n0 ^ that.n0) | (n1 ^ that.n1) | (n2 ^ that.n2) | (n3 ^ that.n3)) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(n0 ^ n1 ^ n2 ^ n3);
+    }
+
+    @Override
+    public String toString() {
+        return "S256Limbs(" + Kit.bytesToHexString(toBytes()) + ")";
+    }
+}
@@ -0,0 +1,338 @@
+package bitcoffee;
+
+import java.math.BigInteger;
+
+// Modular inversion modulo p or N with the Bernstein-Yang "safegcd" divsteps, following the
+// modinv32 code of libsecp256k1: numbers are kept on nine signed 30 bits limbs, so that all the
+// products fit in a long. Each round runs 30 divsteps on the low bits of f and g only, collecting
+// them in a 2x2 transition matrix that is then applied to the full f,g (whose gcd is computed)
+// and to d,e (tracking f = d*x and g = e*x mod the modulus).
+// invert() always runs 20 rounds (600 divsteps, 590 are enough for 256 bits inputs) without
+// branches on the value, for the secrets; invertVar() skips the runs of zeros and stops as soon
+// as g is zero, for the public values of the verification
+public final class S256ModInverse {
+    private static final int M30 = 0x3FFFFFFF;
+
+    // INV256[i] = -(2*i+1)^-1 mod 256
+    private static final int[] INV256 = new int[128];
+
+    static {
+        for (int i = 0; i < 128; i++) {
+            int x = 2 * i + 1;
+            // Newton iteration, every step doubles the number of correct bits
+            int inv = x;
+            for (int j = 0; j < 3; j++)
+                inv *= 2 - x * inv;
+            INV256[i] = (-inv) & 0xff;
+        }
+    }
+
+    public static final S256ModInverse FIELD = new S256ModInverse(Secp256k1.p);
+    public static final S256ModInverse ORDER = new S256ModInverse(Secp256k1.N);
+
+    private final BigInteger modulus;
+    private final int[] modulus30;
+    // modulus^-1 mod 2^30
+    private final int modulus_inv30;
+
+    private S256ModInverse(BigInteger modulus) {
+        this.modulus = modulus;
+        this.modulus30 = toSigned30(modulus);
+        this.modulus_inv30 = modulus.modInverse(BigInteger.ONE.shiftLeft(30)).intValue();
+    }
+
+    /***************************************************************************/
+    // 1/a mod modulus, constant time. Zero has no inverse and gives zero
+    public BigInteger invert(BigInteger a) {
+        var x = toSigned30(a.mod(modulus));
+        invert(x);
+        return fromSigned30(x);
+    }
+
+    // 1/a mod modulus, variable time. Zero has no inverse and gives zero
+    public BigInteger invertVar(BigInteger a) {
+        var x = toSigned30(a.mod(modulus));
+        invertVar(x);
+        return fromSigned30(x);
+    }
+
+    // in place field inversions of the limbs, for FIELD only
+    void invert(S256Limbs a) {
+        var x = toSigned30(a);
+        invert(x);
+        fromSigned30(x, a);
+    }
+
+    void invertVar(S256Limbs a) {
+        var x = toSigned30(a);
+        invertVar(x);
+        fromSigned30(x, a);
+    }
+
+    /***************************************************************************/
+    private void invert(int[] x) {
+        // d=0, e=1, f=modulus, g=x, zeta=-(delta+1/2) with delta starting at 1/2
+        var d = new int[9];
+        var e = new int[9];
+        e[0] = 1;
+        var f = modulus30.clone();
+        var g = x.clone();
+        var t = new int[4];
+        int zeta = -1;
+
+        for (int i = 0; i < 20; i++) {
+            zeta = divsteps30(zeta, f[0], g[0], t);
+            updateDE(d, e, t);
+            updateFG(9, f, g, t);
+        }
+        // g is now 0 and f is +/-1 (the gcd), so d is +/- the inverse
+        normalize(d, f[8]);
+        System.arraycopy(d, 0, x, 0, 9);
+    }
+
+    private void invertVar(int[] x) {
+        // eta = -delta, delta starting at 1 is faster for the variable time steps
+        var d = new int[9];
+        var e = new int[9];
+        e[0] = 1;
+        var f = modulus30.clone();
+        var g = x.clone();
+        var t = new int[4];
+        int eta = -1;
+        int len = 9;
+
+        while (true) {
+            eta = divsteps30Var(eta, f[0], g[0], t);
+            updateDE(d, e, t);
+            updateFG(len, f, g, t);
+
+            if (g[0] == 0) {
+                int cond = 0;
+                for (int j = 1; j < len; j++)
+                    cond |= g[j];
+                if (cond == 0) break;
+            }
+            // when the top limbs of both f and g are 0 or -1, fold them in the limb below
+            int fn = f[len - 1];
+            int gn = g[len - 1];
+            int cond = (len - 2) >> 31;
+            cond |= fn ^ (fn >> 31);
+            cond |= gn ^ (gn >> 31);
+            if (cond == 0) {
+                f[len - 2] |= fn << 30;
+                g[len - 2] |= gn << 30;
+                len--;
+            }
+        }
+        normalize(d, f[len - 1]);
+        System.arraycopy(d, 0, x, 0, 9);
+    }
+
+    /***************************************************************************/
+    // 30 divsteps on the low bits f0, g0. The matrix t = {u, v, q, r} is such that
+    // 2^30 * (f', g') = t * (f, g), the integers are kept modulo 2^32
+    private static int divsteps30(int zeta, int f0, int g0, int[] t) {
+        int u = 1, v = 0, q = 0, r = 1;
+        int f = f0, g = g0;
+
+        for (int i = 0; i < 30; i++) {
+            // masks for (zeta < 0) and (g odd)
+            int mask1 = zeta >> 31;
+            int mask2 = -(g & 1);
+            // conditionally negated f, u, v
+            int x = (f ^ mask1) - mask1;
+            int y = (u ^ mask1) - mask1;
+            int z = (v ^ mask1) - mask1;
+            // added to g, q, r if g is odd
+            g += x & mask2;
+            q += y & mask2;
+            r += z & mask2;
+            // zeta < 0 and g odd: swap, zeta becomes -zeta-2, otherwise zeta-1
+            mask1 &= mask2;
+            zeta = (zeta ^ mask1) - 1;
+            f += g & mask1;
+            u += q & mask1;
+            v += r & mask1;
+            g >>>= 1;
+            u <<= 1;
+            v <<= 1;
+        }
+        t[0] = u;
+        t[1] = v;
+        t[2] = q;
+        t[3] = r;
+        return zeta;
+    }
+
+    // same as divsteps30 but skipping the zeros of g at once, and cancelling up to 8 low
+    // bits of g with a single multiple of f
+    private static int divsteps30Var(int eta, int f0, int g0, int[] t) {
+        int u = 1, v = 0, q = 0, r = 1;
+        int f = f0, g = g0;
+        int i = 30;
+
+        while (true) {
+            // the sentinel bit stops the count at i
+            int zeros = Integer.numberOfTrailingZeros(g | (-1 << i));
+            g >>>= zeros;
+            u <<= zeros;
+            v <<= zeros;
+            eta -= zeros;
+            i -= zeros;
+            if (i == 0) break;
+            // eta negative: swap to f,g = g,-f
+            if (eta < 0) {
+                eta = -eta;
+                int tmp = f;
+                f = g;
+                g = -tmp;
+                tmp = u;
+                u = q;
+                q = -tmp;
+                tmp = v;
+                v = r;
+                r = -tmp;
+            }
+            // at most i bits can be cancelled, and at most eta+1 before eta changes sign
+            int limit = Math.min(eta + 1, i);
+            int m = (-1 >>> (32 - limit)) & 255;
+            int w = (g * INV256[(f >>> 1) & 127]) & m;
+            g += f * w;
+            q += u * w;
+            r += v * w;
+        }
+        t[0] = u;
+        t[1] = v;
+        t[2] = q;
+        t[3] = r;
+        return eta;
+    }
+
+    /***************************************************************************/
+    // (d, e) = (t * (d, e) + modulus * (md, me)) / 2^30, with md, me chosen to make the
+    // division exact. d and e stay in the range (-2*modulus, modulus)
+    private void updateDE(int[] d, int[] e, int[] t) {
+        int u = t[0], v = t[1], q = t[2], r = t[3];
+        // md, me start as [u,q] if d is negative plus [v,r] if e is negative
+        int sd = d[8] >> 31;
+        int se = e[8] >> 31;
+        int md = (u & sd) + (v & se);
+        int me = (q & sd) + (r & se);
+
+        long cd = (long) u * d[0] + (long) v * e[0];
+        long ce = (long) q * d[0] + (long) r * e[0];
+        // correct md, me so that the low 30 bits become zero
+        md -= (modulus_inv30 * (int) cd + md) & M30;
+        me -= (modulus_inv30 * (int) ce + me) & M30;
+        cd += (long) modulus30[0] * md;
+        ce += (long) modulus30[0] * me;
+        cd >>= 30;
+        ce >>= 30;
+
+        for (int i = 1; i < 9; i++) {
+            int di = d[i];
+            int ei = e[i];
+            cd += (long) u * di + (long) v * ei + (long) modulus30[i] * md;
+            ce += (long) q * di + (long) r * ei + (long) modulus30[i] * me;
+            d[i - 1] = (int) cd & M30;
+            cd >>= 30;
+            e[i - 1] = (int) ce & M30;
+            ce >>= 30;
+        }
+        d[8] = (int) cd;
+        e[8] = (int) ce;
+    }
+
+    // (f, g) = t * (f, g) / 2^30 on the first len limbs, the division is exact
+    private static void updateFG(int len, int[] f, int[] g, int[] t) {
+        int u = t[0], v = t[1], q = t[2], r = t[3];
+        long cf = (long) u * f[0] + (long) v * g[0];
+        long cg = (long) q * f[0] + (long) r * g[0];
+        cf >>= 30;
+        cg >>= 30;
+
+        for (int i = 1; i < len; i++) {
+            int fi = f[i];
+            int gi = g[i];
+            cf += (long) u * fi + (long) v * gi;
+            cg += (long) q * fi + (long) r * gi;
+            f[i - 1] = (int) cf & M30;
+            cf >>= 30;
+            g[i - 1] = (int) cg & M30;
+            cg >>= 30;
+        }
+        f[len - 1] = (int) cf;
+        g[len - 1] = (int) cg;
+    }
+
+    // brings d from (-2*modulus, modulus) to [0, modulus), negated if sign is negative
+    private void normalize(int[] d, int sign) {
+        int cond_add = d[8] >> 31;
+        for (int i = 0; i < 9; i++)
+            d[i] += modulus30[i] & cond_add;
+        int cond_negate = sign >> 31;
+        for (int i = 0; i < 9; i++)
+            d[i] = (d[i] ^ cond_negate) - cond_negate;
+        for (int i = 0; i < 8; i++) {
+            d[i + 1] += d[i] >> 30;
+            d[i] &= M30;
+        }
+        // add the modulus again if still negative
+        cond_add = d[8] >> 31;
+        for (int i = 0; i < 9; i++)
+            d[i] += modulus30[i] & cond_add;
+        for (int i = 0; i < 8; i++) {
+            d[i + 1] += d[i] >> 30;
+            d[i] &= M30;
+        }
+    }
+
+    /***************************************************************************/
+    private static int[] toSigned30(long n0, long n1, long n2, long n3) {
+        var w = new long[]{n0, n1, n2, n3};
+        var r = new int[9];
+        for (int i = 0; i < 9; i++) {
+            int bit = 30 * i;
+            int word = bit >>> 6;
+            int shift = bit & 63;
+            long v = w[word] >>> shift;
+            if (shift > 34 && word < 3)
+                v |= w[word + 1] << (64 - shift);
+            r[i] = (int) v & M30;
+        }
+        return r;
+    }
+
+    private static int[] toSigned30(S256Limbs a) {
+        return toSigned30(a.n0, a.n1, a.n2, a.n3);
+    }
+
+    private static int[] toSigned30(BigInteger a) {
+        return toSigned30(a.longValue(), a.shiftRight(64).longValue(),
+                a.shiftRight(128).longValue(), a.shiftRight(192).longValue());
+    }
+
+    // the limbs must be normalized, all in 0..2^30-1
+    private static void fromSigned30(int[] x, S256Limbs out) {
+        var w = new long[4];
+        for (int i = 0; i < 9; i++) {
+            int bit = 30 * i;
+            int word = bit >>> 6;
+            int shift = bit & 63;
+            long v = x[i] & 0xFFFFFFFFL;
+            w[word] |= v << shift;
+            if (shift > 34 && word < 3)
+                w[word + 1] |= v >>> (64 - shift);
+        }
+        out.n0 = w[0];
+        out.n1 = w[1];
+        out.n2 = w[2];
+        out.n3 = w[3];
+    }
+
+    private static BigInteger fromSigned30(int[] x) {
+        var limbs = new S256Limbs();
+        fromSigned30(x, limbs);
+        return new BigInteger(1, limbs.toBytes());
+    }
+}
@@ -0,0 +1,197 @@
+package bitcoffee;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Multi-scalar multiplication g*G + k1*P1 + ... + kn*Pn (Strauss/Shamir interleaving).
+// Every scalar is recoded in width-w NAF and all the points share a single chain of
+// doublings: at each bit only the non zero digits add a precomputed odd multiple.
+// G uses a wider window with a static table of affine odd multiples, the other points
+// get a small table of odd multiples computed on the fly.
+// The secp256k1 endomorphism lambda*(x,y) = (beta*x,y) is used to split each scalar
+// k = k1 + k2*lambda in two halves of about 128 bits (GLV), halving the doublings
+public final class S256MultiScalar {
+    static final int WINDOW_G = 8;
+    static final int WINDOW_P = 5;
+    // wNAF digits of a 256 bits scalar, one more for the final carry
+    private static final int NAF_LEN = 257;
+
+    // beta^3 = 1 (mod p), lambda^3 = 1 (mod N)
+    static final BigInteger BETA = new BigInteger("7ae96a2b657c07106e64479eac3434e99cf0497512f58995c1396c28719501ee",16);
+    static final BigInteger LAMBDA = new BigInteger("5363ad4cc05c30e0a5261c028812645a122e22ea20816678df02967c1b23bd72",16);
+    // short basis of the lattice {(a,b): a+b*lambda = 0 (mod N)}: (A1,B1), (A2,B2)
+    private static final BigInteger A1 = new BigInteger("3086d221a7d46bcde86c90e49284eb15",16);
+    private static final BigInteger B1 = new BigInteger("-e4437ed6010e88286f547fa90abfe4c3",16);
+    private static final BigInteger A2 = new BigInteger("114ca50f7a8e2f3f657c1108d9d44cfd8",16);
+    private static final BigInteger B2 = A1;
+    private static final S256Limbs BETA_LIMBS = new S256Limbs(BETA);
+
+    private S256MultiScalar() {
+    }
+
+    // lazy holder for the odd multiples of G: (1,3,5,...,2^(WINDOW_G-1)-1)*G,
+    // the same multiples of lambda*G and their negations
+    private static final class Holder {
+        static final S256Point[] G_ODD = buildOddMultiplesG();
+        static final S256Point[] G_ODD_NEG = negateAll(G_ODD);
+        static final S256Point[] G_LAM_ODD = lambdaAll(G_ODD);
+        static final S256Point[] G_LAM_ODD_NEG = negateAll(G_LAM_ODD);
+    }
+
+    private static S256Point[] buildOddMultiplesG() {
+        return S256JacobianPoint.toAffine(oddMultiples(Secp256k1.G, WINDOW_G));
+    }
+
+    private static S256Point[] negateAll(S256Point[] points) {
+        var res = new S256Point[points.length];
+        for (int i = 0; i < points.length; i++)
+            res[i] = points[i].negate();
+        return res;
+    }
+
+    private static S256Point[] lambdaAll(S256Point[] points) {
+        var res = new S256Point[points.length];
+        for (int i = 0; i < points.length; i++)
+            res[i] = new S256Point(points[i].xLimbs().copy().multiply(BETA_LIMBS), points[i].yLimbs());
+        return res;
+    }
+
+    /***************************************************************************/
+    // odd multiples (1,3,5,...,2^(w-1)-1)*P in Jacobian coordinates
+    static S256JacobianPoint[] oddMultiples(S256Point p, int w) {
+        var res = new S256JacobianPoint[1 << (w - 2)];
+        res[0] = S256JacobianPoint.fromAffine(p);
+        var p2 = res[0].copy().twice();
+        for (int i = 1; i < res.length; i++)
+            res[i] = res[i - 1].copy().add(p2);
+        return res;
+    }
+
+    /***************************************************************************/
+    // width-w NAF of k modulo N: k = sum(naf[i]*2^i), every non zero digit is odd,
+    // lower than 2^(w-1) in absolute value and followed by at least w-1 zeros
+    static int[] wnaf(BigInteger k, int w) {
+        var bytes = S256GeneratorTable.scalarBytes(k);
+        var limbs = new long[5];
+        for (int i = 0; i < 32; i++)
+            limbs[(31 - i) >> 3] |= (bytes[i] & 0xffL) << (((31 - i) & 7) * 8);
+
+        var naf = new int[NAF_LEN];
+        int carry = 0;
+        int bit = 0;
+        while (bit < NAF_LEN) {
+            if (getBits(limbs, bit, 1) == carry) {
+                bit++;
+                continue;
+            }
+            int now = Math.min(w, NAF_LEN - bit);
+            int word = getBits(limbs, bit, now) + carry;
+            carry = (word >> (w - 1)) & 1;
+            word -= carry << w;
+            naf[bit] = word;
+            bit += now;
+        }
+        return naf;
+    }
+
+    // count (<= 31) bits of the little endian limbs starting from the bit pos
+    private static int getBits(long[] limbs, int pos, int count) {
+        int idx = pos >> 6;
+        int shift = pos & 63;
+        long v = limbs[idx] >>> shift;
+        if (shift + count > 64)
+            v |= limbs[idx + 1] << (64 - shift);
+        return (int) (v & ((1L << count) - 1));
+    }
+
+    private static int topDigit(int[] naf) {
+        for (int i = naf.length - 1; i >= 0; i--)
+            if (naf[i] != 0) return i + 1;
+        return 0;
+    }
+
+    /***************************************************************************/
+    // splits k in {k1,k2} with k = k1 + k2*lambda (mod N), |k1| and |k2| of about 128 bits
+    static BigInteger[] splitLambda(BigInteger k) {
+        var n = Secp256k1.N;
+        var half_n = n.shiftRight(1);
+        k = k.mod(n);
+        // c1 = round(B2*k/N), c2 = round(-B1*k/N)
+        var c1 = B2.multiply(k).add(half_n).divide(n);
+        var c2 = B1.negate().multiply(k).add(half_n).divide(n);
+        var k1 = k.subtract(c1.multiply(A1)).subtract(c2.multiply(A2));
+        var k2 = c1.multiply(B1).add(c2.multiply(B2)).negate();
+        return new BigInteger[]{k1, k2};
+    }
+
+    /***************************************************************************/
+    // one wNAF scalar with the affine odd multiples of its point
+    private static final class Term {
+        final int[] naf;
+        final S256Point[] pos, neg;
+
+        // a negative k uses the negated multiples with -k
+        Term(BigInteger k, int w, S256Point[] odd, S256Point[] odd_neg) {
+            boolean negative = k.signum() < 0;
+            this.naf = wnaf(k.abs(), w);
+            this.pos = negative ? odd_neg : odd;
+            this.neg = negative ? odd : odd_neg;
+        }
+
+        void addDigit(S256JacobianPoint result, int bit) {
+            int d = naf[bit];
+            if (d > 0)
+                result.addAffine(pos[d >> 1]);
+            else if (d < 0)
+                result.addAffine(neg[(-d) >> 1]);
+        }
+    }
+
+    /***************************************************************************/
+    // g*G + sum(scalars[i]*points[i]) in Jacobian coordinates, g can be null.
+    // The odd multiples of all the points are normalized together with a single
+    // inversion, so that the main loop only does mixed additions
+    public static S256JacobianPoint multiply(BigInteger g, BigInteger[] scalars, S256Point[] points) {
+        var terms = new ArrayList<Term>();
+        if (g != null) {
+            var gk = splitLambda(g);
+            terms.add(new Term(gk[0], WINDOW_G, Holder.G_ODD, Holder.G_ODD_NEG));
+            terms.add(new Term(gk[1], WINDOW_G, Holder.G_LAM_ODD, Holder.G_LAM_ODD_NEG));
+        }
+
+        int table_size = 1 << (WINDOW_P - 2);
+        var jac = new ArrayList<S256JacobianPoint>();
+        var used = new ArrayList<Integer>();
+        for (int i = 0; i < points.length; i++) {
+            if (points[i].isInfinity()) continue;
+            jac.addAll(Arrays.asList(oddMultiples(points[i], WINDOW_P)));
+            used.add(i);
+        }
+        var affine = S256JacobianPoint.toAffine(jac);
+        for (int u = 0; u < used.size(); u++) {
+            var pre = Arrays.copyOfRange(affine, u * table_size, (u + 1) * table_size);
+            var pre_lam = lambdaAll(pre);
+            var pk = splitLambda(scalars[used.get(u)]);
+            terms.add(new Term(pk[0], WINDOW_P, pre, negateAll(pre)));
+            terms.add(new Term(pk[1], WINDOW_P, pre_lam, negateAll(pre_lam)));
+        }
+
+        int top = 0;
+        for (var t : terms)
+            top = Math.max(top, topDigit(t.naf));
+
+        var result = new S256JacobianPoint();
+        for (int bit = top - 1; bit >= 0; bit--) {
+            result.twice();
+            for (var t : terms)
+                t.addDigit(result, bit);
+        }
+        return result;
+    }
+
+    // u*G + v*P, the double multiplication of the ECDSA verification
+    public static S256JacobianPoint multiply(BigInteger u, BigInteger v, S256Point p) {
+        return multiply(u, new BigInteger[]{v}, new S256Point[]{p});
+    }
+}
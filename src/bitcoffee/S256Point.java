@@ -3,25 +3,86 @@ package bitcoffee;
 import java.math.BigInteger;
 
 public class S256Point extends FieldElementPoint {
-    private final BigInteger x;
-    private final BigInteger y;
+    public static final S256Point INFINITY = new S256Point();
+
+    private S256Point() {
+        super(null, null, Secp256k1.a_field, Secp256k1.b_field, true);
+    }
 
     public S256Point(BigInteger x, BigInteger y) {
-        super(new S256Field(x),new S256Field(y), new S256Field(Secp256k1.a), new S256Field(Secp256k1.b));
-        this.x = x;
-        this.y = y;
+        super(new S256Field(x),new S256Field(y), Secp256k1.a_field, Secp256k1.b_field);
+    }
+
+    // coordinates coming from the point arithmetic, already on the curve
+    S256Point(S256Limbs x, S256Limbs y) {
+        super(new S256Field(x),new S256Field(y), Secp256k1.a_field, Secp256k1.b_field, true);
     }
 
     public S256Point(FieldElementPoint other) {
-        super(other);
+        super(other, other instanceof S256Point);
+    }
+
+    public boolean isInfinity() {
+        return this.getX()==null;
+    }
+
+    S256Limbs xLimbs() {
+        return limbsOf(this.getX());
+    }
+
+    S256Limbs yLimbs() {
+        return limbsOf(this.getY());
+    }
 
-        this.x = other.getX().getNum();
-        this.y = other.getY().getNum();
+    private static S256Limbs limbsOf(FieldElement f) {
+        if (f instanceof S256Field)
+            return ((S256Field) f).limbs();
+        return new S256Limbs(f.getNum());
     }
 
     @Override
     public String toString() {
-        return "bitcoffee.S256Point("+x.toString(16)+","+y.toString(16)+")";
+        if (this.isInfinity()) return "bitcoffee.S256Point(INF,INF)";
+        return "bitcoffee.S256Point("+getX().getNum().toString(16)+","+getY().getNum().toString(16)+")";
+    }
+
+    /********************************************************************/
+    // addition and multiplication are done in Jacobian coordinates, so that a single
+    // field inversion is needed to get back the affine result
+    @Override
+    public S256Point add(FieldElementPoint other) {
+        if (!(other instanceof S256Point))
+            return new S256Point(super.add(other));
+        return S256JacobianPoint.fromAffine(this).addAffine((S256Point) other).toAffine();
+    }
+
+    public S256Point negate() {
+        if (this.isInfinity()) return this;
+        return new S256Point(this.xLimbs().copy(), this.yLimbs().copy().negate());
+    }
+
+    @Override
+    public S256Point multiplyBin(BigInteger coefficient) {
+        return this.multiplyJacobian(coefficient).toAffine();
+    }
+
+    // left to right double and add, the coefficient is taken modulo the group order N
+    // (multiples of G use the precomputed table instead)
+    S256JacobianPoint multiplyJacobian(BigInteger coefficient) {
+        if (this.equals(Secp256k1.G))
+            return S256GeneratorTable.multiplyJacobian(coefficient);
+        var result = new S256JacobianPoint();
+        if (this.isInfinity()) return result;
+
+        var coef = coefficient.mod(Secp256k1.N);
+        var x = this.xLimbs();
+        var y = this.yLimbs();
+        for (int i = coef.bitLength()-1; i >= 0; i--) {
+            result.twice();
+            if (coef.testBit(i))
+                result.addAffine(x, y);
+        }
+        return result;
     }
 
     public boolean verify(BigInteger z, Signature sig) {
@@ -30,11 +91,23 @@ public class S256Point extends FieldElementPoint {
             System.out.println("Please use unsigned conversion when converting bytes to z BigInteger");
             System.exit(-1);
         }
-        var s_inv = sig.s.modPow(Secp256k1.N.subtract(BigInteger.TWO), Secp256k1.N);
-        var u = z.multiply(s_inv.mod(Secp256k1.N));
-        var v = sig.r.multiply(s_inv.mod(Secp256k1.N));
-        var total = Secp256k1.G.multiplyBin(u).add(this.multiplyBin(v));
-        return  total.getX().getNum().equals(sig.r);
+        var n = Secp256k1.N;
+        if (sig.r.signum()<=0 || sig.r.compareTo(n)>=0 || sig.s.signum()<=0 || sig.s.compareTo(n)>=0)
+            return false;
+        if (this.isInfinity())
+            return false;
+        var s_inv = S256ModInverse.ORDER.invertVar(sig.s);
+        var u = z.multiply(s_inv).mod(n);
+        var v = sig.r.multiply(s_inv).mod(n);
+        // u*G+v*P with a single chain of doublings
+        var total = S256MultiScalar.multiply(u, v, this);
+        if (total.isInfinity()) return false;
+        // x(total) mod N == r, checked as r*Z^2 == X without going back to affine:
+        // x can also be r+N when it is lower than p
+        if (total.hasX(new S256Limbs(sig.r)))
+            return true;
+        var r_n = sig.r.add(n);
+        return r_n.compareTo(Secp256k1.p)<0 && total.hasX(new S256Limbs(r_n));
     }
 
     public String getSerialX() {
@@ -65,48 +138,71 @@ public class S256Point extends FieldElementPoint {
     }
 
 
+    /********************************************************************/
+    // BIP340 x-only public keys: the 32 bytes of x, standing for the point with even y
+    public byte[] xOnly() {
+        return this.xLimbs().toBytes();
+    }
+
+    public boolean hasEvenY() {
+        return !this.yLimbs().isOdd();
+    }
+
+    // the point with x coordinate x_bytes and even y, null if there is none
+    public static S256Point liftX(byte[] x_bytes) {
+        if (x_bytes.length!=32 || new BigInteger(1,x_bytes).compareTo(Secp256k1.p)>=0)
+            return null;
+        var x = S256Limbs.fromBytes(x_bytes,0);
+        var y = x.copy().square().multiply(x).add(new S256Limbs(7));
+        if (!y.sqrt())
+            return null;
+        if (y.isOdd())
+            y.negate();
+        return new S256Point(x,y);
+    }
+
+    // BIP340 verification of a Schnorr signature of msg by this key, taken as x-only
+    public boolean verifySchnorr(byte[] msg, SchnorrSignature sig) {
+        if (this.isInfinity()) return false;
+        var p = this.hasEvenY() ? this : this.negate();
+        return SchnorrSignature.verify(p, msg, sig);
+    }
+
+    /********************************************************************/
+    // parsed points are cached, see SECPointCache
     public static S256Point parseSEC(byte[] sec_bytes) {
-        //var sec = Hex.toHexString(sec_bytes);
-        var sec = Kit.bytesToHexString(sec_bytes);
-        return parseSEC(sec);
+        return SECPointCache.getInstance().get(sec_bytes);
     }
 
     public static S256Point parseSEC(String sec) {
-        // TODO: is it necessary to convert to bytes?
-        var sec_n = new BigInteger(sec,16);
-        var sec_bytes = sec_n.toByteArray();
-        if (sec_bytes[0] == 4) {
-            var x = sec.substring(2,66);
-            var y = sec.substring(66,130);
-            var x_n = new BigInteger(x,16);
-            var y_n = new BigInteger(y,16);
-            return new S256Point(x_n,y_n);
+        return parseSEC(Kit.hexStringToByteArray(sec));
+    }
+
+    // parses the 65 bytes uncompressed or 33 bytes compressed SEC encoding
+    static S256Point decodeSEC(byte[] sec_bytes) {
+        if (sec_bytes.length==65 && sec_bytes[0]==4) {
+            var x = S256Limbs.fromBytes(sec_bytes,1);
+            var y = S256Limbs.fromBytes(sec_bytes,33);
+            // y^2 = x^3+7
+            var right = x.copy().square().multiply(x).add(new S256Limbs(7));
+            if (!y.copy().square().equals(right))
+                throw new RuntimeException("SEC point not in the curve: "+Kit.bytesToHexString(sec_bytes));
+            return new S256Point(x,y);
         }
+        if (sec_bytes.length!=33 || (sec_bytes[0]!=2 && sec_bytes[0]!=3))
+            throw new RuntimeException("Invalid SEC encoding: "+Kit.bytesToHexString(sec_bytes));
+
         boolean is_even = sec_bytes[0]==2;
-        var x_s = sec.substring(2,66);
-        var x = new S256Field(new BigInteger(x_s,16));
+        var x = S256Limbs.fromBytes(sec_bytes,1);
         // x^3+b
-        var alpha = (x.pow(BigInteger.valueOf(3)).add(new S256Field(Secp256k1.b)));
-        var beta = new S256Field(alpha.getNum()).sqrt();
-
-        S256Field even_beta;
-        S256Field odd_beta;
-
-        if (beta.getNum().mod(BigInteger.TWO).equals(BigInteger.ZERO)) {
-            even_beta = beta;
-            odd_beta = new S256Field(Secp256k1.p.subtract(beta.getNum()));
-        }
-        else {
-            even_beta = new S256Field(Secp256k1.p.subtract(beta.getNum()));
-            odd_beta = beta;
-        }
-
-        if (is_even)
-            return new S256Point(x.getNum(),even_beta.getNum());
-        else
-            return new S256Point(x.getNum(),odd_beta.getNum());
+        var beta = x.copy().square().multiply(x).add(new S256Limbs(7));
+        if (!beta.sqrt())
+            throw new RuntimeException("SEC point not in the curve: "+Kit.bytesToHexString(sec_bytes));
+        if (beta.isOdd()==is_even)
+            beta.negate();
+        return new S256Point(x,beta);
     }
-    
+
     public byte[] getHash160(boolean compressed) {
         String sec;
         if (compressed) {
@@ -0,0 +1,81 @@
+package bitcoffee;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// LRU cache from SEC encoded public keys to the parsed points, so that the keys seen
+// over and over (exchange hot wallets, multisig cosigners) are decompressed only once.
+// The points are immutable and can be shared by all the callers
+public final class SECPointCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 14;
+
+    private final static SECPointCache INSTANCE = new SECPointCache(DEFAULT_MAX_ENTRIES);
+
+    private final LinkedHashMap<ByteBuffer, S256Point> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SECPointCache(int max_entries) {
+        // access order: the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, S256Point> eldest) {
+                return size() > max_entries;
+            }
+        };
+    }
+
+    public static SECPointCache getInstance() {
+        return INSTANCE;
+    }
+
+    /***************************************************************************/
+    // returns the point of the sec encoding, parsing and caching it on a miss
+    public S256Point get(byte[] sec) {
+        var key = ByteBuffer.wrap(sec.clone());
+        S256Point point;
+        synchronized (entries) {
+            point = entries.get(key);
+        }
+        if (point != null) {
+            hits.incrementAndGet();
+            return point;
+        }
+        misses.incrementAndGet();
+        point = S256Point.decodeSEC(sec);
+        synchronized (entries) {
+            entries.put(key, point);
+        }
+        return point;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /***************************************************************************/
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SECPointCache(entries=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get() + ")";
+    }
+}
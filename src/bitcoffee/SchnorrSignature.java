@@ -0,0 +1,101 @@
+package bitcoffee;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+// BIP340 Schnorr signature: the x coordinate of the nonce point R and the scalar s,
+// serialized as 64 bytes. Public keys are x-only, standing for the point with even y
+public class SchnorrSignature {
+    final byte[] r; // 32 bytes
+    final BigInteger s;
+
+    public SchnorrSignature(byte[] r, BigInteger s) {
+        this.r = r;
+        this.s = s;
+    }
+
+    public static SchnorrSignature parse(byte[] sig) {
+        if (sig.length!=64)
+            throw new RuntimeException("Invalid Schnorr signature length: "+sig.length);
+        return new SchnorrSignature(Arrays.copyOfRange(sig,0,32),new BigInteger(1,Arrays.copyOfRange(sig,32,64)));
+    }
+
+    public byte[] serialize() {
+        return Kit.concatBytes(r,Kit.intToBigEndian(s,32));
+    }
+
+    @Override
+    public String toString() {
+        return "SchnorrSignature(" + Kit.bytesToHexString(r) + "," + s.toString(16) + ')';
+    }
+
+    /***************************************************************************/
+    // e = hash_BIP0340/challenge(r || P || msg) mod N
+    static BigInteger challenge(byte[] r, byte[] px, byte[] msg) {
+        var h = Kit.taggedHash("BIP0340/challenge",Kit.concatBytes(Kit.concatBytes(r,px),msg));
+        return new BigInteger(1,h).mod(Secp256k1.N);
+    }
+
+    /***************************************************************************/
+    // verifies the signature of msg by the x-only public key pubkey
+    public static boolean verify(byte[] pubkey, byte[] msg, SchnorrSignature sig) {
+        var p = S256Point.liftX(pubkey);
+        if (p==null) return false;
+        return verify(p,msg,sig);
+    }
+
+    // p must have even y
+    static boolean verify(S256Point p, byte[] msg, SchnorrSignature sig) {
+        var n = Secp256k1.N;
+        if (sig.r.length!=32 || new BigInteger(1,sig.r).compareTo(Secp256k1.p)>=0 || sig.s.compareTo(n)>=0)
+            return false;
+        var e = challenge(sig.r,p.xOnly(),msg);
+        // R = s*G - e*P
+        var total = S256MultiScalar.multiply(sig.s,n.subtract(e),p);
+        if (total.isInfinity()) return false;
+        var big_r = total.toAffine();
+        return big_r.hasEvenY() && Arrays.equals(big_r.xOnly(),sig.r);
+    }
+
+    /***************************************************************************/
+    // BIP340 batch verification: with random a_0=1, a_1, ..., a_(u-1) all the signatures
+    // are valid (with overwhelming probability) if
+    // (sum a_i*s_i)*G - sum a_i*R_i - sum (a_i*e_i)*P_i is the point at infinity,
+    // checked with a single multi-scalar multiplication
+    public static boolean verifyBatch(byte[][] pubkeys, byte[][] msgs, SchnorrSignature[] sigs) {
+        int u = sigs.length;
+        if (pubkeys.length!=u || msgs.length!=u)
+            throw new RuntimeException("Schnorr batch verification with different number of keys, messages and signatures");
+        if (u==0) return true;
+
+        var n = Secp256k1.N;
+        var rnd = new SecureRandom();
+        var g = BigInteger.ZERO;
+        var scalars = new BigInteger[2*u];
+        var points = new S256Point[2*u];
+        for (int i=0;i<u;i++) {
+            var sig = sigs[i];
+            var p = S256Point.liftX(pubkeys[i]);
+            if (p==null || sig.s.compareTo(n)>=0)
+                return false;
+            // liftX also rejects r >= p
+            var big_r = S256Point.liftX(sig.r);
+            if (big_r==null)
+                return false;
+            var e = challenge(sig.r,pubkeys[i],msgs[i]);
+
+            var a = BigInteger.ONE;
+            if (i>0) {
+                a = new BigInteger(256,rnd).mod(n);
+                if (a.signum()==0) a = BigInteger.ONE;
+            }
+            g = g.add(a.multiply(sig.s));
+            scalars[2*i] = n.subtract(a);
+            points[2*i] = big_r;
+            scalars[2*i+1] = n.subtract(a.multiply(e).mod(n));
+            points[2*i+1] = p;
+        }
+        return S256MultiScalar.multiply(g.mod(n),scalars,points).isInfinity();
+    }
+}
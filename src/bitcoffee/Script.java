@@ -5,8 +5,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.Stack;
 
@@ -44,8 +43,6 @@ public class Script {
     public static Script parseSerial(byte[] serial) throws IOException {
         Stack<ScriptCmd> ops_stack = new Stack<>();
         var bis = new ByteArrayInputStream(serial);
-        var hex = Kit.bytesToHexString(serial);
-        //System.out.println("DEBUG: Parsing script hex:"+hex);
         var len = Kit.readVarint(bis);
 
         int count =0;
@@ -63,7 +60,7 @@ public class Script {
             }
             // OP_PUSHDATA_1 - the next byte indicate how many bytes to read
             else if (current_byte==76) {
-                var data_len = Kit.litteEndianBytesToInt(bis.readNBytes(1)).intValue();
+                var data_len = readLength(bis,1);
                 var cmd = new ScriptCmd(ScriptCmd.Type.OP_PUSHDATA1, bis.readNBytes(data_len));
                 ops_stack.push(cmd);
                 //System.out.println("DEBUG: bitcoffee.Script parse operation: "+cmd);
@@ -71,7 +68,7 @@ public class Script {
             }
             // OP_PUSHDATA_2 - the next two bytes indicate how many bytes to read for the element
             else if (current_byte==77) {
-                var data_len = Kit.litteEndianBytesToInt(bis.readNBytes(2)).intValue();
+                var data_len = readLength(bis,2);
                 var cmd = new ScriptCmd(ScriptCmd.Type.OP_PUSHDATA2, bis.readNBytes(data_len));
                 ops_stack.push(cmd);
                 // System.out.println("DEBUG: bitcoffee.Script parse operation: "+cmd);
@@ -79,7 +76,7 @@ public class Script {
             }
             // OP_PUSHDATA_4 - the next four bytes indicate how many bytes to read for the element
             else if (current_byte==78) {
-                var data_len = Kit.litteEndianBytesToInt(bis.readNBytes(4)).intValue();
+                var data_len = readLength(bis,4);
                 var cmd = new ScriptCmd(ScriptCmd.Type.OP_PUSHDATA4, bis.readNBytes(data_len));
                 ops_stack.push(cmd);
                 // System.out.println("DEBUG: bitcoffee.Script parse operation: "+cmd);
@@ -110,6 +107,17 @@ public class Script {
         return new Script(reversed);
     }
 
+    // little endian length of a push, a truncated one reads only the available bytes
+    private static int readLength(ByteArrayInputStream bis, int n) {
+        int len = 0;
+        for (int k=0;k<n;k++) {
+            int b = bis.read();
+            if (b<0) break;
+            len |= b << (8*k);
+        }
+        return len;
+    }
+
     /*************************************************************************/
     // used for encoding stack nums
     public static byte[] encodeNum(BigInteger n) {
@@ -221,6 +229,15 @@ public class Script {
                 && getCommands().elementAt(1).type == ScriptCmd.Type.OP_0);
     }
 
+    // check for the pattern: OP_1 <32 byte x-only key>
+    public boolean isP2trScriptPubKey() {
+        return (this.getCommands().size()==2
+                && getCommands().elementAt(0).type == ScriptCmd.Type.DATA
+                && getCommands().elementAt(0).value.length == 32
+                && (getCommands().elementAt(1).type == ScriptCmd.Type.OP_1
+                    || getCommands().elementAt(1).type == ScriptCmd.Type.OP_TRUE));
+    }
+
     /*************************************************************************/
     // Returns the address
 
@@ -242,289 +259,84 @@ public class Script {
     // bytes encoding ops, without length prefix (required in serialization)
     /*************************************************************************/
     public byte[] rawSerialize()  {
-        var bos = new ByteArrayOutputStream();
-
-        var copy_cmd = new Stack<ScriptCmd>();
-
-        copy_cmd.addAll(getCommands());
+        var raw = new byte[rawSize()];
+        rawWriteTo(ByteBuffer.wrap(raw));
+        return raw;
+    }
 
-        if (copy_cmd.empty()) {
-            return new byte[]{};
+    // size of rawSerialize()
+    public int rawSize() {
+        int size = 0;
+        for (ScriptCmd cmd: getCommands()) {
+            if (cmd.type == ScriptCmd.Type.DATA) size += 1 + cmd.value.length;
+            else if (cmd.type == ScriptCmd.Type.OP_PUSHDATA1) size += 2 + cmd.value.length;
+            else if (cmd.type == ScriptCmd.Type.OP_PUSHDATA2) size += 3 + cmd.value.length;
+            else if (cmd.type == ScriptCmd.Type.OP_PUSHDATA4) size += 5 + cmd.value.length;
+            else size += 1;
         }
+        return size;
+    }
 
-        while (!copy_cmd.empty()) {
-            var cmd = copy_cmd.pop();
+    // the commands stack has the first command on top
+    public void rawWriteTo(ByteBuffer buf) {
+        var commands = getCommands();
+        for (int i=commands.size()-1;i>=0;i--) {
+            var cmd = commands.get(i);
             var len = cmd.value.length;
-
-            try {
-                if (cmd.type == ScriptCmd.Type.DATA) {
-                    bos.write((byte) len);
-                    bos.write(cmd.value);
-                } else if (cmd.type == ScriptCmd.Type.OP_PUSHDATA1) {
-                    bos.write((byte) ScriptCmd.Type.OP_PUSHDATA1.value);
-                    bos.write((byte) len);
-                    bos.write(cmd.value);
-                } else if (cmd.type == ScriptCmd.Type.OP_PUSHDATA2) {
-                    bos.write((byte) ScriptCmd.Type.OP_PUSHDATA2.value);
-                    var len_bytes = Kit.intToLittleEndianBytes(len);
-                    bos.write(len_bytes, 0, 2);
-                    bos.write(cmd.value);
-                } // operation, not data
-                else {
-                    bos.write((byte) cmd.type.value);
-                }
-            }
-            catch (IOException e) {
-                throw new RuntimeException(e);
+            if (cmd.type == ScriptCmd.Type.DATA) {
+                buf.put((byte) len);
+                buf.put(cmd.value);
+            } else if (cmd.type == ScriptCmd.Type.OP_PUSHDATA1) {
+                buf.put((byte) ScriptCmd.Type.OP_PUSHDATA1.value);
+                buf.put((byte) len);
+                buf.put(cmd.value);
+            } else if (cmd.type == ScriptCmd.Type.OP_PUSHDATA2) {
+                buf.put((byte) ScriptCmd.Type.OP_PUSHDATA2.value);
+                buf.put((byte) len);
+                buf.put((byte) (len >>> 8));
+                buf.put(cmd.value);
+            } else if (cmd.type == ScriptCmd.Type.OP_PUSHDATA4) {
+                buf.put((byte) ScriptCmd.Type.OP_PUSHDATA4.value);
+                Kit.putInt32LE(buf,len);
+                buf.put(cmd.value);
+            } // operation, not data: the parsed byte, also for the unknown opcodes
+            else {
+                buf.put(cmd.value.length==1 ? cmd.value[0] : (byte) cmd.type.value);
             }
-
         }
-        return bos.toByteArray();
     }
 
     /*************************************************************************/
+    // serialization starts with the number script bytes that follows
     public byte[] serialize() {
-        var bos = new ByteArrayOutputStream();
-        try {
-            var result = this.rawSerialize();
-            var len = result.length;
-            var len_bytes = Kit.encodeVarint(len);
-            // serialization starts with the number script bytes that follows
-            assert len_bytes != null;
-            bos.write(len_bytes);
-            bos.write(result);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return bos.toByteArray();
+        int raw_size = rawSize();
+        var serial = new byte[Kit.varintSize(raw_size) + raw_size];
+        var buf = ByteBuffer.wrap(serial);
+        Kit.putVarint(buf,raw_size);
+        rawWriteTo(buf);
+        return serial;
     }
 
-
-    public boolean evaluate(byte[] z) {
-        return this.evaluate(z,null);
+    public int serializedSize() {
+        int raw_size = rawSize();
+        return Kit.varintSize(raw_size) + raw_size;
     }
 
-    /*************************************************************************/
-    public boolean evaluate(byte[] z, ArrayList<byte[]> witness) {
-        var cmds = new Stack<ScriptCmd>();
-        cmds.addAll(this.getCommands()); // make a copy for adding redeem script if required
-
-        var stack = new Stack<byte[]>();
-        var altstack = new Stack<byte[]>();
-
-        System.out.println("*********************************************************************");
-        System.out.println("SCRIPT-> Starting evalutation of script:");
-        System.out.println(this);
-
-        while (cmds.size()>0) {
-            var cmd = cmds.pop();
-
-            // if it is data, just move it to the stack
-            if (cmd.type== ScriptCmd.Type.DATA) {
-                stack.push(cmd.value);
-
-                //detect p2sh pattern ////////////////////////////////////////////
-                // OP_HASH160 <20bytes hash> OP_EQUAL
-                if (cmds.size()==3
-                        && cmds.elementAt(0).type== ScriptCmd.Type.OP_EQUAL
-                        && cmds.elementAt(1).type== ScriptCmd.Type.DATA
-                        && cmds.elementAt(1).value.length==20
-                        && cmds.elementAt(2).type== ScriptCmd.Type.OP_HASH160)
-                {
-                    cmds.pop(); // we already know it's op_hash160
-                    var h160 = cmds.pop(); // the hash value
-                    cmds.pop(); // we already know it's op equal
-
-                    if (!ScriptCmd.OP_HASH160(stack)) return false;
-                    stack.push(h160.value);
-                    if (!ScriptCmd.OP_EQUAL(stack)) return false;
-                    if (!ScriptCmd.OP_VERIFY(stack)) {
-                        System.out.println("**** WARNING: bad p2sh h160");
-                        return false;
-                    }
-
-                    // since the h160 of the script is valid, we can add to commands
-                    var redeem_script = new Script(cmd.value);
-                    cmds.addAll(redeem_script.getCommands());
-                }
-
-                // p2wpks
-                // nodes supporting segwit will detect this condition in the stack, as a consequence
-                // of the execution of this particular script:  OP_0 <20bytes hash>
-                // Please notice that OP_0 places an empty element in the stack, NOT a byte 0
-                if (stack.size()==2 && stack.elementAt(0)==null && stack.elementAt(1).length==20) {
-
-                    var h160 = stack.pop();
-                    stack.pop(); // the empty byte[], witness version 0
-
-                    var script = new P2PKHScriptPubKey(h160);
-                    cmds.addAll(script.getCommands());
-
-                    for (int i= witness.size()-1;i>=0;i--) {
-                        var item = witness.get(i);
-                        if (item.length>0)
-                            cmds.add(new ScriptCmd(ScriptCmd.Type.DATA,item));
-                    }
-                }
-                if (stack.size()==2 && stack.elementAt(0)==null && stack.elementAt(1).length==32) {
-
-                    // sha256 of the witness script
-                    var s256 = stack.pop();
-                    stack.pop(); // the empty byte[], witness version 0
-
-
-                    // the last element in the witness data contains the script
-                    var witness_script_raw = witness.get(witness.size()-1);
-
-                    var computed_sha256 =Kit.sha256(witness_script_raw);
-
-                    if (!Arrays.equals(computed_sha256,s256)) {
-                        System.out.println("**** WARNING: Not matching p2wsh sha256, \nexpected: "+Kit.bytesToHexString(s256)+"\ncomputed: "+Kit.bytesToHexString(computed_sha256));
-
-                        return false;
-                    }
-
-                    var witness_script = new Script(witness_script_raw);
-
-                    cmds.addAll(witness_script.getCommands());
+    public void writeTo(ByteBuffer buf) {
+        Kit.putVarint(buf,rawSize());
+        rawWriteTo(buf);
+    }
 
-                    // add all the witness data, except the last element already added as witness script
-                    for (int i = witness.size()-2; i>=0; i--) {
-                        var witdata = new ScriptCmd(ScriptCmd.Type.DATA,witness.get(i));
-                        cmds.add(witdata);
-                    }
 
-                }
+    /*************************************************************************/
+    // runs the commands as a single script, the signatures being made on z
+    public boolean evaluate(byte[] z) {
+        return check(z)==ScriptError.OK;
+    }
 
-            }
-            else { // not a data element, we must execute the opcode logic
-
-                    switch (cmd.type) {
-                        case OP_0:
-                            ScriptCmd.OP_0(stack);
-                            break;
-                        case OP_1:
-                            ScriptCmd.OP_1(stack);
-                            break;
-                        case OP_2:
-                            ScriptCmd.OP_2(stack);
-                            break;
-                        case OP_3:
-                            ScriptCmd.OP_3(stack);
-                            break;
-                        case OP_4:
-                            ScriptCmd.OP_4(stack);
-                            break;
-                        case OP_5:
-                            ScriptCmd.OP_5(stack);
-                            break;
-                        case OP_6:
-                            ScriptCmd.OP_6(stack);
-                            break;
-                        case OP_7:
-                            ScriptCmd.OP_7(stack);
-                            break;
-                        case OP_8:
-                            ScriptCmd.OP_8(stack);
-                            break;
-                        case OP_9:
-                            ScriptCmd.OP_9(stack);
-                            break;
-                        case OP_10:
-                            ScriptCmd.OP_10(stack);
-                            break;
-                        case OP_11:
-                            ScriptCmd.OP_11(stack);
-                            break;
-                        case OP_12:
-                            ScriptCmd.OP_12(stack);
-                            break;
-                        case OP_13:
-                            ScriptCmd.OP_13(stack);
-                            break;
-                        case OP_14:
-                            ScriptCmd.OP_14(stack);
-                            break;
-                        case OP_15:
-                            ScriptCmd.OP_15(stack);
-                            break;
-                        case OP_16:
-                            ScriptCmd.OP_16(stack);
-                            break;
-                        case OP_NOP:
-                            ScriptCmd.OP_NOP(stack);
-                            break;
-                        case OP_IF:
-                            ScriptCmd.OP_IF(stack,cmds);
-                            break;
-                        case OP_NOTIF:
-                            ScriptCmd.OP_NOTIF(stack,cmds);
-                            break;
-                        case OP_CHECKSIG:
-                            ScriptCmd.OP_CHECKSIG(stack,z);
-                            break;
-                        case OP_CHECKMULTISIG:
-                            ScriptCmd.OP_CHECKMULTISIG(stack,z);
-                            break;
-                        case OP_VERIFY:
-                            ScriptCmd.OP_VERIFY(stack);
-                            break;
-                        case OP_RETURN:
-                            ScriptCmd.OP_RETURN(stack);
-                            break;
-                        case OP_TOALTSTACK:
-                            ScriptCmd.OP_TOALTSTACK(stack,altstack);
-                            break;
-                        case OP_FROMALTSTACK:
-                            ScriptCmd.OP_FROMALTSTACK(stack,altstack);
-                            break;
-                        case OP_2DUP:
-                            ScriptCmd.OP_2DUP(stack);
-                            break;
-                        case OP_EQUAL:
-                            ScriptCmd.OP_EQUAL(stack);
-                            break;
-                        case OP_EQUALVERIFY:
-                            ScriptCmd.OP_EQUALVERIFY(stack);
-                            break;
-                        case OP_NOT:
-                            ScriptCmd.OP_NOT(stack);
-                            break;
-                        case OP_ADD:
-                            ScriptCmd.OP_ADD(stack);
-                            break;
-                        case OP_SUB:
-                            ScriptCmd.OP_SUB(stack);
-                            break;
-                        case OP_MUL:
-                            ScriptCmd.OP_MUL(stack);
-                            break;
-                        case OP_RIPEMD160:
-                            ScriptCmd.OP_RIPEMD160(stack);
-                            break;
-                        case OP_SHA256:
-                            ScriptCmd.OP_SHA256(stack);
-                            break;
-                        case OP_DUP:
-                            ScriptCmd.OP_DUP(stack);
-                            break;
-                        case OP_HASH256:
-                            ScriptCmd.OP_HASH256(stack);
-                            break;
-
-                        case OP_HASH160:
-                            ScriptCmd.OP_HASH160(stack);
-                            break;
-                        default:
-                            System.out.println("FATAL: unsupported bitcoffee.Script command "+cmd);
-                            System.exit(-1);
-                    }
-                    // require only stack
-                }
-            }
-        if (stack.size()==0) return false;
-        return stack.pop() != null;
+    public ScriptError check(byte[] z) {
+        var program = new ScriptProgram(this.rawSerialize());
+        return ScriptInterpreter.getInstance().evaluate(program,ScriptInterpreter.fixedZ(z));
     }
 
 
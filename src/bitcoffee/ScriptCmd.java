@@ -72,19 +72,22 @@ public class ScriptCmd {
             this.value = code;
         }
 
-        public static Type fromInt(int code ) {
-
-            try {
-                for (Type op : Type.values()) {
-                    if (op.value == code ) return op;
-                }
-                System.out.println("**************WARNING: UNKNOWN OPCODE "+code);
-                return OP_INVALIDOPCODE;
+        // opcode byte -> type: the pushes 0x01-0x4b are DATA, 0x51 is OP_1 (OP_TRUE is its alias)
+        private static final Type[] BY_CODE = new Type[256];
+        static {
+            for (Type op : Type.values())
+                if (op.value >= 0 && BY_CODE[op.value] == null)
+                    BY_CODE[op.value] = op;
+            for (int code = 1; code <= 75; code++)
+                BY_CODE[code] = DATA;
+            BY_CODE[0x51] = OP_1;
+        }
 
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            return null;
+        public static Type fromInt(int code ) {
+            var op = (code >= 0 && code < 256) ? BY_CODE[code] : null;
+            if (op != null) return op;
+            System.out.println("**************WARNING: UNKNOWN OPCODE "+code);
+            return OP_INVALIDOPCODE;
         }
     }
 
@@ -423,14 +426,8 @@ public class ScriptCmd {
         // take off the last byte of the signature as that's the hash_type
         // see: https://en.bitcoin.it/wiki/OP_CHECKSIG
         var der_bytes = Arrays.copyOf(der_signature,der_signature.length-1);
-        var point = S256Point.parseSEC(sec_pubkey_cmd);
-        // 1) check parse der signature
-        // 2) check
-        var sig = Signature.parse(der_bytes);
-
-        var z_pos = new BigInteger(1,z);
 
-        if (point.verify(z_pos,sig)) {
+        if (verifySignature(z,sec_pubkey_cmd,der_bytes)) {
             stack.push(Script.encodeNum(1));
         }
         else stack.push(Script.encodeNum(0));
@@ -439,6 +436,21 @@ public class ScriptCmd {
 
     }
 
+    // verifies the der signature of z by the sec public key, skipping the EC math
+    // for signatures already found valid
+    static boolean verifySignature(byte[] z, byte[] sec, byte[] der) {
+        var cache = SignatureCache.getInstance();
+        if (cache.contains(z,sec,der))
+            return true;
+
+        var point = S256Point.parseSEC(sec);
+        var sig = Signature.parse(der);
+        if (!point.verify(new BigInteger(1,z),sig))
+            return false;
+        cache.add(z,sec,der);
+        return true;
+    }
+
     /*************************************************************************/
     public static boolean OP_CHECKMULTISIG(Stack<byte[]> stack, byte[] z) {
 
@@ -469,25 +481,13 @@ public class ScriptCmd {
         // due to the off-by-one OP_CHECKMULTISIG bug
         stack.pop();
 
-        var points = new ArrayList<S256Point>();
-
-        for (byte[] sec: sec_pubkeys) {
-            points.add(S256Point.parseSEC(sec));
-        }
-
-        var sigs = new ArrayList<Signature>();
-
         for (byte[] sig: der_signatures) {
-            sigs.add(Signature.parse(sig));
-        }
-
-        for (Signature sig: sigs) {
-            if (points.size()==0) return false;
+            if (sec_pubkeys.size()==0) return false;
 
-            for (S256Point p: points) {
+            for (byte[] sec: sec_pubkeys) {
 
-                if (p.verify(new BigInteger(1,z),sig)) {
-                    points.remove(p);
+                if (verifySignature(z,sec,sig)) {
+                    sec_pubkeys.remove(sec);
                     break;
                 }
             }
@@ -0,0 +1,68 @@
+package bitcoffee;
+
+// Result of a script verification by ScriptInterpreter, named as the SCRIPT_ERR_* codes
+// of Bitcoin Core so that failures can be compared with its test vectors
+public enum ScriptError {
+    OK("No error"),
+    EVAL_FALSE("Script evaluated without error but finished with a false/empty top stack element"),
+    OP_RETURN("OP_RETURN was encountered"),
+
+    // limits
+    SCRIPT_SIZE("Script is too big"),
+    PUSH_SIZE("Push value size limit exceeded"),
+    OP_COUNT("Operation limit exceeded"),
+    STACK_SIZE("Stack size limit exceeded"),
+    SIG_COUNT("Signature count negative or greater than pubkey count"),
+    PUBKEY_COUNT("Pubkey count negative or limit exceeded"),
+
+    // failed verify operations
+    VERIFY("Script failed an OP_VERIFY operation"),
+    EQUALVERIFY("Script failed an OP_EQUALVERIFY operation"),
+    CHECKMULTISIGVERIFY("Script failed an OP_CHECKMULTISIGVERIFY operation"),
+    CHECKSIGVERIFY("Script failed an OP_CHECKSIGVERIFY operation"),
+    NUMEQUALVERIFY("Script failed an OP_NUMEQUALVERIFY operation"),
+
+    // logical and format errors
+    BAD_OPCODE("Opcode missing or not understood"),
+    DISABLED_OPCODE("Attempted to use a disabled opcode"),
+    INVALID_STACK_OPERATION("Operation not valid with the current stack size"),
+    INVALID_ALTSTACK_OPERATION("Operation not valid with the current altstack size"),
+    UNBALANCED_CONDITIONAL("Invalid OP_IF construction"),
+    SCRIPTNUM("Script number overflow"),
+    MINIMALIF("OP_IF/NOTIF argument must be minimal"),
+
+    // locktime
+    NEGATIVE_LOCKTIME("Negative locktime"),
+    UNSATISFIED_LOCKTIME("Locktime requirement not satisfied"),
+
+    // signatures
+    SIG_DER("Non-canonical DER signature"),
+    SIG_NULLDUMMY("Dummy CHECKMULTISIG argument must be zero"),
+    SIG_PUSHONLY("Only push operators allowed in signatures"),
+    SCHNORR_SIG_SIZE("Invalid Schnorr signature size"),
+    SCHNORR_SIG_HASHTYPE("Invalid Schnorr signature hash type"),
+    SCHNORR_SIG("Invalid Schnorr signature"),
+
+    // segwit
+    WITNESS_PROGRAM_WRONG_LENGTH("Witness program has incorrect length"),
+    WITNESS_PROGRAM_WITNESS_EMPTY("Witness program was passed an empty witness"),
+    WITNESS_PROGRAM_MISMATCH("Witness program hash mismatch"),
+    WITNESS_MALLEATED("Witness requires empty scriptSig"),
+    WITNESS_MALLEATED_P2SH("Witness requires only-redeemscript scriptSig"),
+    WITNESS_UNEXPECTED("Witness provided for non-witness script"),
+    CLEANSTACK("Stack size must be exactly one after execution"),
+    // the taproot key path is verified by Tx, the engine doesn't run witness v1: the script
+    // path spendings are neither valid nor invalid for bitcoffee
+    UNSUPPORTED("Script feature not supported");
+
+    public final String description;
+
+    ScriptError(String description) {
+        this.description = description;
+    }
+
+    @Override
+    public String toString() {
+        return name() + ": " + description;
+    }
+}
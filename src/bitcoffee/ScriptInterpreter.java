@@ -0,0 +1,658 @@
+package bitcoffee;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+// Script engine running the flat ScriptProgram form, with the consensus rules of Bitcoin
+// Core's EvalScript/VerifyScript (P2SH, BIP66 DER signatures, BIP65/112 locktimes, NULLDUMMY,
+// witness v0). The policy only rules (minimal pushes, low S, clean stack of legacy
+// scripts...) are not enforced.
+// The main and the alt stack are arrays allocated once per engine, the opcodes are
+// dispatched by an int switch (a jump table), the IF nesting is tracked by a counter and
+// the position of the first false branch, and the numbers are long.
+// An engine is not thread safe: getInstance() returns the one of the calling thread
+public final class ScriptInterpreter {
+    public static final int MAX_SCRIPT_SIZE = 10000;
+    public static final int MAX_ELEMENT_SIZE = 520;
+    public static final int MAX_OPS = 201;
+    public static final int MAX_STACK_SIZE = 1000;
+    public static final int MAX_PUBKEYS = 20;
+
+    // the rules of the script being run
+    public static final int SIG_VERSION_BASE = 0;
+    public static final int SIG_VERSION_WITNESS_V0 = 1;
+
+    // opcodes
+    private static final int OP_0 = 0x00, OP_PUSHDATA4 = 0x4e, OP_1NEGATE = 0x4f, OP_1 = 0x51, OP_16 = 0x60;
+    private static final int OP_NOP = 0x61, OP_IF = 0x63, OP_NOTIF = 0x64, OP_ELSE = 0x67, OP_ENDIF = 0x68;
+    private static final int OP_VERIFY = 0x69, OP_RETURN = 0x6a;
+    private static final int OP_TOALTSTACK = 0x6b, OP_FROMALTSTACK = 0x6c, OP_2DROP = 0x6d, OP_2DUP = 0x6e;
+    private static final int OP_3DUP = 0x6f, OP_2OVER = 0x70, OP_2ROT = 0x71, OP_2SWAP = 0x72, OP_IFDUP = 0x73;
+    private static final int OP_DEPTH = 0x74, OP_DROP = 0x75, OP_DUP = 0x76, OP_NIP = 0x77, OP_OVER = 0x78;
+    private static final int OP_PICK = 0x79, OP_ROLL = 0x7a, OP_ROT = 0x7b, OP_SWAP = 0x7c, OP_TUCK = 0x7d;
+    private static final int OP_SIZE = 0x82, OP_EQUAL = 0x87, OP_EQUALVERIFY = 0x88;
+    private static final int OP_1ADD = 0x8b, OP_1SUB = 0x8c, OP_NEGATE = 0x8f, OP_ABS = 0x90, OP_NOT = 0x91;
+    private static final int OP_0NOTEQUAL = 0x92, OP_ADD = 0x93, OP_SUB = 0x94, OP_BOOLAND = 0x9a, OP_BOOLOR = 0x9b;
+    private static final int OP_NUMEQUAL = 0x9c, OP_NUMEQUALVERIFY = 0x9d, OP_NUMNOTEQUAL = 0x9e;
+    private static final int OP_LESSTHAN = 0x9f, OP_GREATERTHAN = 0xa0, OP_LESSTHANOREQUAL = 0xa1;
+    private static final int OP_GREATERTHANOREQUAL = 0xa2, OP_MIN = 0xa3, OP_MAX = 0xa4, OP_WITHIN = 0xa5;
+    private static final int OP_RIPEMD160 = 0xa6, OP_SHA1 = 0xa7, OP_SHA256 = 0xa8, OP_HASH160 = 0xa9;
+    private static final int OP_HASH256 = 0xaa, OP_CODESEPARATOR = 0xab, OP_CHECKSIG = 0xac;
+    private static final int OP_CHECKSIGVERIFY = 0xad, OP_CHECKMULTISIG = 0xae, OP_CHECKMULTISIGVERIFY = 0xaf;
+    private static final int OP_NOP1 = 0xb0, OP_CHECKLOCKTIMEVERIFY = 0xb1, OP_CHECKSEQUENCEVERIFY = 0xb2;
+    private static final int OP_NOP4 = 0xb3, OP_NOP5 = 0xb4, OP_NOP6 = 0xb5, OP_NOP7 = 0xb6, OP_NOP8 = 0xb7;
+    private static final int OP_NOP9 = 0xb8, OP_NOP10 = 0xb9;
+
+    // the opcodes failing the script even in a branch not executed
+    private static final boolean[] DISABLED = new boolean[256];
+    static {
+        for (int op : new int[]{0x7e, 0x7f, 0x80, 0x81, 0x83, 0x84, 0x85, 0x86, 0x8d, 0x8e, 0x95, 0x96, 0x97, 0x98, 0x99})
+            DISABLED[op] = true;
+    }
+
+    private static final byte[] FALSE = new byte[0];
+    private static final byte[] TRUE = {1};
+    // encoded -1 (index 0) to 16
+    private static final byte[][] SMALL_NUMS = new byte[18][];
+    static {
+        for (int n = -1; n <= 16; n++)
+            SMALL_NUMS[n + 1] = encodeNum(n);
+    }
+
+    private static final ThreadLocal<ScriptInterpreter> INSTANCE = ThreadLocal.withInitial(ScriptInterpreter::new);
+
+    // signatures and locktimes are checked against the spending tx by the caller
+    public interface Checker {
+        // sig ends with the hash type byte
+        boolean checkSig(byte[] sig, byte[] pubkey, int sig_version);
+
+        default boolean checkLockTime(long locktime) {
+            return false;
+        }
+
+        default boolean checkSequence(long sequence) {
+            return false;
+        }
+    }
+
+    // a few slots over the limit: the stack size is checked after every opcode, which
+    // pushes at most 3 elements
+    private final byte[][] stack = new byte[MAX_STACK_SIZE + 4][];
+    private final byte[][] altstack = new byte[MAX_STACK_SIZE + 4][];
+    private int sp = 0;
+    private int asp = 0;
+    private MessageDigest sha1 = null;
+
+    public static ScriptInterpreter getInstance() {
+        return INSTANCE.get();
+    }
+
+    // checker of signatures all made on z, without a tx for the locktimes
+    public static Checker fixedZ(byte[] z) {
+        return (sig, pubkey, sig_version) -> checkSig(z, sig, pubkey);
+    }
+
+    // the ecdsa check of sig (with its hash type byte) on z
+    public static boolean checkSig(byte[] z, byte[] sig, byte[] pubkey) {
+        if (z == null || sig.length == 0) return false;
+        try {
+            return ScriptCmd.verifySignature(z, pubkey, Arrays.copyOf(sig, sig.length - 1));
+        } catch (RuntimeException e) {
+            // not a valid public key or signature
+            return false;
+        }
+    }
+
+    /***************************************************************************/
+    // spending of script_pubkey by script_sig and the witness (null or empty for legacy inputs)
+    public ScriptError verify(ScriptProgram script_sig, ScriptProgram script_pubkey, List<byte[]> witness, Checker checker) {
+        sp = 0;
+        var error = eval(script_sig, SIG_VERSION_BASE, checker);
+        if (error != ScriptError.OK) return error;
+
+        // P2SH runs the redeem script on the stack left by the script sig
+        boolean p2sh = script_pubkey.isP2sh();
+        byte[][] p2sh_stack = p2sh ? Arrays.copyOf(stack, sp) : null;
+
+        error = eval(script_pubkey, SIG_VERSION_BASE, checker);
+        if (error != ScriptError.OK) return error;
+        if (sp == 0 || !castToBool(stack[sp - 1])) return ScriptError.EVAL_FALSE;
+
+        boolean witness_used = false;
+        if (script_pubkey.isWitnessProgram()) {
+            witness_used = true;
+            if (script_sig.length() != 0) return ScriptError.WITNESS_MALLEATED;
+            error = verifyWitnessProgram(script_pubkey, witness, false, checker);
+            if (error != ScriptError.OK) return error;
+        }
+        else if (p2sh) {
+            if (!script_sig.isPushOnly()) return ScriptError.SIG_PUSHONLY;
+            // not empty, the script pubkey has hashed its top
+            sp = p2sh_stack.length;
+            System.arraycopy(p2sh_stack, 0, stack, 0, sp);
+            var redeem = new ScriptProgram(stack[--sp]);
+            error = eval(redeem, SIG_VERSION_BASE, checker);
+            if (error != ScriptError.OK) return error;
+            if (sp == 0 || !castToBool(stack[sp - 1])) return ScriptError.EVAL_FALSE;
+
+            if (redeem.isWitnessProgram()) {
+                witness_used = true;
+                // the script sig must be the single direct push of the redeem script
+                if (script_sig.length() != redeem.length() + 1 || script_sig.opcode(0) != redeem.length())
+                    return ScriptError.WITNESS_MALLEATED_P2SH;
+                error = verifyWitnessProgram(redeem, witness, true, checker);
+                if (error != ScriptError.OK) return error;
+            }
+        }
+
+        if (!witness_used && witness != null && !witness.isEmpty())
+            return ScriptError.WITNESS_UNEXPECTED;
+        return ScriptError.OK;
+    }
+
+    // a single script on an empty stack, succeeding with a true top element
+    public ScriptError evaluate(ScriptProgram script, Checker checker) {
+        sp = 0;
+        var error = eval(script, SIG_VERSION_BASE, checker);
+        if (error != ScriptError.OK) return error;
+        if (sp == 0 || !castToBool(stack[sp - 1])) return ScriptError.EVAL_FALSE;
+        return ScriptError.OK;
+    }
+
+    private ScriptError verifyWitnessProgram(ScriptProgram program, List<byte[]> witness, boolean p2sh, Checker checker) {
+        int version = program.witnessVersion();
+        var hash = program.witnessProgram();
+        int n = witness == null ? 0 : witness.size();
+
+        if (version == 0) {
+            ScriptProgram script;
+            if (hash.length == 32) {
+                if (n == 0) return ScriptError.WITNESS_PROGRAM_WITNESS_EMPTY;
+                var witness_script = witness.get(--n);
+                if (!Arrays.equals(Kit.sha256(witness_script), hash))
+                    return ScriptError.WITNESS_PROGRAM_MISMATCH;
+                script = new ScriptProgram(witness_script);
+            }
+            else if (hash.length == 20) {
+                if (n != 2) return ScriptError.WITNESS_PROGRAM_MISMATCH;
+                // OP_DUP OP_HASH160 <hash> OP_EQUALVERIFY OP_CHECKSIG
+                var p2pkh = new byte[25];
+                p2pkh[0] = (byte) OP_DUP;
+                p2pkh[1] = (byte) OP_HASH160;
+                p2pkh[2] = 20;
+                System.arraycopy(hash, 0, p2pkh, 3, 20);
+                p2pkh[23] = (byte) OP_EQUALVERIFY;
+                p2pkh[24] = (byte) OP_CHECKSIG;
+                script = new ScriptProgram(p2pkh);
+            }
+            else return ScriptError.WITNESS_PROGRAM_WRONG_LENGTH;
+
+            // over the limit the first opcode would fail anyway
+            if (n > MAX_STACK_SIZE) return ScriptError.STACK_SIZE;
+            sp = 0;
+            for (int i = 0; i < n; i++) {
+                var item = witness.get(i);
+                if (item.length > MAX_ELEMENT_SIZE) return ScriptError.PUSH_SIZE;
+                stack[sp++] = item;
+            }
+            var error = eval(script, SIG_VERSION_WITNESS_V0, checker);
+            if (error != ScriptError.OK) return error;
+            if (sp != 1) return ScriptError.CLEANSTACK;
+            if (!castToBool(stack[0])) return ScriptError.EVAL_FALSE;
+            return ScriptError.OK;
+        }
+        // taproot key path: checked by Tx
+        if (version == 1 && hash.length == 32 && !p2sh)
+            return ScriptError.UNSUPPORTED;
+        // the other versions are left to future soft forks
+        return ScriptError.OK;
+    }
+
+    /***************************************************************************/
+    // runs script on the current stack
+    private ScriptError eval(ScriptProgram script, int sig_version, Checker checker) {
+        if (script.length() > MAX_SCRIPT_SIZE) return ScriptError.SCRIPT_SIZE;
+        asp = 0;
+        int op_count = 0;
+        // execution conditions of the open IFs: how many, and the first false one (-1 if none)
+        int cond_size = 0;
+        int first_false = -1;
+
+        int count = script.size();
+        for (int pc = 0; pc < count; pc++) {
+            int op = script.opcode(pc);
+            boolean exec = first_false < 0;
+
+            if (op <= OP_PUSHDATA4) {
+                if (script.dataLength(pc) > MAX_ELEMENT_SIZE) return ScriptError.PUSH_SIZE;
+                if (exec) stack[sp++] = op == OP_0 ? FALSE : script.pushData(pc);
+            }
+            else {
+                if (op > OP_16 && ++op_count > MAX_OPS) return ScriptError.OP_COUNT;
+                if (DISABLED[op]) return ScriptError.DISABLED_OPCODE;
+                if (!exec && (op < OP_IF || op > OP_ENDIF)) continue;
+
+                if (op == OP_1NEGATE || (op >= OP_1 && op <= OP_16))
+                    stack[sp++] = SMALL_NUMS[op == OP_1NEGATE ? 0 : op - OP_1 + 2];
+                else switch (op) {
+                    case OP_NOP: case OP_NOP1: case OP_NOP4: case OP_NOP5: case OP_NOP6:
+                    case OP_NOP7: case OP_NOP8: case OP_NOP9: case OP_NOP10:
+                    case OP_CODESEPARATOR:
+                        // the signature hash is computed by the checker, from the whole script
+                        break;
+
+                    case OP_CHECKLOCKTIMEVERIFY:
+                    case OP_CHECKSEQUENCEVERIFY: {
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        // 5 bytes numbers, for the values up to 2^39
+                        if (stack[sp - 1].length > 5) return ScriptError.SCRIPTNUM;
+                        long value = decodeNum(stack[sp - 1]);
+                        if (value < 0) return ScriptError.NEGATIVE_LOCKTIME;
+                        if (op == OP_CHECKLOCKTIMEVERIFY) {
+                            if (!checker.checkLockTime(value)) return ScriptError.UNSATISFIED_LOCKTIME;
+                        }
+                        // with the disable flag, a NOP
+                        else if ((value & (1L << 31)) == 0 && !checker.checkSequence(value))
+                            return ScriptError.UNSATISFIED_LOCKTIME;
+                        break;
+                    }
+
+                    case OP_IF:
+                    case OP_NOTIF: {
+                        boolean value = false;
+                        if (exec) {
+                            if (sp < 1) return ScriptError.UNBALANCED_CONDITIONAL;
+                            value = castToBool(stack[--sp]);
+                            if (op == OP_NOTIF) value = !value;
+                        }
+                        if (!value && first_false < 0) first_false = cond_size;
+                        cond_size++;
+                        break;
+                    }
+                    case OP_ELSE:
+                        if (cond_size == 0) return ScriptError.UNBALANCED_CONDITIONAL;
+                        // toggles the innermost condition
+                        if (first_false < 0) first_false = cond_size - 1;
+                        else if (first_false == cond_size - 1) first_false = -1;
+                        break;
+                    case OP_ENDIF:
+                        if (cond_size == 0) return ScriptError.UNBALANCED_CONDITIONAL;
+                        if (first_false == --cond_size) first_false = -1;
+                        break;
+
+                    case OP_VERIFY:
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        if (!castToBool(stack[sp - 1])) return ScriptError.VERIFY;
+                        sp--;
+                        break;
+                    case OP_RETURN:
+                        return ScriptError.OP_RETURN;
+
+                    // stack operations
+                    case OP_TOALTSTACK:
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        altstack[asp++] = stack[--sp];
+                        break;
+                    case OP_FROMALTSTACK:
+                        if (asp < 1) return ScriptError.INVALID_ALTSTACK_OPERATION;
+                        stack[sp++] = altstack[--asp];
+                        break;
+                    case OP_2DROP:
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        sp -= 2;
+                        break;
+                    case OP_2DUP:
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        stack[sp] = stack[sp - 2];
+                        stack[sp + 1] = stack[sp - 1];
+                        sp += 2;
+                        break;
+                    case OP_3DUP:
+                        if (sp < 3) return ScriptError.INVALID_STACK_OPERATION;
+                        stack[sp] = stack[sp - 3];
+                        stack[sp + 1] = stack[sp - 2];
+                        stack[sp + 2] = stack[sp - 1];
+                        sp += 3;
+                        break;
+                    case OP_2OVER:
+                        if (sp < 4) return ScriptError.INVALID_STACK_OPERATION;
+                        stack[sp] = stack[sp - 4];
+                        stack[sp + 1] = stack[sp - 3];
+                        sp += 2;
+                        break;
+                    case OP_2ROT: {
+                        if (sp < 6) return ScriptError.INVALID_STACK_OPERATION;
+                        var a = stack[sp - 6];
+                        var b = stack[sp - 5];
+                        System.arraycopy(stack, sp - 4, stack, sp - 6, 4);
+                        stack[sp - 2] = a;
+                        stack[sp - 1] = b;
+                        break;
+                    }
+                    case OP_2SWAP:
+                        if (sp < 4) return ScriptError.INVALID_STACK_OPERATION;
+                        swap(sp - 4, sp - 2);
+                        swap(sp - 3, sp - 1);
+                        break;
+                    case OP_IFDUP:
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        if (castToBool(stack[sp - 1])) {
+                            stack[sp] = stack[sp - 1];
+                            sp++;
+                        }
+                        break;
+                    case OP_DEPTH:
+                        stack[sp] = encodeNum(sp);
+                        sp++;
+                        break;
+                    case OP_DROP:
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        sp--;
+                        break;
+                    case OP_DUP:
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        stack[sp] = stack[sp - 1];
+                        sp++;
+                        break;
+                    case OP_NIP:
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        stack[sp - 2] = stack[sp - 1];
+                        sp--;
+                        break;
+                    case OP_OVER:
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        stack[sp] = stack[sp - 2];
+                        sp++;
+                        break;
+                    case OP_PICK:
+                    case OP_ROLL: {
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        if (stack[sp - 1].length > 4) return ScriptError.SCRIPTNUM;
+                        long n = decodeNum(stack[--sp]);
+                        if (n < 0 || n >= sp) return ScriptError.INVALID_STACK_OPERATION;
+                        int pos = sp - 1 - (int) n;
+                        var value = stack[pos];
+                        // ROLL moves the element to the top, PICK copies it
+                        if (op == OP_ROLL) {
+                            System.arraycopy(stack, pos + 1, stack, pos, (int) n);
+                            stack[sp - 1] = value;
+                        }
+                        else stack[sp++] = value;
+                        break;
+                    }
+                    case OP_ROT: {
+                        if (sp < 3) return ScriptError.INVALID_STACK_OPERATION;
+                        var a = stack[sp - 3];
+                        stack[sp - 3] = stack[sp - 2];
+                        stack[sp - 2] = stack[sp - 1];
+                        stack[sp - 1] = a;
+                        break;
+                    }
+                    case OP_SWAP:
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        swap(sp - 2, sp - 1);
+                        break;
+                    case OP_TUCK:
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        stack[sp] = stack[sp - 1];
+                        stack[sp - 1] = stack[sp - 2];
+                        stack[sp - 2] = stack[sp];
+                        sp++;
+                        break;
+                    case OP_SIZE:
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        stack[sp] = encodeNum(stack[sp - 1].length);
+                        sp++;
+                        break;
+
+                    case OP_EQUAL:
+                    case OP_EQUALVERIFY: {
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        boolean equal = Arrays.equals(stack[sp - 2], stack[sp - 1]);
+                        sp -= 2;
+                        if (op == OP_EQUALVERIFY) {
+                            if (!equal) return ScriptError.EQUALVERIFY;
+                        }
+                        else stack[sp++] = equal ? TRUE : FALSE;
+                        break;
+                    }
+
+                    // arithmetic, on 4 bytes operands
+                    case OP_1ADD: case OP_1SUB: case OP_NEGATE: case OP_ABS: case OP_NOT: case OP_0NOTEQUAL: {
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        if (stack[sp - 1].length > 4) return ScriptError.SCRIPTNUM;
+                        long a = decodeNum(stack[sp - 1]);
+                        long r;
+                        if (op == OP_1ADD) r = a + 1;
+                        else if (op == OP_1SUB) r = a - 1;
+                        else if (op == OP_NEGATE) r = -a;
+                        else if (op == OP_ABS) r = Math.abs(a);
+                        else if (op == OP_NOT) r = a == 0 ? 1 : 0;
+                        else r = a != 0 ? 1 : 0;
+                        stack[sp - 1] = encodeNum(r);
+                        break;
+                    }
+                    case OP_ADD: case OP_SUB: case OP_BOOLAND: case OP_BOOLOR: case OP_NUMEQUAL:
+                    case OP_NUMEQUALVERIFY: case OP_NUMNOTEQUAL: case OP_LESSTHAN: case OP_GREATERTHAN:
+                    case OP_LESSTHANOREQUAL: case OP_GREATERTHANOREQUAL: case OP_MIN: case OP_MAX: {
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        if (stack[sp - 2].length > 4 || stack[sp - 1].length > 4) return ScriptError.SCRIPTNUM;
+                        long a = decodeNum(stack[sp - 2]);
+                        long b = decodeNum(stack[sp - 1]);
+                        sp -= 2;
+                        long r = binaryOp(op, a, b);
+                        if (op == OP_NUMEQUALVERIFY) {
+                            if (r == 0) return ScriptError.NUMEQUALVERIFY;
+                        }
+                        else stack[sp++] = encodeNum(r);
+                        break;
+                    }
+                    case OP_WITHIN: {
+                        if (sp < 3) return ScriptError.INVALID_STACK_OPERATION;
+                        if (stack[sp - 3].length > 4 || stack[sp - 2].length > 4 || stack[sp - 1].length > 4)
+                            return ScriptError.SCRIPTNUM;
+                        long x = decodeNum(stack[sp - 3]);
+                        long min = decodeNum(stack[sp - 2]);
+                        long max = decodeNum(stack[sp - 1]);
+                        sp -= 3;
+                        stack[sp++] = (min <= x && x < max) ? TRUE : FALSE;
+                        break;
+                    }
+
+                    // crypto
+                    case OP_RIPEMD160: case OP_SHA1: case OP_SHA256: case OP_HASH160: case OP_HASH256: {
+                        if (sp < 1) return ScriptError.INVALID_STACK_OPERATION;
+                        var data = stack[sp - 1];
+                        byte[] hash;
+                        if (op == OP_RIPEMD160) hash = Kit.RIPEMD160(data);
+                        else if (op == OP_SHA1) hash = sha1(data);
+                        else if (op == OP_SHA256) hash = Kit.sha256(data);
+                        else if (op == OP_HASH160) hash = Kit.hash160(data);
+                        else hash = Kit.hash256(data);
+                        stack[sp - 1] = hash;
+                        break;
+                    }
+                    case OP_CHECKSIG:
+                    case OP_CHECKSIGVERIFY: {
+                        if (sp < 2) return ScriptError.INVALID_STACK_OPERATION;
+                        var sig = stack[sp - 2];
+                        var pubkey = stack[sp - 1];
+                        if (!isValidSignatureEncoding(sig)) return ScriptError.SIG_DER;
+                        boolean ok = sig.length > 0 && checker.checkSig(sig, pubkey, sig_version);
+                        sp -= 2;
+                        if (op == OP_CHECKSIGVERIFY) {
+                            if (!ok) return ScriptError.CHECKSIGVERIFY;
+                        }
+                        else stack[sp++] = ok ? TRUE : FALSE;
+                        break;
+                    }
+                    case OP_CHECKMULTISIG:
+                    case OP_CHECKMULTISIGVERIFY: {
+                        // positions from the top: keys count, keys, sigs count, sigs, dummy
+                        int i = 1;
+                        if (sp < i) return ScriptError.INVALID_STACK_OPERATION;
+                        if (stack[sp - i].length > 4) return ScriptError.SCRIPTNUM;
+                        long keys = decodeNum(stack[sp - i]);
+                        if (keys < 0 || keys > MAX_PUBKEYS) return ScriptError.PUBKEY_COUNT;
+                        op_count += (int) keys;
+                        if (op_count > MAX_OPS) return ScriptError.OP_COUNT;
+                        int ikey = ++i;
+                        i += (int) keys;
+                        if (sp < i) return ScriptError.INVALID_STACK_OPERATION;
+                        if (stack[sp - i].length > 4) return ScriptError.SCRIPTNUM;
+                        long sigs = decodeNum(stack[sp - i]);
+                        if (sigs < 0 || sigs > keys) return ScriptError.SIG_COUNT;
+                        int isig = ++i;
+                        i += (int) sigs;
+                        if (sp < i) return ScriptError.INVALID_STACK_OPERATION;
+
+                        // every signature must match one of the keys that follow the one of
+                        // the previous signature
+                        boolean ok = true;
+                        while (ok && sigs > 0) {
+                            var sig = stack[sp - isig];
+                            var pubkey = stack[sp - ikey];
+                            if (!isValidSignatureEncoding(sig)) return ScriptError.SIG_DER;
+                            if (sig.length > 0 && checker.checkSig(sig, pubkey, sig_version)) {
+                                isig++;
+                                sigs--;
+                            }
+                            ikey++;
+                            keys--;
+                            if (sigs > keys) ok = false;
+                        }
+                        // the dummy element, consumed by the off-by-one bug, must be empty
+                        sp -= i - 1;
+                        if (stack[sp - 1].length != 0) return ScriptError.SIG_NULLDUMMY;
+                        sp--;
+                        if (op == OP_CHECKMULTISIGVERIFY) {
+                            if (!ok) return ScriptError.CHECKMULTISIGVERIFY;
+                        }
+                        else stack[sp++] = ok ? TRUE : FALSE;
+                        break;
+                    }
+
+                    default:
+                        // OP_RESERVED, OP_VER, OP_VERIF, OP_VERNOTIF, OP_RESERVED1/2 and the
+                        // undefined opcodes
+                        return ScriptError.BAD_OPCODE;
+                }
+            }
+            if (sp + asp > MAX_STACK_SIZE) return ScriptError.STACK_SIZE;
+        }
+
+        // a push running past the end of the script
+        if (script.isTruncated()) return ScriptError.BAD_OPCODE;
+        if (cond_size != 0) return ScriptError.UNBALANCED_CONDITIONAL;
+        return ScriptError.OK;
+    }
+
+    private static long binaryOp(int op, long a, long b) {
+        switch (op) {
+            case OP_ADD: return a + b;
+            case OP_SUB: return a - b;
+            case OP_BOOLAND: return (a != 0 && b != 0) ? 1 : 0;
+            case OP_BOOLOR: return (a != 0 || b != 0) ? 1 : 0;
+            case OP_NUMEQUAL:
+            case OP_NUMEQUALVERIFY: return a == b ? 1 : 0;
+            case OP_NUMNOTEQUAL: return a != b ? 1 : 0;
+            case OP_LESSTHAN: return a < b ? 1 : 0;
+            case OP_GREATERTHAN: return a > b ? 1 : 0;
+            case OP_LESSTHANOREQUAL: return a <= b ? 1 : 0;
+            case OP_GREATERTHANOREQUAL: return a >= b ? 1 : 0;
+            case OP_MIN: return Math.min(a, b);
+            default: return Math.max(a, b);
+        }
+    }
+
+    private void swap(int i, int j) {
+        var t = stack[i];
+        stack[i] = stack[j];
+        stack[j] = t;
+    }
+
+    private byte[] sha1(byte[] data) {
+        try {
+            if (sha1 == null)
+                sha1 = MessageDigest.getInstance("SHA-1");
+            return sha1.digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // the elements left by the last verify or evaluate, bottom first
+    public byte[][] getStack() {
+        return Arrays.copyOf(stack, sp);
+    }
+
+    /***************************************************************************/
+    // false for empty, zeros and negative zero (zeros ended by 0x80)
+    public static boolean castToBool(byte[] b) {
+        for (int i = 0; i < b.length; i++) {
+            if (b[i] != 0)
+                return i != b.length - 1 || b[i] != (byte) 0x80;
+        }
+        return false;
+    }
+
+    // little endian sign and magnitude, the sign in the top bit of the last byte
+    public static byte[] encodeNum(long n) {
+        if (n == 0) return FALSE;
+        // null while the table is being built
+        if (n >= -1 && n <= 16 && SMALL_NUMS[(int) n + 1] != null) return SMALL_NUMS[(int) n + 1];
+        boolean negative = n < 0;
+        long abs = negative ? -n : n;
+        var buf = new byte[9];
+        int len = 0;
+        while (abs > 0) {
+            buf[len++] = (byte) abs;
+            abs >>>= 8;
+        }
+        // an extra byte for the sign if the top bit is taken
+        if ((buf[len - 1] & 0x80) != 0)
+            buf[len++] = (byte) (negative ? 0x80 : 0);
+        else if (negative)
+            buf[len - 1] |= (byte) 0x80;
+        return Arrays.copyOf(buf, len);
+    }
+
+    // up to 8 bytes, the callers check the size allowed to the operation
+    public static long decodeNum(byte[] b) {
+        int len = b.length;
+        if (len == 0) return 0;
+        long r = 0;
+        for (int i = 0; i < len; i++)
+            r |= (long) (b[i] & 0xff) << (8 * i);
+        long sign = 0x80L << (8 * (len - 1));
+        if ((r & sign) != 0)
+            return -(r & ~sign);
+        return r;
+    }
+
+    // BIP66 strict DER, followed by the hash type byte. The empty signature is allowed,
+    // it just fails the check
+    public static boolean isValidSignatureEncoding(byte[] sig) {
+        int len = sig.length;
+        if (len == 0) return true;
+        if (len < 9 || len > 73) return false;
+        if ((sig[0] & 0xff) != 0x30) return false;
+        if ((sig[1] & 0xff) != len - 3) return false;
+        int len_r = sig[3] & 0xff;
+        if (5 + len_r >= len) return false;
+        int len_s = sig[5 + len_r] & 0xff;
+        if (len_r + len_s + 7 != len) return false;
+
+        if (sig[2] != 0x02 || len_r == 0) return false;
+        // positive, without padding unless needed
+        if ((sig[4] & 0x80) != 0) return false;
+        if (len_r > 1 && sig[4] == 0 && (sig[5] & 0x80) == 0) return false;
+
+        if (sig[len_r + 4] != 0x02 || len_s == 0) return false;
+        if ((sig[len_r + 6] & 0x80) != 0) return false;
+        if (len_s > 1 && sig[len_r + 6] == 0 && (sig[len_r + 7] & 0x80) == 0) return false;
+        return true;
+    }
+}
@@ -0,0 +1,206 @@
+package bitcoffee;
+
+import java.util.Arrays;
+
+// Flat form of a script: the serialized program and, built on first use, the offset of
+// every instruction. Template checks work on the bytes, and the instructions are read in
+// place, without a ScriptCmd for every push. The program array is shared, not copied:
+// it must not be changed
+public final class ScriptProgram {
+    public static final int OP_0 = 0x00;
+    public static final int OP_PUSHDATA1 = 0x4c;
+    public static final int OP_PUSHDATA2 = 0x4d;
+    public static final int OP_PUSHDATA4 = 0x4e;
+    public static final int OP_1 = 0x51;
+    public static final int OP_16 = 0x60;
+    public static final int OP_DUP = 0x76;
+    public static final int OP_EQUAL = 0x87;
+    public static final int OP_EQUALVERIFY = 0x88;
+    public static final int OP_HASH160 = 0xa9;
+    public static final int OP_CHECKSIG = 0xac;
+
+    private final byte[] program;
+    // start of every instruction, then the end of the program
+    private int[] offsets = null;
+    private int count = 0;
+    private boolean truncated = false;
+
+    public ScriptProgram(byte[] program) {
+        this.program = program;
+    }
+
+    /***************************************************************************/
+    private void index() {
+        if (offsets != null) return;
+        int n = 0;
+        int pos = 0;
+        while (pos < program.length) {
+            int next = next(pos);
+            if (next < 0) {
+                truncated = true;
+                break;
+            }
+            n++;
+            pos = next;
+        }
+        var starts = new int[n + 1];
+        pos = 0;
+        for (int i = 0; i < n; i++) {
+            starts[i] = pos;
+            pos = next(pos);
+        }
+        starts[n] = pos;
+        count = n;
+        offsets = starts;
+    }
+
+    // start of the instruction after the one at pos, -1 if its push is truncated
+    private int next(int pos) {
+        int op = program[pos] & 0xff;
+        long end;
+        if (op <= 75) end = pos + 1L + op;
+        else if (op == OP_PUSHDATA1) end = pos + 2L + (pos + 1 < program.length ? program[pos + 1] & 0xff : 0);
+        else if (op == OP_PUSHDATA2) end = pos + 3L + (pos + 2 < program.length ? (program[pos + 1] & 0xff) | (program[pos + 2] & 0xff) << 8 : 0);
+        else if (op == OP_PUSHDATA4) end = pos + 5L + (pos + 4 < program.length ? Kit.readUInt32LE(program, pos + 1) : 0);
+        else end = pos + 1L;
+        return end > program.length ? -1 : (int) end;
+    }
+
+    /***************************************************************************/
+    public byte[] getBytes() {
+        return program;
+    }
+
+    public int length() {
+        return program.length;
+    }
+
+    // number of complete instructions
+    public int size() {
+        index();
+        return count;
+    }
+
+    // true if the program ends with a push longer than the bytes left
+    public boolean isTruncated() {
+        index();
+        return truncated;
+    }
+
+    public int opcode(int i) {
+        return program[start(i)] & 0xff;
+    }
+
+    public ScriptCmd.Type type(int i) {
+        return ScriptCmd.Type.fromInt(opcode(i));
+    }
+
+    // OP_0, the direct pushes and the OP_PUSHDATAs
+    public boolean isPush(int i) {
+        return opcode(i) <= OP_PUSHDATA4;
+    }
+
+    public int dataOffset(int i) {
+        int op = opcode(i);
+        int pos = start(i);
+        if (op == OP_PUSHDATA1) return pos + 2;
+        if (op == OP_PUSHDATA2) return pos + 3;
+        if (op == OP_PUSHDATA4) return pos + 5;
+        return pos + 1;
+    }
+
+    public int dataLength(int i) {
+        if (!isPush(i)) return 0;
+        return offsets[i + 1] - dataOffset(i);
+    }
+
+    // data pushed by instruction i, null if it isn't a push
+    public byte[] pushData(int i) {
+        if (!isPush(i)) return null;
+        int off = dataOffset(i);
+        return Arrays.copyOfRange(program, off, offsets[i + 1]);
+    }
+
+    public boolean isPushOnly() {
+        index();
+        if (truncated) return false;
+        for (int i = 0; i < count; i++)
+            if (opcode(i) > OP_16) return false;
+        return true;
+    }
+
+    private int start(int i) {
+        index();
+        if (i < 0 || i >= count)
+            throw new RuntimeException("No script instruction " + i);
+        return offsets[i];
+    }
+
+    /***************************************************************************/
+    // standard templates, checked on the bytes
+
+    // OP_DUP OP_HASH160 <20 bytes> OP_EQUALVERIFY OP_CHECKSIG
+    public boolean isP2pkh() {
+        var p = program;
+        return p.length == 25 && (p[0] & 0xff) == OP_DUP && (p[1] & 0xff) == OP_HASH160 && p[2] == 20
+                && (p[23] & 0xff) == OP_EQUALVERIFY && (p[24] & 0xff) == OP_CHECKSIG;
+    }
+
+    // OP_HASH160 <20 bytes> OP_EQUAL
+    public boolean isP2sh() {
+        var p = program;
+        return p.length == 23 && (p[0] & 0xff) == OP_HASH160 && p[1] == 20 && (p[22] & 0xff) == OP_EQUAL;
+    }
+
+    // BIP141: a version opcode (OP_0, OP_1..OP_16) and a single push of 2 to 40 bytes
+    public boolean isWitnessProgram() {
+        var p = program;
+        if (p.length < 4 || p.length > 42) return false;
+        int version = p[0] & 0xff;
+        if (version != OP_0 && (version < OP_1 || version > OP_16)) return false;
+        return (p[1] & 0xff) == p.length - 2;
+    }
+
+    // -1 if not a witness program
+    public int witnessVersion() {
+        if (!isWitnessProgram()) return -1;
+        int version = program[0] & 0xff;
+        return version == OP_0 ? 0 : version - OP_1 + 1;
+    }
+
+    public byte[] witnessProgram() {
+        if (!isWitnessProgram()) return null;
+        return Arrays.copyOfRange(program, 2, program.length);
+    }
+
+    public boolean isP2wpkh() {
+        return program.length == 22 && program[0] == OP_0 && program[1] == 20;
+    }
+
+    public boolean isP2wsh() {
+        return program.length == 34 && program[0] == OP_0 && program[1] == 32;
+    }
+
+    public boolean isP2tr() {
+        return program.length == 34 && (program[0] & 0xff) == OP_1 && program[1] == 32;
+    }
+
+    // the 20 bytes hash of a P2PKH, P2SH or P2WPKH, null for the other scripts
+    public byte[] hash160() {
+        if (isP2pkh()) return Arrays.copyOfRange(program, 3, 23);
+        if (isP2sh()) return Arrays.copyOfRange(program, 2, 22);
+        if (isP2wpkh()) return Arrays.copyOfRange(program, 2, 22);
+        return null;
+    }
+
+    /***************************************************************************/
+    // the command stack form, for the code working on Script
+    public Script toScript() {
+        return new Script(program);
+    }
+
+    @Override
+    public String toString() {
+        return Kit.bytesToHexString(program);
+    }
+}
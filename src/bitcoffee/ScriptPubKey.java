@@ -36,6 +36,10 @@ public class ScriptPubKey extends Script {
         if (script.isP2wshScriptPubKey()) {
             return new P2WSHScriptPubKey(script.getCommands().get(0).value);
         }
+        else
+        if (script.isP2trScriptPubKey()) {
+            return new P2TRScriptPubKey(script.getCommands().get(0).value);
+        }
         else return new ScriptPubKey();
     }
 
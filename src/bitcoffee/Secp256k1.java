@@ -9,6 +9,9 @@ public class Secp256k1 {
     public static final BigInteger Gx = new BigInteger("79be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798",16);
     public static final BigInteger Gy = new BigInteger("483ada7726a3c4655da4fbfc0e1108a8fd17b448a68554199c47d08ffb10d4b8",16);
     public static final BigInteger N = new BigInteger("fffffffffffffffffffffffffffffffebaaedce6af48a03bbfd25e8cd0364141",16);
+    // curve coefficients as field elements, declared before G since the points use them
+    static final S256Field a_field = new S256Field(a);
+    static final S256Field b_field = new S256Field(b);
     public static final S256Point G = new S256Point(Gx,Gy);
 
 
@@ -0,0 +1,109 @@
+package bitcoffee;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// SHA-256 and double SHA-256 on a per thread digest instance, so that the hot paths
+// (txids, merkle nodes, sighashes, checksums) neither look up the provider nor allocate a
+// new MessageDigest for every hash. Inputs can be array slices or ByteBuffers, read in place
+public final class Sha256 {
+    public static final int HASH_LEN = 32;
+
+    private static final ThreadLocal<Sha256> ENGINE = ThreadLocal.withInitial(Sha256::new);
+    // sha256(tag) of the BIP340 tags in use
+    private static final ConcurrentHashMap<String, byte[]> TAG_HASHES = new ConcurrentHashMap<>();
+
+    private final MessageDigest digest;
+    // first round output of the double hashes
+    private final byte[] scratch = new byte[HASH_LEN];
+
+    private Sha256() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // the digest of the calling thread, reset, for streaming the data with update(). Shared
+    // with every other hash of the thread, which resets it: no hash may be taken between the
+    // updates and digest(), hence package private
+    static MessageDigest digest() {
+        var d = ENGINE.get().digest;
+        d.reset();
+        return d;
+    }
+
+    /***************************************************************************/
+    public static byte[] hash(byte[] b) {
+        return hash(b, 0, b.length);
+    }
+
+    public static byte[] hash(byte[] b, int offset, int len) {
+        var d = digest();
+        d.update(b, offset, len);
+        return d.digest();
+    }
+
+    // hashes the remaining bytes of buf, leaving its position unchanged
+    public static byte[] hash(ByteBuffer buf) {
+        var d = digest();
+        d.update(buf.duplicate());
+        return d.digest();
+    }
+
+    /***************************************************************************/
+    // sha256(sha256(b))
+    public static byte[] doubleHash(byte[] b) {
+        return doubleHash(b, 0, b.length);
+    }
+
+    public static byte[] doubleHash(byte[] b, int offset, int len) {
+        var out = new byte[HASH_LEN];
+        doubleHash(b, offset, len, out, 0);
+        return out;
+    }
+
+    // writes sha256(sha256(b[offset..offset+len])) at out[out_offset..out_offset+32]
+    public static void doubleHash(byte[] b, int offset, int len, byte[] out, int out_offset) {
+        var engine = ENGINE.get();
+        var d = engine.digest;
+        d.reset();
+        d.update(b, offset, len);
+        engine.finish(out, out_offset);
+    }
+
+    // same as above on the remaining bytes of buf, leaving its position unchanged
+    public static void doubleHash(ByteBuffer buf, byte[] out, int out_offset) {
+        var engine = ENGINE.get();
+        var d = engine.digest;
+        d.reset();
+        d.update(buf.duplicate());
+        engine.finish(out, out_offset);
+    }
+
+    private void finish(byte[] out, int out_offset) {
+        try {
+            digest.digest(scratch, 0, HASH_LEN);
+            digest.update(scratch);
+            digest.digest(out, out_offset, HASH_LEN);
+        } catch (DigestException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /***************************************************************************/
+    // BIP340 tagged hash: sha256(sha256(tag) || sha256(tag) || msg)
+    public static byte[] taggedHash(String tag, byte[] msg) {
+        var tag_hash = TAG_HASHES.computeIfAbsent(tag, t -> hash(t.getBytes(StandardCharsets.UTF_8)));
+        var d = digest();
+        d.update(tag_hash);
+        d.update(tag_hash);
+        d.update(msg);
+        return d.digest();
+    }
+}
@@ -0,0 +1,133 @@
+package bitcoffee;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cache of the ECDSA and Schnorr signatures already found valid, as the Bitcoin Core sigcache:
+// a transaction verified when it is first seen does not pay the EC math again
+// when the block that contains it is connected.
+// Entries are keyed by SHA256(salt || type || z || pubkey || signature), the type keeping
+// the ECDSA and the Schnorr entries apart, the random salt keeps an attacker from choosing
+// colliding entries. Only valid signatures are stored.
+// Every key also has a slot in an array: when the cache is full the key in a uniformly
+// random slot is evicted, so that recent entries are as likely to stay as old ones
+public final class SignatureCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+    // signature types, the first byte hashed into the keys
+    public static final int ECDSA = 0;
+    public static final int SCHNORR = 1;
+
+    private final static SignatureCache INSTANCE = new SignatureCache(DEFAULT_MAX_ENTRIES);
+
+    private final int max_entries;
+    private final ConcurrentHashMap<ByteBuffer, Boolean> entries = new ConcurrentHashMap<>();
+    // the keys by slot, the first used of them filled; guarded by itself
+    private final ByteBuffer[] slots;
+    private int used = 0;
+    // SHA-256 state with the salt already processed, cloned for every key
+    private final MessageDigest salted;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public SignatureCache(int max_entries) {
+        this.max_entries = max_entries;
+        this.slots = new ByteBuffer[max_entries];
+        var salt = new byte[32];
+        new SecureRandom().nextBytes(salt);
+        try {
+            this.salted = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        this.salted.update(salt);
+    }
+
+    public static SignatureCache getInstance() {
+        return INSTANCE;
+    }
+
+    private ByteBuffer key(int type, byte[] z, byte[] sec, byte[] der) {
+        MessageDigest digest;
+        try {
+            digest = (MessageDigest) salted.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update((byte) type);
+        digest.update(z);
+        digest.update(sec);
+        digest.update(der);
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    /***************************************************************************/
+    // true if the ECDSA signature der of z by the key sec has already been verified
+    public boolean contains(byte[] z, byte[] sec, byte[] der) {
+        return contains(ECDSA, z, sec, der);
+    }
+
+    // the signature sig of z by pubkey, of the given type
+    public boolean contains(int type, byte[] z, byte[] pubkey, byte[] sig) {
+        if (entries.containsKey(key(type, z, pubkey, sig))) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    // records a valid ECDSA signature
+    public void add(byte[] z, byte[] sec, byte[] der) {
+        add(ECDSA, z, sec, der);
+    }
+
+    public void add(int type, byte[] z, byte[] pubkey, byte[] sig) {
+        var k = key(type, z, pubkey, sig);
+        synchronized (slots) {
+            if (max_entries == 0 || entries.containsKey(k)) return;
+            int slot;
+            if (used < max_entries) {
+                slot = used++;
+            } else {
+                slot = ThreadLocalRandom.current().nextInt(max_entries);
+                entries.remove(slots[slot]);
+            }
+            slots[slot] = k;
+            entries.put(k, Boolean.TRUE);
+        }
+    }
+
+    public void clear() {
+        synchronized (slots) {
+            Arrays.fill(slots, null);
+            used = 0;
+            entries.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /***************************************************************************/
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SignatureCache(entries=" + entries.size() + ", hits=" + hits.get() + ", misses=" + misses.get() + ")";
+    }
+}
@@ -0,0 +1,74 @@
+package bitcoffee;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Verification of the standard single key inputs (P2PKH, P2WPKH and P2SH-P2WPKH, most of
+// the inputs of a block) straight from the bytes of the scripts: the hash160 of the public
+// key is compared with the one in the script, then the signature is checked, without
+// running the interpreter.
+// The result is the one ScriptInterpreter.verify gives for the same input. Inputs not
+// exactly in the templates get null, and are left to the interpreter
+public final class TemplateVerifier {
+
+    private TemplateVerifier() {
+    }
+
+    public static ScriptError verify(ScriptProgram script_sig, ScriptProgram script_pubkey, List<byte[]> witness, ScriptInterpreter.Checker checker) {
+        boolean has_witness = witness != null && !witness.isEmpty();
+
+        if (script_pubkey.isP2pkh()) {
+            // <sig> <pubkey>
+            if (has_witness || script_sig.isTruncated() || script_sig.size() != 2
+                    || !isElement(script_sig, 0) || !isElement(script_sig, 1))
+                return null;
+            return checkKey(script_sig.pushData(0), script_sig.pushData(1), script_pubkey.getBytes(), 3,
+                    ScriptInterpreter.SIG_VERSION_BASE, checker);
+        }
+
+        if (script_pubkey.isP2wpkh()) {
+            if (script_sig.length() != 0 || !isKeyWitness(witness)) return null;
+            return checkKey(witness.get(0), witness.get(1), script_pubkey.getBytes(), 2,
+                    ScriptInterpreter.SIG_VERSION_WITNESS_V0, checker);
+        }
+
+        if (script_pubkey.isP2sh()) {
+            // the single push of the redeem script OP_0 <20 bytes>
+            var sig_bytes = script_sig.getBytes();
+            if (sig_bytes.length != 23 || sig_bytes[0] != 22 || sig_bytes[1] != 0 || sig_bytes[2] != 20
+                    || !isKeyWitness(witness))
+                return null;
+            var redeem_hash = Kit.hash160(Arrays.copyOfRange(sig_bytes, 1, 23));
+            if (!Arrays.equals(redeem_hash, 0, 20, script_pubkey.getBytes(), 2, 22))
+                return ScriptError.EVAL_FALSE;
+            return checkKey(witness.get(0), witness.get(1), sig_bytes, 3,
+                    ScriptInterpreter.SIG_VERSION_WITNESS_V0, checker);
+        }
+        return null;
+    }
+
+    // the steps of OP_DUP OP_HASH160 <hash> OP_EQUALVERIFY OP_CHECKSIG, the hash being at
+    // hash_pos in script
+    private static ScriptError checkKey(byte[] sig, byte[] pubkey, byte[] script, int hash_pos, int sig_version,
+                                        ScriptInterpreter.Checker checker) {
+        if (!Arrays.equals(Kit.hash160(pubkey), 0, 20, script, hash_pos, hash_pos + 20))
+            return ScriptError.EQUALVERIFY;
+        if (!ScriptInterpreter.isValidSignatureEncoding(sig))
+            return ScriptError.SIG_DER;
+        if (sig.length == 0 || !checker.checkSig(sig, pubkey, sig_version))
+            return ScriptError.EVAL_FALSE;
+        return ScriptError.OK;
+    }
+
+    // a push (OP_0 included) the interpreter accepts
+    private static boolean isElement(ScriptProgram script, int i) {
+        return script.isPush(i) && script.dataLength(i) <= ScriptInterpreter.MAX_ELEMENT_SIZE;
+    }
+
+    // <sig> <pubkey>
+    private static boolean isKeyWitness(List<byte[]> witness) {
+        return witness != null && witness.size() == 2
+                && witness.get(0).length <= ScriptInterpreter.MAX_ELEMENT_SIZE
+                && witness.get(1).length <= ScriptInterpreter.MAX_ELEMENT_SIZE;
+    }
+}
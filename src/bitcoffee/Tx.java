@@ -1,12 +1,12 @@
 package bitcoffee;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Objects;
 
 /*****************************************************************/
 public class Tx implements Message {
@@ -19,13 +19,43 @@ public class Tx implements Message {
 
     public final static String COMMAND = "tx";
 
+    private static final int SIGHASH_DEFAULT = 0;
     private static final int SIGHASH_ALL = 1;
+    private static final int SIGHASH_NONE = 2;
+    private static final int SIGHASH_SINGLE = 3;
+    private static final int SIGHASH_ANYONECANPAY = 0x80;
+    // locktimes below are block heights, above unix times
+    private static final long LOCKTIME_THRESHOLD = 500000000;
+    // BIP68 relative locktime fields of the sequence
+    private static final long SEQUENCE_DISABLE_FLAG = 1L << 31;
+    private static final long SEQUENCE_TYPE_FLAG = 1L << 22;
+    private static final long SEQUENCE_MASK = 0xffff;
 
 
     // not to be used directly
     private byte[] _hash_prevouts = null;
     private byte[] _hash_sequence = null;
     private byte[] _hash_outputs = null;
+    private byte[] _sha_prevouts = null;
+    private byte[] _sha_amounts = null;
+    // outputs spent by the inputs, loaded at once from a UtxoView
+    private TxOut[] _prevouts = null;
+    private byte[] _sha_scriptpubkeys = null;
+    private byte[] _sha_sequences = null;
+    private byte[] _sha_outputs = null;
+
+    // memoized values, computed on first use. The txid and the stripped size depend on
+    // fields changed only by updateLockTime() and setLocktime(), the witness dependent ones
+    // are recomputed when the witness of an input is set again
+    private byte[] _hash = null;
+    private byte[] _witness_hash = null;
+    private int _stripped_size = -1;
+    private int _size = -1;
+    private long _witness_stamp = -1;
+    // wire bytes of a parsed tx, the start of their witnesses and the witness stamp they match
+    private byte[] _raw = null;
+    private int _raw_witness_start = 0;
+    private long _raw_stamp = -1;
 
 
     /*****************************************************************/
@@ -50,6 +80,9 @@ public class Tx implements Message {
     /*****************************************************************/
     public void updateLockTime(long locktime) {
         this.locktime = locktime;
+        this._hash = null;
+        this._witness_hash = null;
+        this._raw = null;
     }
 
     /*****************************************************************/
@@ -66,7 +99,85 @@ public class Tx implements Message {
     /*****************************************************************/
     // use legacy (non-segwit) version to keep id stable
     public byte[] hash() {
-        return Kit.hash256(this.serializeLegacy());
+        if (_hash == null) {
+            if (_raw == null)
+                _hash = Kit.hash256(this.serializeLegacy());
+            else if (!segwit)
+                _hash = Sha256.doubleHash(_raw);
+            else {
+                // the wire bytes without marker, flag and witnesses
+                var d = Sha256.digest();
+                d.update(_raw,0,4);
+                d.update(_raw,6,_raw_witness_start-6);
+                d.update(_raw,_raw.length-4,4);
+                _hash = Sha256.hash(d.digest());
+            }
+        }
+        return _hash.clone();
+    }
+
+    // wtxid, the hash of the full serialization: the txid for a non segwit tx
+    public byte[] witnessHash() {
+        if (!segwit) return hash();
+        checkWitnessStamp();
+        if (_witness_hash == null)
+            _witness_hash = Kit.hash256(rawOrSerialize());
+        return _witness_hash.clone();
+    }
+
+    public String getWitnessId() {
+        return Kit.bytesToHexString(Kit.reverseBytes(this.witnessHash()));
+    }
+
+    /*****************************************************************/
+    // size of the serialization, with the witnesses for a segwit tx
+    public int getSize() {
+        if (!segwit) return strippedSize();
+        checkWitnessStamp();
+        if (_size < 0)
+            _size = hasValidRaw() ? _raw.length : serializedSize();
+        return _size;
+    }
+
+    // BIP141 weight: stripped size * 3 + size
+    public int getWeight() {
+        return strippedSize()*3 + getSize();
+    }
+
+    public int getVSize() {
+        return (getWeight()+3)/4;
+    }
+
+    private long witnessStamp() {
+        long stamp = 0;
+        for (TxIn tx_in: tx_ins)
+            stamp += tx_in.getWitnessUpdates();
+        return stamp;
+    }
+
+    private void checkWitnessStamp() {
+        long stamp = witnessStamp();
+        if (stamp != _witness_stamp) {
+            _witness_hash = null;
+            _size = -1;
+            _witness_stamp = stamp;
+        }
+    }
+
+    private boolean hasValidRaw() {
+        return _raw != null && (!segwit || _raw_stamp == witnessStamp());
+    }
+
+    private byte[] rawOrSerialize() {
+        if (hasValidRaw()) return _raw;
+        return this.serialize();
+    }
+
+    // keeps the wire bytes of a parsed tx, witness_start being where its witnesses begin
+    private void setRaw(byte[] raw, int witness_start) {
+        this._raw = raw;
+        this._raw_witness_start = witness_start;
+        this._raw_stamp = witnessStamp();
     }
 
 
@@ -82,6 +193,18 @@ public class Tx implements Message {
 
     /*****************************************************************/
     public boolean verify() {
+        if (!hasPrevouts() && !loadPrevouts(defaultView())) return false;
+        return verifyLoaded();
+    }
+
+    // verification with the spent outputs from view, all loaded before running the scripts.
+    // The outputs are checked to be unspent only if view does it (UtxoStore)
+    public boolean verify(UtxoView view) {
+        if (!loadPrevouts(view)) return false;
+        return verifyLoaded();
+    }
+
+    private boolean verifyLoaded() {
         // we make sure we are not creating money
         if (this.calculateFee()<0)
             return false;
@@ -92,61 +215,207 @@ public class Tx implements Message {
         return true;
     }
 
+    /*****************************************************************/
+    // looks up the outputs spent by all the inputs, false if any is missing
+    public boolean loadPrevouts(UtxoView view) {
+        var prevouts = new TxOut[tx_ins.size()];
+        for (int i=0;i<prevouts.length;i++) {
+            prevouts[i] = view.getOutput(tx_ins.get(i));
+            if (prevouts[i]==null) return false;
+        }
+        this._prevouts = prevouts;
+        this._sha_amounts = null;
+        this._sha_scriptpubkeys = null;
+        return true;
+    }
+
+    private boolean hasPrevouts() {
+        return _prevouts!=null && _prevouts.length==tx_ins.size();
+    }
+
+    // the outputs loaded by loadPrevouts(), otherwise taken from the default view
+    private TxOut[] prevouts() {
+        if (!hasPrevouts() && !loadPrevouts(defaultView()))
+            throw new RuntimeException("Missing outputs spent by tx "+getId());
+        return _prevouts;
+    }
+
+    // the output spent by the input
+    public TxOut getPrevout(int input_index) {
+        return prevouts()[input_index];
+    }
+
+    // source of the spent outputs when none were loaded: downloaded by TxFetcher unless a
+    // local view (e.g. a UtxoStore) is set
+    private static volatile UtxoView default_view = null;
+
+    public static void setDefaultUtxoView(UtxoView view) {
+        default_view = view;
+    }
+
+    private UtxoView defaultView() {
+        var view = default_view;
+        return view!=null ? view : new HttpUtxoView(this.testnet);
+    }
 
     /*****************************************************************/
     public boolean verifyInput(int input_index) {
+        return checkInput(input_index)==ScriptError.OK;
+    }
+
+    // the result of the scripts of the input, OK if it is correctly spent
+    public ScriptError checkInput(int input_index) {
         byte[] z;
         byte[] raw_redeem;
-        ArrayList<byte[]> witness_data = null;
 
         var tx_in = tx_ins.get(input_index);
-        var prevtx_script_pubkey_raw = tx_in.getPreviousTxScriptPubKey(this.isTestnet());
-        var script_pubkey = new Script(prevtx_script_pubkey_raw);
+        // the templates are checked on the bytes, without parsing the scripts
+        var script_pubkey = getPrevout(input_index).getScriptPubkeyProgram();
+        var witness_data = witnessStack(tx_in);
+
+        if (script_pubkey.isP2tr()) {
+            // as for witness v0, the scriptsig must be empty
+            if (tx_in.getScriptSigProgram().length()!=0) return ScriptError.WITNESS_MALLEATED;
+            return checkTaprootInput(input_index,script_pubkey.witnessProgram());
+        }
 
-        if (script_pubkey.isP2shScriptPubKey()) {
-            // the commands of the redeem script are encoded as data at the bottom of the scriptsig
-            var input_script_sig = new Script(tx_in.getScriptSig());
-            // the hash160 is at the bottom of the commands stack
-            raw_redeem = input_script_sig.getCommands().elementAt(0).value;
+        var script_sig = tx_in.getScriptSigProgram();
+        // the signature hash, computed once for all the signatures of the input
+        if (script_pubkey.isP2sh()) {
+            // the redeem script is the last push of the scriptsig
+            int last = script_sig.size()-1;
+            raw_redeem = (last<0 || !script_sig.isPush(last)) ? null : script_sig.pushData(last);
 
-            var redeem_script = new Script(raw_redeem);
+            var redeem_script = raw_redeem==null ? null : new ScriptProgram(raw_redeem);
 
+            // no redeem script: the interpreter rejects the scriptsig
+            if (redeem_script==null) z = null;
             // handle the p2sh-p2wpkh
-            if (redeem_script.isP2wpkhScriptPubKey()) {
-                z = this.getSigHashBIP143(input_index,redeem_script,null);
-                witness_data = tx_in.getWitnessData();
+            else if (redeem_script.isP2wpkh()) {
+                z = sigHashBIP143(input_index,p2pkhScriptCode(redeem_script.hash160()));
             }
-            else if (redeem_script.isP2wshScriptPubKey()) {
-                witness_data = tx_in.getWitnessData();
-                var command = witness_data.get(witness_data.size()-1);
-                var witness_script = new Script(command);
-
-                z = getSigHashBIP143(input_index,null,witness_script);
+            else if (redeem_script.isP2wsh()) {
+                if (witness_data.isEmpty()) return ScriptError.WITNESS_PROGRAM_WITNESS_EMPTY;
+                z = sigHashBIP143(input_index,scriptCode(witness_data.get(witness_data.size()-1)));
             }
             else z = getSigHash(input_index,raw_redeem);
 
         }
         else {
-            if (script_pubkey.isP2wpkhScriptPubKey()) {
-                z = getSigHashBIP143(input_index,null,null);
-                witness_data = tx_in.getWitnessData();
+            if (script_pubkey.isP2wpkh()) {
+                z = sigHashBIP143(input_index,p2pkhScriptCode(script_pubkey.hash160()));
             }
-            else if (script_pubkey.isP2wshScriptPubKey()) {
-                witness_data = tx_in.getWitnessData();
-                var command = witness_data.get(witness_data.size()-1);
-                var witness_script = new Script(command);
-                z = getSigHashBIP143(input_index,null,witness_script);
+            else if (script_pubkey.isP2wsh()) {
+                if (witness_data.isEmpty()) return ScriptError.WITNESS_PROGRAM_WITNESS_EMPTY;
+                z = sigHashBIP143(input_index,scriptCode(witness_data.get(witness_data.size()-1)));
             }
             else {
                 z = getSigHash(input_index);
-                witness_data = null;
             }
         }
 
-        var script_sig = new Script(tx_in.getScriptSig());
-        var script_combined = new Script(prevtx_script_pubkey_raw);
-        script_combined.addTop(script_sig);
-        return  script_combined.evaluate(z,witness_data);
+        var checker = new InputChecker(input_index,z);
+        // the standard single key inputs don't need the interpreter
+        var result = TemplateVerifier.verify(script_sig,script_pubkey,witness_data,checker);
+        if (result!=null) return result;
+        return ScriptInterpreter.getInstance().verify(script_sig,script_pubkey,witness_data,checker);
+    }
+
+    // the witness items as serialized: the empty ones are kept as {0} in TxIn
+    private static ArrayList<byte[]> witnessStack(TxIn tx_in) {
+        var witness = tx_in.getWitnessData();
+        var items = new ArrayList<byte[]>(witness==null ? 0 : witness.size());
+        if (witness==null) return items;
+        for (byte[] item: witness)
+            items.add(item.length==1 && item[0]==0 ? new byte[0] : item);
+        return items;
+    }
+
+    /*****************************************************************/
+    // signatures on the sighash of the input, locktimes against this tx (BIP65, BIP112)
+    private class InputChecker implements ScriptInterpreter.Checker {
+        private final int input_index;
+        private final byte[] z;
+
+        InputChecker(int input_index, byte[] z) {
+            this.input_index = input_index;
+            this.z = z;
+        }
+
+        @Override
+        public boolean checkSig(byte[] sig, byte[] pubkey, int sig_version) {
+            return ScriptInterpreter.checkSig(z,sig,pubkey);
+        }
+
+        @Override
+        public boolean checkLockTime(long required) {
+            // both block heights or both timestamps
+            if ((locktime<LOCKTIME_THRESHOLD)!=(required<LOCKTIME_THRESHOLD)) return false;
+            if (required>locktime) return false;
+            // a final input disables the locktime of the tx
+            return sequenceOf(input_index)!=0xffffffffL;
+        }
+
+        @Override
+        public boolean checkSequence(long required) {
+            long sequence = sequenceOf(input_index);
+            if (version<2) return false;
+            if ((sequence & SEQUENCE_DISABLE_FLAG)!=0) return false;
+            long mask = SEQUENCE_TYPE_FLAG | SEQUENCE_MASK;
+            sequence &= mask;
+            required &= mask;
+            // both blocks or both time units
+            if ((sequence<SEQUENCE_TYPE_FLAG)!=(required<SEQUENCE_TYPE_FLAG)) return false;
+            return required<=sequence;
+        }
+    }
+
+    private long sequenceOf(int input_index) {
+        var sequence = tx_ins.get(input_index).getSequence();
+        return Kit.readUInt32LE(Kit.reverseBytes(sequence),0);
+    }
+
+    /*****************************************************************/
+    // witness v1: the key path spending, a single schnorr signature by the output key. The
+    // script path isn't supported
+    private ScriptError checkTaprootInput(int input_index, byte[] output_key) {
+        var witness_data = tx_ins.get(input_index).getWitnessData();
+        if (witness_data==null || witness_data.isEmpty()) return ScriptError.WITNESS_PROGRAM_WITNESS_EMPTY;
+
+        int size = witness_data.size();
+        byte[] annex = null;
+        // with at least two elements, the last one is the annex if it starts with 0x50
+        if (size>=2) {
+            var last = witness_data.get(size-1);
+            if (last.length>0 && last[0]==0x50) {
+                annex = last;
+                size--;
+            }
+        }
+        // script path spending
+        if (size!=1) return ScriptError.UNSUPPORTED;
+
+        var sig = witness_data.get(0);
+        int hash_type;
+        if (sig.length==64)
+            hash_type = SIGHASH_DEFAULT;
+        // an explicit hash type can't be SIGHASH_DEFAULT
+        else if (sig.length==65 && sig[64]!=SIGHASH_DEFAULT)
+            hash_type = sig[64] & 0xff;
+        else if (sig.length==65) return ScriptError.SCHNORR_SIG_HASHTYPE;
+        else return ScriptError.SCHNORR_SIG_SIZE;
+
+        if (!isValidTaprootHashType(hash_type)) return ScriptError.SCHNORR_SIG_HASHTYPE;
+        if ((hash_type & 3)==SIGHASH_SINGLE && input_index>=tx_outs.size()) return ScriptError.SCHNORR_SIG_HASHTYPE;
+
+        var z = getSigHashBIP341(input_index,hash_type,annex);
+        var sig_bytes = Arrays.copyOf(sig,64);
+
+        var cache = SignatureCache.getInstance();
+        if (cache.contains(SignatureCache.SCHNORR,z,output_key,sig_bytes)) return ScriptError.OK;
+        if (!SchnorrSignature.verify(output_key,z,SchnorrSignature.parse(sig_bytes))) return ScriptError.SCHNORR_SIG;
+        cache.add(SignatureCache.SCHNORR,z,output_key,sig_bytes);
+        return ScriptError.OK;
     }
 
     public ArrayList<TxIn> getTxIns() {
@@ -162,7 +431,7 @@ public class Tx implements Message {
     }
 
     public void setLocktime(long locktime) {
-        this.locktime = locktime;
+        updateLockTime(locktime);
     }
 
     public boolean isTestnet() {
@@ -174,37 +443,88 @@ public class Tx implements Message {
     }
 
     // Hashing utils for bip143 /////////////////////////////////////////////////////
+    // the bip143 hashes are the double SHA256 of the data, bip341 uses the single
+    // SHA256 of the same data, so the bip143 ones are derived from the bip341 ones
 
     public byte[] hashPrevOuts() {
-        if (this._hash_prevouts == null)  {
+        if (this._hash_prevouts == null)
+            this._hash_prevouts = Kit.sha256(this.shaPrevOuts());
+        return this._hash_prevouts;
+    }
+
+    public byte[] hashSequence() {
+        if (this._hash_sequence ==null)
+            this._hash_sequence = Kit.sha256(this.shaSequences());
+        return this._hash_sequence;
+    }
+
+    public byte[] hashOutputs() {
+        if (this._hash_outputs ==null)
+            this._hash_outputs = Kit.sha256(this.shaOutputs());
+        return this._hash_outputs;
+    }
+
+    // Hashing utils for bip341 /////////////////////////////////////////////////////
+    // computed once per transaction, not per input
+
+    public byte[] shaPrevOuts() {
+        if (this._sha_prevouts == null)  {
             var all_prevouts = new ByteArrayOutputStream();
             var all_sequence = new ByteArrayOutputStream();
 
             for (TxIn tx_in:tx_ins) {
                 try {
                     all_prevouts.write(Kit.reverseBytes(tx_in.getPrevTxId()));
-                    all_prevouts.write(Kit.intToLittleEndianBytes(tx_in.getPrevIndex()),0,4);
+                    Kit.writeInt32LE(all_prevouts,tx_in.getPrevIndex());
                     all_sequence.write(Kit.reverseBytes(tx_in.getSequence()),0,4);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
 
-            this._hash_prevouts = Kit.hash256(all_prevouts.toByteArray());
-            this._hash_sequence = Kit.hash256(all_sequence.toByteArray());
+            this._sha_prevouts = Kit.sha256(all_prevouts.toByteArray());
+            this._sha_sequences = Kit.sha256(all_sequence.toByteArray());
         }
-        return this._hash_prevouts;
+        return this._sha_prevouts;
     }
 
-    public byte[] hashSequence() {
-        if (this._hash_sequence ==null)
-            this.hashPrevOuts();
-        return this._hash_sequence;
+    public byte[] shaSequences() {
+        if (this._sha_sequences ==null)
+            this.shaPrevOuts();
+        return this._sha_sequences;
     }
 
+    // amounts and script pubkeys of the outputs spent by all the inputs
+    public byte[] shaAmounts() {
+        if (this._sha_amounts == null) {
+            var all_amounts = new ByteArrayOutputStream();
+            var all_script_pubkeys = new ByteArrayOutputStream();
 
-    public byte[] hashOutputs() {
-        if (this._hash_outputs ==null) {
+            for (TxOut prevout:prevouts()) {
+                try {
+                    Kit.writeInt64LE(all_amounts,prevout.getAmount());
+                    var script_pubkey = prevout.getScriptPubkeyBytes();
+                    Kit.writeVarint(all_script_pubkeys,script_pubkey.length);
+                    all_script_pubkeys.write(script_pubkey);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            this._sha_amounts = Kit.sha256(all_amounts.toByteArray());
+            this._sha_scriptpubkeys = Kit.sha256(all_script_pubkeys.toByteArray());
+        }
+        return this._sha_amounts;
+    }
+
+    public byte[] shaScriptPubKeys() {
+        if (this._sha_scriptpubkeys == null)
+            this.shaAmounts();
+        return this._sha_scriptpubkeys;
+    }
+
+    public byte[] shaOutputs() {
+        if (this._sha_outputs ==null) {
             var all_outputs = new ByteArrayOutputStream();
             for (TxOut tx_out: tx_outs) {
                 try {
@@ -213,56 +533,139 @@ public class Tx implements Message {
                     e.printStackTrace();
                 }
             }
-            this._hash_outputs = Kit.hash256(all_outputs.toByteArray());
+            this._sha_outputs = Kit.sha256(all_outputs.toByteArray());
         }
-        return this._hash_outputs;
+        return this._sha_outputs;
     }
 
+    public static boolean isValidTaprootHashType(int hash_type) {
+        return hash_type == SIGHASH_DEFAULT || (hash_type >= SIGHASH_ALL && hash_type <= SIGHASH_SINGLE)
+                || (hash_type >= (SIGHASH_ANYONECANPAY|SIGHASH_ALL) && hash_type <= (SIGHASH_ANYONECANPAY|SIGHASH_SINGLE));
+    }
 
     /**********************************************************************************************/
-    // Returns the hash that needs to get signed for index input_index
-    // the BIP143 version solves the quadratic hashing problem
-    public byte[] getSigHashBIP143(int input_index, Script redeem_script, Script witness_script) {
+    // Returns the BIP341 signature message hash of input input_index for a key path spending,
+    // annex is null when the witness has none
+    public byte[] getSigHashBIP341(int input_index, int hash_type, byte[] annex) {
+        if (!isValidTaprootHashType(hash_type))
+            throw new RuntimeException("Invalid taproot hash type: "+hash_type);
+
         var tx_in = this.tx_ins.get(input_index);
+        int output_type = hash_type == SIGHASH_DEFAULT ? SIGHASH_ALL : hash_type & 3;
+        boolean anyone_can_pay = (hash_type & SIGHASH_ANYONECANPAY) != 0;
+
+        if (output_type == SIGHASH_SINGLE && input_index >= tx_outs.size())
+            throw new RuntimeException("SIGHASH_SINGLE without a corresponding output");
 
         var bos = new ByteArrayOutputStream();
 
         try {
-            bos.write(Kit.intToLittleEndianBytes(this.version), 0, 4);
-            bos.write(this.hashPrevOuts());
-            bos.write(this.hashSequence());
-            bos.write(Kit.reverseBytes(tx_in.getPrevTxId()));
-            bos.write(Kit.intToLittleEndianBytes(tx_in.getPrevIndex()),0,4);
-
-            byte[] script_code;
-
-            if (witness_script!=null)  {
-                script_code = witness_script.serialize();
-            }
-            else
-            if (redeem_script!=null) {
-                var h160 = redeem_script.getCommands().elementAt(0).value;
-                script_code = new P2PKHScriptPubKey(h160).serialize();
+            // epoch
+            bos.write(0);
+            bos.write(hash_type);
+            Kit.writeInt32LE(bos,this.version);
+            Kit.writeInt32LE(bos,this.locktime);
+
+            if (!anyone_can_pay) {
+                bos.write(this.shaPrevOuts());
+                bos.write(this.shaAmounts());
+                bos.write(this.shaScriptPubKeys());
+                bos.write(this.shaSequences());
             }
-            else {
-                var prev_script = new Script(tx_in.getPreviousTxScriptPubKey(this.testnet));
-                var h160 = prev_script.getCommands().elementAt(0).value;
-                script_code = new P2PKHScriptPubKey(h160).serialize();
+            if (output_type == SIGHASH_ALL)
+                bos.write(this.shaOutputs());
+
+            // spend type: ext_flag is 0 for key path, bit 0 tells if an annex is present
+            bos.write(annex == null ? 0 : 1);
+
+            if (anyone_can_pay) {
+                bos.write(Kit.reverseBytes(tx_in.getPrevTxId()));
+                Kit.writeInt32LE(bos,tx_in.getPrevIndex());
+                var prevout = getPrevout(input_index);
+                Kit.writeInt64LE(bos,prevout.getAmount());
+                var script_pubkey = prevout.getScriptPubkeyBytes();
+                Kit.writeVarint(bos,script_pubkey.length);
+                bos.write(script_pubkey);
+                bos.write(Kit.reverseBytes(tx_in.getSequence()),0,4);
             }
+            else
+                Kit.writeInt32LE(bos,input_index);
 
-            bos.write(script_code);
-            bos.write(Kit.intToLittleEndianBytes(tx_in.getValue(this.testnet)),0,8);
-            bos.write(Kit.reverseBytes(tx_in.getSequence()),0,4);
-            bos.write(this.hashOutputs());
-            bos.write(Kit.intToLittleEndianBytes(this.locktime),0,4);
-            bos.write(Kit.intToLittleEndianBytes(SIGHASH_ALL),0,4);
+            if (annex != null)
+                bos.write(Kit.sha256(Kit.concatBytes(Kit.encodeVarint(annex.length),annex)));
+
+            if (output_type == SIGHASH_SINGLE)
+                bos.write(Kit.sha256(tx_outs.get(input_index).getSerialized()));
 
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        return Kit.hash256(bos.toByteArray());
+        return Kit.taggedHash("TapSighash",bos.toByteArray());
+    }
+
 
+    /**********************************************************************************************/
+    // Returns the hash that needs to get signed for index input_index
+    // the BIP143 version solves the quadratic hashing problem
+    public byte[] getSigHashBIP143(int input_index, Script redeem_script, Script witness_script) {
+        byte[] script_code;
+
+        if (witness_script!=null)  {
+            script_code = witness_script.serialize();
+        }
+        else
+        if (redeem_script!=null) {
+            var h160 = redeem_script.getCommands().elementAt(0).value;
+            script_code = p2pkhScriptCode(h160);
+        }
+        else {
+            var h160 = getPrevout(input_index).getScriptPubkeyProgram().hash160();
+            script_code = p2pkhScriptCode(h160);
+        }
+        return sigHashBIP143(input_index,script_code);
+    }
+
+    // script_code is serialized, with its length
+    private byte[] sigHashBIP143(int input_index, byte[] script_code) {
+        var tx_in = this.tx_ins.get(input_index);
+        var preimage = ByteBuffer.allocate(4+32+32+32+4+script_code.length+8+4+32+4+4);
+
+        Kit.putInt32LE(preimage,this.version);
+        preimage.put(this.hashPrevOuts());
+        preimage.put(this.hashSequence());
+        preimage.put(Kit.reverseBytes(tx_in.getPrevTxId()));
+        Kit.putInt32LE(preimage,tx_in.getPrevIndex());
+        preimage.put(script_code);
+        Kit.putInt64LE(preimage,getPrevout(input_index).getAmount());
+        preimage.put(Kit.reverseBytes(tx_in.getSequence()),0,4);
+        preimage.put(this.hashOutputs());
+        Kit.putInt32LE(preimage,this.locktime);
+        Kit.putInt32LE(preimage,SIGHASH_ALL);
+
+        return Kit.hash256(preimage.array());
+    }
+
+    // the serialized OP_DUP OP_HASH160 <h160> OP_EQUALVERIFY OP_CHECKSIG, the script code
+    // of the P2WPKH inputs
+    private static byte[] p2pkhScriptCode(byte[] h160) {
+        var script_code = new byte[26];
+        script_code[0] = 25;
+        script_code[1] = 0x76;
+        script_code[2] = (byte) 0xa9;
+        script_code[3] = 20;
+        System.arraycopy(h160,0,script_code,4,20);
+        script_code[24] = (byte) 0x88;
+        script_code[25] = (byte) 0xac;
+        return script_code;
+    }
+
+    // the raw script with its length, as it is, without parsing it again
+    private static byte[] scriptCode(byte[] raw_script) {
+        var script_code = new byte[Kit.varintSize(raw_script.length)+raw_script.length];
+        int pos = Kit.writeVarint(script_code,0,raw_script.length);
+        System.arraycopy(raw_script,0,script_code,pos,raw_script.length);
+        return script_code;
     }
 
         /*****************************************************************/
@@ -280,11 +683,10 @@ public class Tx implements Message {
         var bos = new ByteArrayOutputStream();
 
         try {
-            byte[] buf = Kit.intToLittleEndianBytes(version);
-            bos.write(buf,0,4);
+            Kit.writeInt32LE(bos,version);
 
             int num_ins = tx_ins.size();
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(num_ins)));
+            Kit.writeVarint(bos,num_ins);
             for (int i=0;i < num_ins; i++) {
 
                 var prev_tx = tx_ins.get(i).getPrevTxId();
@@ -298,7 +700,7 @@ public class Tx implements Message {
                     byte[] script_pubkey;
 
                     if (redeem_script==null)
-                        script_pubkey = tx_ins.get(i).getPreviousTxScriptPubKey(this.isTestnet());
+                        script_pubkey = getPrevout(i).getScriptPubkeyBytes();
                     else  // p2psh
                         script_pubkey = redeem_script;
 
@@ -313,15 +715,14 @@ public class Tx implements Message {
             }
 
             int num_outs = tx_outs.size();
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(num_outs)));
+            Kit.writeVarint(bos,num_outs);
             for (TxOut txout: tx_outs)
                 bos.write(txout.getSerialized());
 
-            buf = Kit.intToLittleEndianBytes(this.locktime);
-            bos.write(buf,0,4);
+            Kit.writeInt32LE(bos,this.locktime);
 
             // SIGHASH_ALL hash type
-            bos.write(Kit.intToLittleEndianBytes(SIGHASH_ALL),0,4);
+            Kit.writeInt32LE(bos,SIGHASH_ALL);
 
             x= (Kit.hash256(bos.toByteArray()));
 
@@ -333,129 +734,169 @@ public class Tx implements Message {
     }
 
     /************************************************************************/
-    // read serialized version into the bytestream to create a corresponding tx
-    static public Tx parseLegacy(byte[] serialization, boolean testnet) {
-        var bis = new ByteArrayInputStream(serialization);
-
-        Tx tx = null;
-
-        try {
-            var version = Kit.litteEndianBytesToInt(bis.readNBytes(4)).intValue();
-
-            var num_inputs = Kit.readVarint(bis);
-            ArrayList<TxIn> inputs = new ArrayList<>();
-
-            for (int i=0;i<num_inputs;i++) {
-                inputs.add(TxIn.parse(bis));
-            }
-
-            var num_outputs = Kit.readVarint(bis);
-            ArrayList<TxOut> outputs = new ArrayList<>();
-            for (int i=0;i<num_outputs;i++) {
-                outputs.add(TxOut.parse(bis));
-            }
-
-            var locktime = Kit.litteEndianBytesToInt(bis.readNBytes(4)).longValue();
-
-            tx = new Tx(version,inputs,outputs,locktime, testnet);
+    // strict parsing serializes again every parsed tx and checks that the result matches the
+    // parsed bytes: meant for tests, whose mains turn it on first, off by default
+    // (-Dbitcoffee.strictParse=true to enable)
+    private static volatile boolean strict_parse = Boolean.getBoolean("bitcoffee.strictParse");
 
+    public static void setStrictParse(boolean strict) {
+        strict_parse = strict;
+    }
 
-            var original_ser = Kit.bytesToHexString(serialization);
-            var created_ser = tx.getSerialString();
-
-
-            // sanity check, serialization should match the parsed one
-            if (!created_ser.equals(original_ser)) {
-                System.out.println("wARNING: mismatching serializations (segwit tx?)");
-                System.out.println("Original:"+original_ser);
-                System.out.println(" Created:"+created_ser);
-                //System.exit(-1);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return tx;
+    public static boolean isStrictParse() {
+        return strict_parse;
     }
 
+    /************************************************************************/
+    static public Tx parseLegacy(byte[] serialization, boolean testnet) {
+        if (serialization.length>4 && serialization[4]==0)
+            throw new RuntimeException("Invalid transaction: segwit marker in a legacy tx");
+        return parse(serialization,testnet,strict_parse);
+    }
 
     static public Tx parseSegwit(byte[] serialization, boolean testnet) {
-        var bis = new ByteArrayInputStream(serialization);
-
-        Tx tx = null;
+        if (serialization.length<6 || serialization[4]!=0)
+            throw new RuntimeException("Not valid segwit marker!");
+        return parse(serialization,testnet,strict_parse);
+    }
 
-        try {
-            var version = Kit.litteEndianBytesToInt(bis.readNBytes(4)).intValue();
-            var marker = bis.readNBytes(2);
+    /*****************************************************************/
+    // parses a stream to construct a bitcoffee.Tx instance
+    static public Tx parse(byte[] serialization, boolean testnet) {
+        return parse(serialization,testnet,strict_parse);
+    }
 
-            // segwit marker
-            if (marker[0]!=0 || marker[1]!=1) {
+    // single pass parser working on the array: every count and length is checked against the
+    // bytes left before reading. In strict mode varints must be minimally encoded, a 0 after the
+    // version must be followed by the segwit flag and no bytes may follow the tx. Otherwise these
+    // are accepted (a 0 without flag being a tx with no inputs, extra bytes being ignored) and the
+    // wire bytes are kept for hashing only when they are the serialization of the parsed tx
+    static public Tx parse(byte[] serialization, boolean testnet, boolean strict) {
+        var b = serialization;
+        need(b,0,4+1);
+        var version = Kit.readInt32LE(b,0);
+        int pos = 4;
+        // false once a non canonical encoding is accepted
+        boolean canonical = true;
+
+        boolean segwit = b[pos]==0;
+        if (segwit) {
+            need(b,pos,2);
+            if (b[pos+1]==1)
+                pos += 2;
+            else if (strict)
                 throw new RuntimeException("Not valid segwit marker!");
-            }
-
-
-            var num_inputs = Kit.readVarint(bis);
-            ArrayList<TxIn> inputs = new ArrayList<>();
+            else
+                segwit = false;
+        }
 
-            for (int i=0;i<num_inputs;i++) {
-                inputs.add(TxIn.parse(bis));
-            }
+        // an input is at least 41 bytes, an output 9
+        long num_inputs = readCount(b,pos,41,strict);
+        canonical &= isMinimal(b,pos);
+        pos += Kit.varintLength(b[pos]);
+        var inputs = new ArrayList<TxIn>((int) num_inputs);
+        for (int i=0;i<num_inputs;i++) {
+            need(b,pos,36);
+            var prev_tx = new byte[32];
+            for (int k=0;k<32;k++)
+                prev_tx[k] = b[pos+31-k];
+            long prev_index = Kit.readUInt32LE(b,pos+32);
+            pos += 36;
+            int script_len = (int) readCount(b,pos,1,strict);
+            canonical &= isMinimal(b,pos);
+            pos += Kit.varintLength(b[pos]);
+            var script_sig = Arrays.copyOfRange(b,pos,pos+script_len);
+            pos += script_len;
+            need(b,pos,4);
+            // the sequence is kept big endian
+            var sequence = new byte[] {b[pos+3],b[pos+2],b[pos+1],b[pos]};
+            pos += 4;
+            inputs.add(new TxIn(prev_tx,prev_index,script_sig,sequence));
+        }
 
-            var num_outputs = Kit.readVarint(bis);
-            ArrayList<TxOut> outputs = new ArrayList<>();
-            for (int i=0;i<num_outputs;i++) {
-                outputs.add(TxOut.parse(bis));
-            }
+        long num_outputs = readCount(b,pos,9,strict);
+        canonical &= isMinimal(b,pos);
+        pos += Kit.varintLength(b[pos]);
+        var outputs = new ArrayList<TxOut>((int) num_outputs);
+        for (int i=0;i<num_outputs;i++) {
+            need(b,pos,8);
+            long amount = Kit.readInt64LE(b,pos);
+            pos += 8;
+            int script_len = (int) readCount(b,pos,1,strict);
+            canonical &= isMinimal(b,pos);
+            pos += Kit.varintLength(b[pos]);
+            outputs.add(new TxOut(amount,Arrays.copyOfRange(b,pos,pos+script_len)));
+            pos += script_len;
+        }
 
+        int witness_start = pos;
+        if (segwit) {
             // witness field, containing items for each input
-
             for (TxIn in: inputs) {
-                var num_items = Kit.readVarint(bis);
-
-                ArrayList<byte[]> items = new ArrayList<>();
-
+                long num_items = readCount(b,pos,1,strict);
+                canonical &= isMinimal(b,pos);
+                pos += Kit.varintLength(b[pos]);
+                var items = new ArrayList<byte[]>((int) num_items);
                 for (int i=0;i<num_items;i++) {
-                    var item_len = (int) Kit.readVarint(bis);
+                    int item_len = (int) readCount(b,pos,1,strict);
+                    canonical &= isMinimal(b,pos);
+                    pos += Kit.varintLength(b[pos]);
+                    // an empty item is kept as the single byte 0
                     if (item_len==0)
-                        items.add((new byte[] {0}));
+                        items.add(new byte[] {0});
                     else
-                        items.add(bis.readNBytes(item_len));
+                        items.add(Arrays.copyOfRange(b,pos,pos+item_len));
+                    pos += item_len;
                 }
-
                 in.setWitnessData(items);
             }
+        }
 
-            var locktime = Kit.litteEndianBytesToInt(bis.readNBytes(4)).longValue();
-
-            tx = new Tx(version,inputs,outputs,locktime, testnet,true);
-
-
-            var original_ser = Kit.bytesToHexString(serialization);
-            var created_ser = tx.getSerialString();
-
+        need(b,pos,4);
+        var locktime = Kit.readUInt32LE(b,pos);
+        pos += 4;
+        if (pos!=b.length) {
+            if (strict)
+                throw new RuntimeException("Invalid transaction: "+(b.length-pos)+" bytes after the locktime");
+            canonical = false;
+        }
 
+        var tx = new Tx(version,inputs,outputs,locktime,testnet,segwit);
+        if (strict) {
             // sanity check, serialization should match the parsed one
-            if (!created_ser.equals(original_ser)) {
-                System.out.println("wARNING: mismatching serializations (segwit tx?)");
-                System.out.println("Original:"+original_ser);
-                System.out.println(" Created:"+created_ser);
-                //System.exit(-1);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            var created = tx.serialize();
+            if (!Arrays.equals(created,serialization))
+                throw new RuntimeException("Mismatching serializations\nOriginal:"+Kit.bytesToHexString(serialization)
+                        +"\n Created:"+Kit.bytesToHexString(created));
         }
-
+        if (canonical)
+            tx.setRaw(serialization,witness_start);
         return tx;
     }
 
-    /*****************************************************************/
-    // parses a stream to construct a bitcoffee.Tx instance
-    static public Tx parse(byte[] serialization, boolean testnet) {
+    // checks that len bytes are available at pos
+    private static void need(byte[] b, int pos, int len) {
+        if (pos+len>b.length)
+            throw new RuntimeException("Invalid transaction: truncated at byte "+pos);
+    }
 
-        if (serialization[4]==0)
-            return parseSegwit(serialization,testnet);
+    // varint at pos, minimally encoded when strict, counting items of at least min_size bytes
+    // that must fit in the rest of b
+    private static long readCount(byte[] b, int pos, int min_size, boolean strict) {
+        need(b,pos,1);
+        int len = Kit.varintLength(b[pos]);
+        need(b,pos,len);
+        long n = Kit.readVarint(b,pos);
+        if (strict && !isMinimal(b,pos))
+            throw new RuntimeException("Invalid transaction: non canonical varint at byte "+pos);
+        if (n<0 || n>(b.length-pos-len)/min_size)
+            throw new RuntimeException("Invalid transaction: count "+n+" exceeds the data at byte "+pos);
+        return n;
+    }
 
-        return parseLegacy(serialization,testnet);
+    // true if the varint at pos has no shorter encoding
+    private static boolean isMinimal(byte[] b, int pos) {
+        return Kit.varintLength(b[pos])==Kit.varintSize(Kit.readVarint(b,pos));
     }
 
     /*****************************************************************/
@@ -464,84 +905,84 @@ public class Tx implements Message {
     }
 
     /*****************************************************************/
-    private byte[] serializeSegwit() {
-        var bos = new ByteArrayOutputStream();
-
-        try {
-            byte[] buf = Kit.intToLittleEndianBytes(version);
-            bos.write(buf,0,4);
-
-            // segwit marker (2 bytes)
-            bos.write(0);
-            bos.write(1);
-
-            int num_ins = tx_ins.size();
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(num_ins)));
-            for (TxIn txin: tx_ins)
-                bos.write(txin.getSerialized());
-
-            int num_outs = tx_outs.size();
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(num_outs)));
-            for (TxOut txout: tx_outs)
-                bos.write(txout.getSerialized());
-
-            // witness data
-            for (TxIn txin: tx_ins) {
-                var witness_data = txin.getWitnessData();
-
-                bos.write(Kit.encodeVarint(witness_data.size()));
-                for (byte[] item: witness_data) {
-                    if (item.length==1 && item[0]==0)
-                        bos.write(item);
-                    else {
-                        bos.write(Kit.encodeVarint(item.length));
-                        bos.write(item);
-                    }
-                }
-            }
-
-            buf = Kit.intToLittleEndianBytes(this.locktime);
-            bos.write(buf,0,4);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return bos.toByteArray();
+    // size of the serialization without marker, flag and witnesses, as used for the txid
+    public int strippedSize() {
+        if (_stripped_size < 0)
+            _stripped_size = computeStrippedSize();
+        return _stripped_size;
+    }
 
+    private int computeStrippedSize() {
+        int size = 4 + Kit.varintSize(tx_ins.size()) + Kit.varintSize(tx_outs.size()) + 4;
+        for (TxIn txin: tx_ins)
+            size += txin.serializedSize();
+        for (TxOut txout: tx_outs)
+            size += txout.serializedSize();
+        return size;
     }
-    /*****************************************************************/
-    private byte[] serializeLegacy() {
-        var bos = new ByteArrayOutputStream();
 
-        try {
-            byte[] buf = Kit.intToLittleEndianBytes(version);
-            bos.write(buf,0,4);
+    // size of serialize(): with marker, flag and witnesses for a segwit tx
+    public int serializedSize() {
+        if (!this.segwit) return strippedSize();
+        int size = strippedSize() + 2;
+        for (TxIn txin: tx_ins)
+            size += txin.witnessSize();
+        return size;
+    }
 
-            int num_ins = tx_ins.size();
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(num_ins)));
-            for (TxIn txin: tx_ins)
-                bos.write(txin.getSerialized());
+    /*****************************************************************/
+    // writes serialize() at the position of buf, which must have serializedSize() bytes left
+    public void writeTo(ByteBuffer buf) {
+        if (this.segwit) writeSegwitTo(buf);
+        else writeLegacyTo(buf);
+    }
 
-            int num_outs = tx_outs.size();
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(num_outs)));
-            for (TxOut txout: tx_outs)
-                bos.write(txout.getSerialized());
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        var buf = ByteBuffer.wrap(this.serialize());
+        while (buf.hasRemaining())
+            channel.write(buf);
+    }
 
-            buf = Kit.intToLittleEndianBytes(this.locktime);
-            bos.write(buf,0,4);
+    private void writeSegwitTo(ByteBuffer buf) {
+        Kit.putInt32LE(buf,version);
+        // segwit marker (2 bytes)
+        buf.put((byte) 0);
+        buf.put((byte) 1);
+        writeInsOutsTo(buf);
+        // witness data
+        for (TxIn txin: tx_ins)
+            txin.writeWitnessTo(buf);
+        Kit.putInt32LE(buf,this.locktime);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return bos.toByteArray();
+    // legacy serialization, also for the segwit txs
+    public void writeLegacyTo(ByteBuffer buf) {
+        Kit.putInt32LE(buf,version);
+        writeInsOutsTo(buf);
+        Kit.putInt32LE(buf,this.locktime);
     }
 
+    private void writeInsOutsTo(ByteBuffer buf) {
+        Kit.putVarint(buf,tx_ins.size());
+        for (TxIn txin: tx_ins)
+            txin.writeTo(buf);
+        Kit.putVarint(buf,tx_outs.size());
+        for (TxOut txout: tx_outs)
+            txout.writeTo(buf);
+    }
 
+    private byte[] serializeLegacy() {
+        var serial = new byte[strippedSize()];
+        writeLegacyTo(ByteBuffer.wrap(serial));
+        return serial;
+    }
 
     /*****************************************************************/
     private byte[] serialize() {
-        if (this.segwit) return serializeSegwit();
-        return serializeLegacy();
+        if (hasValidRaw()) return _raw.clone();
+        var serial = new byte[serializedSize()];
+        writeTo(ByteBuffer.wrap(serial));
+        return serial;
     }
 
     /*****************************************************************/
@@ -564,12 +1005,18 @@ public class Tx implements Message {
     }
 
     /*****************************************************************/
+    public long calculateFee(UtxoView view) {
+        if (!loadPrevouts(view))
+            throw new RuntimeException("Missing outputs spent by tx "+getId());
+        return calculateFee();
+    }
+
     public long calculateFee() {
         // in satoshis
         long total_in = 0;
         long total_out = 0;
-        for (TxIn txin: tx_ins) {
-            total_in+= txin.getValue(this.testnet);
+        for (TxOut prevout: prevouts()) {
+            total_in+= prevout.getAmount();
         }
 
         for (TxOut txout: tx_outs) {
@@ -584,9 +1031,7 @@ public class Tx implements Message {
         if (this.getTxIns().size()!=1) return false;
         var single_in = this.getTxIns().get(0);
         if (!(new BigInteger(single_in.getPrevTxId()).equals(BigInteger.ZERO))) return false;
-        var prev_target = Kit.hexStringToByteArray("ffffffff");
-        var prev = Arrays.copyOfRange(Kit.intToLittleEndianBytes(single_in.getPrevIndex()),0,4);
-        return Arrays.equals(prev, prev_target);
+        return single_in.getPrevIndex()==0xffffffffL;
     }
 
     public int getCoinbaseHeight() {
@@ -19,6 +19,11 @@ public class TxFetcher {
             return "https://blockstream.info/api";
     }
 
+    // makes a transaction known without fetching it, e.g. to validate offline
+    public static void add(Tx tx) {
+        cache.put(tx.getId(),tx);
+    }
+
     public static Tx fetch(String tx_id) {
         return fetch(tx_id,false,false);
     }
@@ -53,9 +58,6 @@ public class TxFetcher {
                 computed_id = tx.getId();
 
 
-                var serial = tx.getSerialString();
-                //System.out.println("DEBUG: fetched raw tx: " + serial);
-
                 // TODO: should be a warning when computation is confirmed correct
                 if (!computed_id.equals(tx_id)) {
                     System.out.println("FATAL");
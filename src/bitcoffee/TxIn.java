@@ -1,10 +1,11 @@
 package bitcoffee;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.Collections;
+import java.util.List;
 
 public class TxIn {
     private final byte[] prev_tx_id;
@@ -13,6 +14,10 @@ public class TxIn {
     private final byte[] sequence;
 
     private ArrayList<byte[]> witness_data;
+    // times the witness was set, for the witness dependent values memoized by Tx
+    private int witness_updates = 0;
+    private byte[] _serialized = null;
+    private ScriptProgram _script_sig_program = null;
 
     public TxIn(byte[] prev_tx_id, long prev_index, byte[] script_sig, byte[] sequence) {
         this.prev_tx_id = prev_tx_id;
@@ -28,12 +33,19 @@ public class TxIn {
         this.sequence = Kit.hexStringToByteArray("ffffffff");
     }
 
-    public void setWitnessData(ArrayList<byte[]> witness_data) {
-        this.witness_data = witness_data;
+    // the list is copied: the witness changes only through this setter, which lets Tx know
+    public void setWitnessData(List<byte[]> witness_data) {
+        this.witness_data = witness_data==null ? null : new ArrayList<>(witness_data);
+        this.witness_updates++;
     }
 
-    public ArrayList<byte[]> getWitnessData() {
-        return witness_data;
+    int getWitnessUpdates() {
+        return witness_updates;
+    }
+
+    // read only, see setWitnessData()
+    public List<byte[]> getWitnessData() {
+        return witness_data==null ? null : Collections.unmodifiableList(witness_data);
     }
 
     @Override
@@ -51,16 +63,12 @@ public class TxIn {
         TxIn tx_input = null;
         try {
             var prev_tx = Kit.reverseBytes(bis.readNBytes(32));
-            String prev_tx_hex = Kit.bytesToHexString(prev_tx);
-            //System.out.println("bitcoffee.TxIn parsing: found previous_tx "+prev_tx_hex);
 
-            var prev_index = Kit.litteEndianBytesToInt(bis.readNBytes(4)).longValue();
+            var prev_index = Kit.readUInt32LE(bis);
             //System.out.println("bitcoffee.TxIn parsing: found prev_index "+prev_index);
 
             var script_sig_len = (int) Kit.readVarint(bis);
             var script_sig = bis.readNBytes(script_sig_len);
-            var script_sig_hex = Kit.bytesToHexString(script_sig);
-            //System.out.println("bitcoffee.TxIn parsing: found ScriptSig "+script_sig_hex);
             var sequence = Kit.reverseBytes(bis.readNBytes(4));
             tx_input = new TxIn(prev_tx,prev_index,script_sig,sequence);
 
@@ -72,36 +80,62 @@ public class TxIn {
     }
 
     private byte[] serialize() {
-        var bos = new ByteArrayOutputStream();
-
-        try {
-            //bitcoffee.Script script = bitcoffee.Script.parse(this.script_sig);
-
-            // when serializing, convert to little endian
-            // 32 bytes hash of the previous tx, in little endian
-            bos.write(Kit.reverseBytes(prev_tx_id));
+        var serial = new byte[serializedSize()];
+        writeTo(ByteBuffer.wrap(serial));
+        return serial;
+    }
 
-            byte[] buf = Kit.intToLittleEndianBytes(prev_index);
-            // we need only the first 4 bytes of buf
-            bos.write(buf,0,4);
+    public byte[] getSerialized() {
+        // the fields are final, so the serialization is done once
+        if (_serialized == null)
+            _serialized = serialize();
+        return _serialized;
+    }
 
-            var len = this.script_sig.length;
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(len)));
-            bos.write(this.script_sig);
-            buf = Kit.reverseBytes(this.sequence);
-            // we need only the first 4 bytes of buf
-            bos.write(buf,0,4);
+    public int serializedSize() {
+        return 32 + 4 + Kit.varintSize(script_sig.length) + script_sig.length + 4;
+    }
 
+    // writes the serialization at the position of buf
+    public void writeTo(ByteBuffer buf) {
+        // 32 bytes hash of the previous tx, in little endian
+        for (int i=prev_tx_id.length-1;i>=0;i--)
+            buf.put(prev_tx_id[i]);
+        Kit.putInt32LE(buf,prev_index);
+        Kit.putVarint(buf,script_sig.length);
+        buf.put(script_sig);
+        // the sequence is kept big endian
+        for (int i=3;i>=0;i--)
+            buf.put(sequence[i]);
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    /***************************************************************************/
+    // size of the witness field in a segwit serialization: the number of items and the
+    // items with their length, an item {0} standing for the empty one
+    public int witnessSize() {
+        if (witness_data == null) return 1;
+        int size = Kit.varintSize(witness_data.size());
+        for (byte[] item: witness_data) {
+            if (item.length==1 && item[0]==0) size += 1;
+            else size += Kit.varintSize(item.length) + item.length;
         }
-
-        return bos.toByteArray();
+        return size;
     }
 
-    public byte[] getSerialized() {
-        return this.serialize();
+    public void writeWitnessTo(ByteBuffer buf) {
+        if (witness_data == null) {
+            buf.put((byte) 0);
+            return;
+        }
+        Kit.putVarint(buf,witness_data.size());
+        for (byte[] item: witness_data) {
+            if (item.length==1 && item[0]==0)
+                buf.put((byte) 0);
+            else {
+                Kit.putVarint(buf,item.length);
+                buf.put(item);
+            }
+        }
     }
 
     public Tx fetchTx(boolean testnet) {
@@ -122,6 +156,13 @@ public class TxIn {
         return script_sig;
     }
 
+    // flat form of the script sig, indexed on first use
+    public ScriptProgram getScriptSigProgram() {
+        if (_script_sig_program == null)
+            _script_sig_program = new ScriptProgram(script_sig);
+        return _script_sig_program;
+    }
+
     public byte[] getPrevTxId() {
         return prev_tx_id;
     }
@@ -1,20 +1,20 @@
 package bitcoffee;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Objects;
+import java.nio.ByteBuffer;
 
 public class TxOut {
     // TODO check in general for final private in other places
     final private long amount;
     final private byte[] script_pubkey;
-    final private byte[] serialized;
+    // serialized on first use, writeTo() doesn't need it
+    private byte[] _serialized = null;
+    private ScriptProgram _script_pubkey_program = null;
 
     public TxOut(long amount, byte[] script_pubkey) {
         this.amount = amount;
         this.script_pubkey = script_pubkey;
-        this.serialized = serialize();
     }
 
     @Override
@@ -30,7 +30,7 @@ public class TxOut {
         TxOut txout = null;
 
         try {
-            var amount = Kit.litteEndianBytesToInt(bis.readNBytes(8)).longValue();
+            var amount = Kit.readInt64LE(bis);
             var script_len = (int) Kit.readVarint(bis);
             var script_pub_key = bis.readNBytes(script_len);
             txout = new TxOut(amount,script_pub_key);
@@ -42,25 +42,26 @@ public class TxOut {
     }
 
     private byte[] serialize() {
+        var serial = new byte[serializedSize()];
+        writeTo(ByteBuffer.wrap(serial));
+        return serial;
+    }
 
-        var bos = new ByteArrayOutputStream();
-        try {
-            byte[] buf = Kit.intToLittleEndianBytes(amount);
-            // buf is 32 bytes little endian, we need only the first 8
-            bos.write(buf,0,8);
-            var len = script_pubkey.length;
-            bos.write(Objects.requireNonNull(Kit.encodeVarint(len)));
-            bos.write(this.script_pubkey);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public int serializedSize() {
+        return 8 + Kit.varintSize(script_pubkey.length) + script_pubkey.length;
+    }
 
-        return bos.toByteArray();
+    // writes the serialization at the position of buf
+    public void writeTo(ByteBuffer buf) {
+        Kit.putInt64LE(buf,amount);
+        Kit.putVarint(buf,script_pubkey.length);
+        buf.put(script_pubkey);
     }
 
     public byte[] getSerialized() {
-        return serialized;
+        if (_serialized == null)
+            _serialized = serialize();
+        return _serialized;
     }
 
     public long getAmount() {
@@ -71,4 +72,11 @@ public class TxOut {
         return script_pubkey;
     }
 
+    // flat form of the script pubkey, indexed on first use
+    public ScriptProgram getScriptPubkeyProgram() {
+        if (_script_pubkey_program == null)
+            _script_pubkey_program = new ScriptProgram(script_pubkey);
+        return _script_pubkey_program;
+    }
+
 }
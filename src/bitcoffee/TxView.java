@@ -0,0 +1,351 @@
+package bitcoffee;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+
+// Read only view of a serialized transaction inside a ByteBuffer (heap, direct or mapped).
+// Parsing only walks the bytes and records where every input, output and witness starts:
+// the fields are decoded when asked, and the scripts and witness items are returned as
+// slices of the original buffer. Byte arrays are created only by the *Bytes() getters,
+// hash() and toTx(). The buffer must not change while the view is in use
+public final class TxView {
+    private final ByteBuffer buf;
+    // absolute positions of the tx in buf
+    private final int start, end;
+    private final boolean segwit;
+    private final int num_inputs, num_outputs;
+    // start of every input, then of every output, then (segwit only) of every input
+    // witness, then the start of the locktime
+    private final int[] offsets;
+
+    private TxView(ByteBuffer buf, int start, int end, boolean segwit, int num_inputs, int num_outputs, int[] offsets) {
+        this.buf = buf;
+        this.start = start;
+        this.end = end;
+        this.segwit = segwit;
+        this.num_inputs = num_inputs;
+        this.num_outputs = num_outputs;
+        this.offsets = offsets;
+    }
+
+    /***************************************************************************/
+    // parses the tx at the position of buf, moving the position after the tx
+    public static TxView parse(ByteBuffer buf) {
+        int start = buf.position();
+        int limit = buf.limit();
+        int pos = start + 4;
+        checkAvailable(pos + 1, limit);
+
+        boolean segwit = buf.get(pos) == 0;
+        if (segwit) {
+            checkAvailable(pos + 2, limit);
+            if (buf.get(pos + 1) != 1)
+                throw new RuntimeException("Not valid segwit marker!");
+            pos += 2;
+        }
+
+        long n_in = readVarint(buf, pos, limit);
+        pos += varintSize(buf.get(pos));
+        // an input takes at least 41 bytes, an output 9: bounds the counts before allocating
+        if (n_in > (limit - pos) / 41)
+            throw new RuntimeException("Invalid input count: " + n_in);
+        int num_inputs = (int) n_in;
+
+        var offsets = new int[num_inputs * (segwit ? 2 : 1) + 1 + 16];
+        int k = 0;
+        for (int i = 0; i < num_inputs; i++) {
+            offsets = grow(offsets, k);
+            offsets[k++] = pos;
+            pos += 36;
+            long script_len = readVarint(buf, pos, limit);
+            pos += varintSize(buf.get(pos));
+            pos = skip(pos, script_len + 4, limit);
+        }
+
+        long n_out = readVarint(buf, pos, limit);
+        pos += varintSize(buf.get(pos));
+        if (n_out > (limit - pos) / 9)
+            throw new RuntimeException("Invalid output count: " + n_out);
+        int num_outputs = (int) n_out;
+        for (int i = 0; i < num_outputs; i++) {
+            offsets = grow(offsets, k);
+            offsets[k++] = pos;
+            pos = skip(pos, 8, limit);
+            long script_len = readVarint(buf, pos, limit);
+            pos += varintSize(buf.get(pos));
+            pos = skip(pos, script_len, limit);
+        }
+
+        if (segwit) {
+            for (int i = 0; i < num_inputs; i++) {
+                offsets = grow(offsets, k);
+                offsets[k++] = pos;
+                long items = readVarint(buf, pos, limit);
+                pos += varintSize(buf.get(pos));
+                for (long j = 0; j < items; j++) {
+                    long item_len = readVarint(buf, pos, limit);
+                    pos += varintSize(buf.get(pos));
+                    pos = skip(pos, item_len, limit);
+                }
+            }
+        }
+
+        offsets = grow(offsets, k);
+        offsets[k] = pos;
+        pos = skip(pos, 4, limit);
+        buf.position(pos);
+        return new TxView(buf, start, pos, segwit, num_inputs, num_outputs, offsets);
+    }
+
+    // the transactions of a serialized block, the buffer position being after the header
+    public static ArrayList<TxView> parseAll(ByteBuffer buf) {
+        int pos = buf.position();
+        long count = readVarint(buf, pos, buf.limit());
+        if (count > (buf.limit() - pos) / 60)
+            throw new RuntimeException("Invalid tx count: " + count);
+        buf.position(pos + varintSize(buf.get(pos)));
+        var txs = new ArrayList<TxView>((int) count);
+        for (long i = 0; i < count; i++)
+            txs.add(parse(buf));
+        return txs;
+    }
+
+    private static int[] grow(int[] offsets, int k) {
+        if (k < offsets.length) return offsets;
+        var larger = new int[offsets.length * 2];
+        System.arraycopy(offsets, 0, larger, 0, offsets.length);
+        return larger;
+    }
+
+    private static int skip(int pos, long len, int limit) {
+        if (len < 0 || len > limit - pos)
+            throw new RuntimeException("Truncated transaction");
+        return pos + (int) len;
+    }
+
+    private static void checkAvailable(int pos, int limit) {
+        if (pos > limit)
+            throw new RuntimeException("Truncated transaction");
+    }
+
+    /***************************************************************************/
+    // CompactSize at pos, checked against the end of the data. The view hashes the bytes as they
+    // are, so like a strict Tx.parse it takes only minimal encodings
+    private static long readVarint(ByteBuffer buf, int pos, int limit) {
+        checkAvailable(pos + 1, limit);
+        checkAvailable(pos + varintSize(buf.get(pos)), limit);
+        long n = Kit.readVarint(buf, pos);
+        if (varintSize(buf.get(pos)) != Kit.varintSize(n))
+            throw new RuntimeException("Invalid transaction: non canonical varint at byte " + pos);
+        return n;
+    }
+
+    private static int varintSize(byte first) {
+        return Kit.varintLength(first);
+    }
+
+    // n <= 8 little endian bytes at pos
+    private static long readLE(ByteBuffer buf, int pos, int n) {
+        long v = 0;
+        for (int i = n - 1; i >= 0; i--)
+            v = (v << 8) | (buf.get(pos + i) & 0xff);
+        return v;
+    }
+
+    private ByteBuffer slice(int from, int to) {
+        var dup = buf.duplicate();
+        dup.limit(to).position(from);
+        return dup.slice();
+    }
+
+    private static byte[] bytes(ByteBuffer b) {
+        var out = new byte[b.remaining()];
+        b.duplicate().get(out);
+        return out;
+    }
+
+    // start and end of the varint prefixed field at pos
+    private int fieldStart(int pos) {
+        return pos + varintSize(buf.get(pos));
+    }
+
+    private int fieldEnd(int pos) {
+        return fieldStart(pos) + (int) readVarint(buf, pos, end);
+    }
+
+    /***************************************************************************/
+    public int getVersion() {
+        return (int) readLE(buf, start, 4);
+    }
+
+    public boolean isSegwit() {
+        return segwit;
+    }
+
+    public int getInputCount() {
+        return num_inputs;
+    }
+
+    public int getOutputCount() {
+        return num_outputs;
+    }
+
+    public long getLocktime() {
+        return readLE(buf, offsets[locktimeIndex()], 4);
+    }
+
+    private int locktimeIndex() {
+        return num_inputs + num_outputs + (segwit ? num_inputs : 0);
+    }
+
+    // the serialized tx
+    public ByteBuffer getSerialization() {
+        return slice(start, end);
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    // size without the marker, the flag and the witnesses
+    public int strippedSize() {
+        if (!segwit) return size();
+        return 4 + (offsets[num_inputs + num_outputs] - (start + 6)) + 4;
+    }
+
+    /***************************************************************************/
+    // hash of the prevout tx in internal byte order, as in the serialization
+    public ByteBuffer getPrevTxHash(int input) {
+        int pos = inputOffset(input);
+        return slice(pos, pos + 32);
+    }
+
+    // the previous tx id in display order, as TxIn.getPrevTxId()
+    public byte[] getPrevTxIdBytes(int input) {
+        return Kit.reverseBytes(bytes(getPrevTxHash(input)));
+    }
+
+    public long getPrevIndex(int input) {
+        return readLE(buf, inputOffset(input) + 32, 4);
+    }
+
+    public ByteBuffer getScriptSig(int input) {
+        int pos = inputOffset(input) + 36;
+        return slice(fieldStart(pos), fieldEnd(pos));
+    }
+
+    public byte[] getScriptSigBytes(int input) {
+        return bytes(getScriptSig(input));
+    }
+
+    public long getSequence(int input) {
+        return readLE(buf, fieldEnd(inputOffset(input) + 36), 4);
+    }
+
+    public int getWitnessCount(int input) {
+        if (!segwit) return 0;
+        return (int) readVarint(buf, witnessOffset(input), end);
+    }
+
+    public ByteBuffer getWitnessItem(int input, int item) {
+        if (item < 0 || item >= getWitnessCount(input))
+            throw new RuntimeException("No witness item " + item + " for input " + input);
+        int pos = fieldStart(witnessOffset(input));
+        for (int j = 0; j < item; j++)
+            pos = fieldEnd(pos);
+        return slice(fieldStart(pos), fieldEnd(pos));
+    }
+
+    private int inputOffset(int input) {
+        if (input < 0 || input >= num_inputs)
+            throw new RuntimeException("No input " + input);
+        return offsets[input];
+    }
+
+    private int witnessOffset(int input) {
+        inputOffset(input);
+        return offsets[num_inputs + num_outputs + input];
+    }
+
+    /***************************************************************************/
+    public long getAmount(int output) {
+        return readLE(buf, outputOffset(output), 8);
+    }
+
+    public ByteBuffer getScriptPubKey(int output) {
+        int pos = outputOffset(output) + 8;
+        return slice(fieldStart(pos), fieldEnd(pos));
+    }
+
+    public byte[] getScriptPubKeyBytes(int output) {
+        return bytes(getScriptPubKey(output));
+    }
+
+    private int outputOffset(int output) {
+        if (output < 0 || output >= num_outputs)
+            throw new RuntimeException("No output " + output);
+        return offsets[num_inputs + output];
+    }
+
+    /***************************************************************************/
+    // txid in internal byte order, as Tx.hash(): the witnesses are skipped by hashing
+    // the version, the inputs and outputs, and the locktime
+    public byte[] hash() {
+        if (!segwit) {
+            var out = new byte[Sha256.HASH_LEN];
+            Sha256.doubleHash(getSerialization(), out, 0);
+            return out;
+        }
+        var d = Sha256.digest();
+        update(d, start, start + 4);
+        update(d, start + 6, offsets[num_inputs + num_outputs]);
+        int locktime = offsets[locktimeIndex()];
+        update(d, locktime, locktime + 4);
+        return Sha256.hash(d.digest());
+    }
+
+    public String getId() {
+        return Kit.bytesToHexString(Kit.reverseBytes(hash()));
+    }
+
+    private void update(MessageDigest d, int from, int to) {
+        if (buf.hasArray())
+            d.update(buf.array(), buf.arrayOffset() + from, to - from);
+        else
+            d.update(slice(from, to));
+    }
+
+    /***************************************************************************/
+    // the equivalent Tx, copying all the fields
+    public Tx toTx(boolean testnet) {
+        var inputs = new ArrayList<TxIn>(num_inputs);
+        for (int i = 0; i < num_inputs; i++) {
+            var sequence = new byte[4];
+            long seq = getSequence(i);
+            for (int b = 0; b < 4; b++)
+                sequence[b] = (byte) (seq >>> (24 - 8 * b));
+            var tx_in = new TxIn(getPrevTxIdBytes(i), getPrevIndex(i), getScriptSigBytes(i), sequence);
+            if (segwit) {
+                int count = getWitnessCount(i);
+                var items = new ArrayList<byte[]>(count);
+                int pos = fieldStart(witnessOffset(i));
+                for (int j = 0; j < count; j++) {
+                    var item = bytes(slice(fieldStart(pos), fieldEnd(pos)));
+                    // as Tx.parseSegwit, an empty item is kept as the single byte 0
+                    items.add(item.length == 0 ? new byte[]{0} : item);
+                    pos = fieldEnd(pos);
+                }
+                tx_in.setWitnessData(items);
+            }
+            inputs.add(tx_in);
+        }
+        var outputs = new ArrayList<TxOut>(num_outputs);
+        for (int i = 0; i < num_outputs; i++)
+            outputs.add(new TxOut(getAmount(i), getScriptPubKeyBytes(i)));
+
+        if (segwit)
+            return new Tx(getVersion(), inputs, outputs, getLocktime(), testnet, true);
+        return new Tx(getVersion(), inputs, outputs, getLocktime(), testnet);
+    }
+}
@@ -0,0 +1,857 @@
+package bitcoffee;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Persistent set of the unspent outputs, keyed by outpoint, updated block by block: the
+// local source of the spent outputs for the validation, in place of TxFetcher.
+// utxo.<gen>.log is the append-only value log, a record for every output added to the set:
+// the outpoint (36 bytes), the amount (8 bytes little endian) and the script pubkey
+// (varint length prefixed).
+// utxo.<gen>.idx is the index, an open addressing hash table with linear probing, memory
+// mapped in segments of 1 GB: every slot holds the SipHash of the outpoint (0 for an empty
+// slot) and the offset (40 bits) and length (24 bits) of its record. Only the mapped index
+// and the outputs of one block are in memory, whatever the size of the set: for the ~180M
+// outputs of mainnet the index takes 4 GB with 2^28 slots, the log about 12 GB.
+// utxo.undo holds a record for every block applied: the outputs it created and the records
+// of the outputs it spent, so that the block can be undone.
+// utxo.journal holds the slots of the index changed by the block being applied or undone,
+// with their new contents.
+// utxo.head holds the state, written in turn into two checksummed slots: a block is
+// written to the log and to the undo file, the slots it changes are computed and written
+// to the journal, then the header is marked as applying it, then the index is changed and
+// the header marked clean. The mapped index pages reach the disk in any order, so an
+// interrupted block is completed when the store is opened again by writing all the slots
+// of the journal again.
+// Spent records stay in the log until compact() copies the live ones into a new generation
+public class UtxoStore implements UtxoView, Closeable {
+    private static final int MAGIC = 0x4f585455;
+    private static final int VERSION = 1;
+    private static final int HEADER_LEN = 148;
+    private static final int HEADER_SLOT = 512;
+
+    private static final int STATE_CLEAN = 0;
+    private static final int STATE_APPLYING = 1;
+    private static final int STATE_UNDOING = 2;
+
+    private static final int SLOT_LEN = 16;
+    private static final int SEGMENT_SLOTS = 1 << 26;
+    private static final long MIN_CAPACITY = 16;
+    private static final long OFFSET_MASK = (1L << 40) - 1;
+    private static final int MAX_RECORD_LEN = (1 << 24) - 1;
+    // outpoint and amount, before the script length
+    private static final int RECORD_FIXED_LEN = 44;
+    // the log is compacted when more than half of it is spent records, from this size on
+    private static final long MIN_COMPACT_SIZE = 64L << 20;
+    private static final int COPY_CHUNK = 1 << 20;
+    private static final int MAX_SCRIPT_SIZE = 10000;
+
+    private final Path dir;
+    private final FileChannel head;
+    private final FileChannel undo;
+    private final FileChannel journal;
+    private FileChannel log;
+    private SlotTable table;
+
+    // header
+    private long seq = 0;
+    private int state = STATE_CLEAN;
+    private int height = -1;
+    private byte[] tip_hash = new byte[32];
+    private long count = 0;
+    private long capacity;
+    private int log_gen = 0, idx_gen = 0;
+    private long log_end = 0, undo_end = 0;
+    // undo record of the tip, -1 if empty
+    private long tip_undo = -1;
+    // undo record of the block being applied or undone, and the log end before an undo
+    private long pending = -1, pending_log = 0;
+    private long live_bytes = 0;
+    private long k0, k1;
+
+    public UtxoStore(Path dir) {
+        this(dir, MIN_CAPACITY);
+    }
+
+    // slots is the initial size of the index of a new store (rounded to a power of 2): the
+    // table doubles when 3/4 full, so e.g. 1L << 28 avoids rebuilding it during a full sync
+    public UtxoStore(Path dir, long slots) {
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+            head = open(dir.resolve("utxo.head"));
+            undo = open(dir.resolve("utxo.undo"));
+            journal = open(dir.resolve("utxo.journal"));
+            if (!readHeader()) {
+                if (head.size() > 0)
+                    throw new RuntimeException("Corrupted UTXO store header in " + dir);
+                var random = new SecureRandom();
+                k0 = random.nextLong();
+                k1 = random.nextLong();
+                capacity = Long.highestOneBit(Math.max(slots, MIN_CAPACITY) - 1) << 1;
+                Files.deleteIfExists(logPath(log_gen));
+                Files.deleteIfExists(idxPath(idx_gen));
+                undo.truncate(0);
+                writeHeader();
+            }
+            deleteStale();
+            log = open(logPath(log_gen));
+            if (log.size() < log_end)
+                throw new RuntimeException("Truncated UTXO log in " + dir);
+            // a block not committed to the header
+            log.truncate(log_end);
+            undo.truncate(undo_end);
+            var idx = open(idxPath(idx_gen));
+            if (idx.size() != 0 && idx.size() != capacity * SLOT_LEN)
+                throw new RuntimeException("Corrupted UTXO index in " + dir);
+            table = new SlotTable(idx, capacity);
+            recover();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open the UTXO store in " + dir, e);
+        }
+    }
+
+    /***************************************************************************/
+    @Override
+    public synchronized TxOut getOutput(byte[] prev_tx_id, long prev_index) {
+        var outpoint = UtxoView.outpoint(prev_tx_id, prev_index);
+        try {
+            long slot = find(outpoint, tagOf(outpoint));
+            if (slot < 0) return null;
+            var record = readRecord(table.value(slot));
+            long amount = Kit.readInt64LE(record, 36);
+            int script_start = RECORD_FIXED_LEN + Kit.varintLength(record[RECORD_FIXED_LEN]);
+            return new TxOut(amount, Arrays.copyOfRange(record, script_start, record.length));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the UTXO store", e);
+        }
+    }
+
+    // number of unspent outputs
+    public synchronized long size() {
+        return count;
+    }
+
+    // height of the last block applied, -1 if none
+    public synchronized int getHeight() {
+        return height;
+    }
+
+    // hash of the last block applied, display order as Block.hash()
+    public synchronized byte[] getTipHash() {
+        return tip_hash.clone();
+    }
+
+    public synchronized long getLogSize() {
+        return log_end;
+    }
+
+    /***************************************************************************/
+    // verifies the transactions of the block with the outputs of the set, and applies the
+    // block only if they are all valid
+    public boolean connectBlock(Block block, List<Tx> txs) {
+        var spent = MemoryUtxoView.prefetch(txs, this);
+        for (Tx tx : txs)
+            if (!tx.isCoinbase() && !tx.verify(spent)) return false;
+        applyBlock(block, txs);
+        return true;
+    }
+
+    // spends the outputs the transactions of the block take, and adds the ones they create.
+    // The scripts aren't run. Nothing changes if the block doesn't extend the tip or spends
+    // an output not in the set
+    public synchronized void applyBlock(Block block, List<Tx> txs) {
+        if (height >= 0 && !Arrays.equals(block.getPrev_block(), tip_hash))
+            throw new RuntimeException("Block " + block.getHashHexString() + " doesn't extend the tip "
+                    + Kit.bytesToHexString(tip_hash));
+        try {
+            // outputs created and not spent by the block, and the records it spends
+            var created = new LinkedHashMap<ByteBuffer, TxOut>();
+            var spent_keys = new HashSet<ByteBuffer>();
+            var spent = new ArrayList<byte[]>();
+            for (Tx tx : txs) {
+                if (!tx.isCoinbase()) {
+                    for (TxIn tx_in : tx.getTxIns()) {
+                        var key = ByteBuffer.wrap(UtxoView.outpoint(tx_in.getPrevTxId(), tx_in.getPrevIndex()));
+                        if (created.remove(key) != null) continue;
+                        long slot = spent_keys.add(key) ? find(key.array(), tagOf(key.array())) : -1;
+                        if (slot < 0)
+                            throw new RuntimeException("Tx " + tx.getId() + " spends a missing output "
+                                    + Kit.bytesToHexString(tx_in.getPrevTxId()) + ":" + tx_in.getPrevIndex());
+                        spent.add(readRecord(table.value(slot)));
+                    }
+                }
+                var tx_id = Kit.hexStringToByteArray(tx.getId());
+                var tx_outs = tx.getTxOuts();
+                for (int i = 0; i < tx_outs.size(); i++)
+                    if (!isUnspendable(tx_outs.get(i).getScriptPubkeyBytes()))
+                        created.put(ByteBuffer.wrap(UtxoView.outpoint(tx_id, i)), tx_outs.get(i));
+            }
+            ensureCapacity(count + created.size());
+
+            var r = new UndoRecord();
+            r.prev = tip_undo;
+            r.height = height + 1;
+            r.block_hash = block.hash();
+            r.prev_hash = tip_hash;
+            r.created_keys = new byte[created.size()][];
+            r.created_values = new long[created.size()];
+            r.spent = spent.toArray(new byte[0][]);
+            int log_len = 0;
+            for (var tx_out : created.values())
+                log_len += recordLength(tx_out);
+            var records = ByteBuffer.allocate(log_len);
+            int k = 0;
+            for (var entry : created.entrySet()) {
+                int start = records.position();
+                putRecord(records, entry.getKey().array(), entry.getValue());
+                r.created_keys[k] = entry.getKey().array();
+                r.created_values[k++] = slotValue(log_end + start, records.position() - start);
+            }
+            writeFully(log, records.flip(), log_end);
+            var undo_record = r.serialize();
+            writeFully(undo, ByteBuffer.wrap(undo_record), undo_end);
+            log.force(false);
+            undo.force(false);
+
+            pending = undo_end;
+            log_end += log_len;
+            undo_end += undo_record.length;
+            table.begin();
+            for (byte[] record : r.spent)
+                remove(Arrays.copyOf(record, 36));
+            for (int i = 0; i < r.created_keys.length; i++)
+                put(r.created_keys[i], r.created_values[i]);
+            commit(STATE_APPLYING, table.end());
+            finishApply(r);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot apply block " + block.getHashHexString(), e);
+        }
+        if (needsCompaction())
+            compact();
+    }
+
+    // journals the slot changes, marks the header with state and changes the index
+    private void commit(int new_state, long[] changes) throws IOException {
+        writeJournal(changes);
+        state = new_state;
+        writeHeader();
+        table.apply(changes);
+        table.force();
+    }
+
+    // the header once the index holds the block of the undo record r
+    private void finishApply(UndoRecord r) throws IOException {
+        height = r.height;
+        tip_hash = r.block_hash;
+        tip_undo = pending;
+        pending = -1;
+        state = STATE_CLEAN;
+        writeHeader();
+    }
+
+    // takes the last block applied away, restoring the outputs it spent
+    public synchronized void undoBlock() {
+        if (height < 0)
+            throw new RuntimeException("No block to undo");
+        try {
+            var r = readUndo(tip_undo);
+            ensureCapacity(count + r.spent.length);
+            // the spent records are written again at the end of the log: compact() may
+            // have moved or dropped their first copy
+            int log_len = 0;
+            for (byte[] record : r.spent)
+                log_len += record.length;
+            var records = ByteBuffer.allocate(log_len);
+            for (byte[] record : r.spent)
+                records.put(record);
+            writeFully(log, records.flip(), log_end);
+            log.force(false);
+
+            pending = tip_undo;
+            pending_log = log_end;
+            log_end += log_len;
+            table.begin();
+            for (byte[] key : r.created_keys)
+                remove(key);
+            long offset = pending_log;
+            for (byte[] record : r.spent) {
+                put(Arrays.copyOf(record, 36), slotValue(offset, record.length));
+                offset += record.length;
+            }
+            commit(STATE_UNDOING, table.end());
+            finishUndo(r);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot undo block " + height, e);
+        }
+    }
+
+    // the header once the index no longer holds the block of the undo record r
+    private void finishUndo(UndoRecord r) throws IOException {
+        height = r.height - 1;
+        tip_hash = r.prev_hash;
+        tip_undo = r.prev;
+        undo_end = pending;
+        pending = -1;
+        state = STATE_CLEAN;
+        writeHeader();
+        undo.truncate(undo_end);
+    }
+
+    // completes the block interrupted by a crash from the journal, counting the entries again
+    private void recover() throws IOException {
+        if (state == STATE_CLEAN) return;
+        table.apply(readJournal());
+        table.force();
+        if (state == STATE_APPLYING)
+            finishApply(readUndo(pending));
+        else
+            finishUndo(readUndo(pending));
+        count = 0;
+        live_bytes = 0;
+        for (long i = 0; i < capacity; i++) {
+            if (table.tag(i) != 0) {
+                count++;
+                live_bytes += table.value(i) >>> 40;
+            }
+        }
+        writeHeader();
+    }
+
+    // OP_RETURN outputs and oversized scripts are never spent, as in Bitcoin Core
+    private static boolean isUnspendable(byte[] script_pubkey) {
+        return (script_pubkey.length > 0 && (script_pubkey[0] & 0xff) == 0x6a) || script_pubkey.length > MAX_SCRIPT_SIZE;
+    }
+
+    /***************************************************************************/
+    public synchronized boolean needsCompaction() {
+        return log_end >= MIN_COMPACT_SIZE && log_end - live_bytes > live_bytes;
+    }
+
+    // copies the live records into a new log, in the same order, and the index with their
+    // new offsets into a new index. The new generation replaces the old one when the header
+    // is written
+    public synchronized void compact() {
+        if (state != STATE_CLEAN)
+            throw new RuntimeException("Cannot compact the UTXO store while applying a block");
+        try {
+            table.force();
+            var new_log_path = logPath(log_gen + 1);
+            var new_idx_path = idxPath(idx_gen + 1);
+            Files.deleteIfExists(new_log_path);
+            Files.copy(idxPath(idx_gen), new_idx_path, StandardCopyOption.REPLACE_EXISTING);
+            var new_log = open(new_log_path);
+            var new_table = new SlotTable(open(new_idx_path), capacity);
+
+            var out = ByteBuffer.allocate(COPY_CHUNK);
+            long out_pos = 0;
+            var chunk = ByteBuffer.allocate(COPY_CHUNK);
+            long pos = 0;
+            while (pos < log_end) {
+                chunk.clear().limit((int) Math.min(chunk.capacity(), log_end - pos));
+                readFully(log, chunk, pos);
+                int p = 0;
+                while (p < chunk.limit()) {
+                    int len = recordLength(chunk, p);
+                    if (len < 0 || p + len > chunk.limit()) break;
+                    var key = new byte[36];
+                    chunk.duplicate().position(p).get(key);
+                    long slot = findOffset(key, pos + p);
+                    if (slot >= 0) {
+                        if (out.remaining() < len) {
+                            writeFully(new_log, out.flip(), out_pos);
+                            out_pos += out.limit();
+                            out.clear();
+                        }
+                        long new_offset = out_pos + out.position();
+                        if (len > out.capacity()) {
+                            writeFully(new_log, chunk.duplicate().limit(p + len).position(p), new_offset);
+                            out_pos += len;
+                        } else {
+                            out.put(chunk.duplicate().limit(p + len).position(p));
+                        }
+                        new_table.setValue(slot, slotValue(new_offset, len));
+                    }
+                    p += len;
+                }
+                // a record larger than the chunk, which must end within the log
+                if (p == 0) {
+                    int len = recordLength(chunk, 0);
+                    if (len <= RECORD_FIXED_LEN || len > log_end - pos)
+                        throw new IOException("Corrupted UTXO log at " + pos);
+                    chunk = ByteBuffer.allocate(len);
+                    continue;
+                }
+                pos += p;
+            }
+            writeFully(new_log, out.flip(), out_pos);
+            out_pos += out.limit();
+            new_log.force(false);
+            new_table.force();
+
+            var old_log = log;
+            var old_table = table;
+            log = new_log;
+            table = new_table;
+            log_gen++;
+            idx_gen++;
+            log_end = out_pos;
+            live_bytes = out_pos;
+            writeHeader();
+            old_log.close();
+            old_table.close();
+            deleteStale();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot compact the UTXO store in " + dir, e);
+        }
+    }
+
+    // doubles the index until n entries fill at most 3/4 of it
+    private void ensureCapacity(long n) throws IOException {
+        if (n <= capacity / 4 * 3) return;
+        long new_capacity = capacity;
+        while (n > new_capacity / 4 * 3)
+            new_capacity *= 2;
+        var new_idx_path = idxPath(idx_gen + 1);
+        Files.deleteIfExists(new_idx_path);
+        var new_table = new SlotTable(open(new_idx_path), new_capacity);
+        for (long i = 0; i < capacity; i++) {
+            long tag = table.tag(i);
+            if (tag != 0)
+                new_table.insert(tag, table.value(i));
+        }
+        new_table.force();
+
+        var old_table = table;
+        table = new_table;
+        capacity = new_capacity;
+        idx_gen++;
+        writeHeader();
+        old_table.close();
+        deleteStale();
+    }
+
+    /***************************************************************************/
+    private long tagOf(byte[] outpoint) {
+        long tag = SipHash.hash(k0, k1, outpoint);
+        return tag == 0 ? 1 : tag;
+    }
+
+    private static long slotValue(long offset, int len) {
+        if (len > MAX_RECORD_LEN)
+            throw new RuntimeException("UTXO record too long: " + len);
+        return offset | (long) len << 40;
+    }
+
+    // slot of outpoint, -1 if not in the set. The records are read only when the tags match
+    private long find(byte[] outpoint, long tag) throws IOException {
+        for (long i = table.home(tag); ; i = (i + 1) & table.mask) {
+            long t = table.tag(i);
+            if (t == 0) return -1;
+            if (t == tag && Arrays.equals(readRecord(table.value(i)), 0, 36, outpoint, 0, 36)) return i;
+        }
+    }
+
+    // slot of the record of outpoint at offset, -1 if that record was spent
+    private long findOffset(byte[] outpoint, long offset) {
+        long tag = tagOf(outpoint);
+        for (long i = table.home(tag); ; i = (i + 1) & table.mask) {
+            long t = table.tag(i);
+            if (t == 0) return -1;
+            if (t == tag && (table.value(i) & OFFSET_MASK) == offset) return i;
+        }
+    }
+
+    private void put(byte[] outpoint, long value) throws IOException {
+        long tag = tagOf(outpoint);
+        long slot = find(outpoint, tag);
+        if (slot >= 0) {
+            live_bytes -= table.value(slot) >>> 40;
+            table.setValue(slot, value);
+        } else {
+            table.insert(tag, value);
+            count++;
+        }
+        live_bytes += value >>> 40;
+    }
+
+    private void remove(byte[] outpoint) throws IOException {
+        long slot = find(outpoint, tagOf(outpoint));
+        if (slot < 0) return;
+        live_bytes -= table.value(slot) >>> 40;
+        table.remove(slot);
+        count--;
+    }
+
+    /***************************************************************************/
+    private static int recordLength(TxOut tx_out) {
+        int script_len = tx_out.getScriptPubkeyBytes().length;
+        return RECORD_FIXED_LEN + Kit.varintSize(script_len) + script_len;
+    }
+
+    // length of the record at p in buf, -1 if its header isn't all in buf
+    private static int recordLength(ByteBuffer buf, int p) {
+        if (p + RECORD_FIXED_LEN >= buf.limit()) return -1;
+        int varint_len = Kit.varintLength(buf.get(p + RECORD_FIXED_LEN));
+        if (p + RECORD_FIXED_LEN + varint_len > buf.limit()) return -1;
+        long script_len = Kit.readVarint(buf, p + RECORD_FIXED_LEN);
+        return (int) (RECORD_FIXED_LEN + varint_len + script_len);
+    }
+
+    private static void putRecord(ByteBuffer buf, byte[] outpoint, TxOut tx_out) {
+        buf.put(outpoint);
+        Kit.putInt64LE(buf, tx_out.getAmount());
+        var script = tx_out.getScriptPubkeyBytes();
+        Kit.putVarint(buf, script.length);
+        buf.put(script);
+    }
+
+    private byte[] readRecord(long value) throws IOException {
+        var record = ByteBuffer.allocate((int) (value >>> 40));
+        readFully(log, record, value & OFFSET_MASK);
+        return record.array();
+    }
+
+    /***************************************************************************/
+    // what a block changed: the outpoints and slot values of the outputs it created, and the
+    // records of the outputs it spent
+    private static class UndoRecord {
+        long prev;
+        int height;
+        byte[] block_hash;
+        byte[] prev_hash;
+        byte[][] created_keys;
+        long[] created_values;
+        byte[][] spent;
+
+        // the length (4 bytes), the fields and their CRC32 (4 bytes)
+        byte[] serialize() {
+            int len = 8 + 4 + 32 + 32 + Kit.varintSize(created_keys.length) + created_keys.length * 44
+                    + Kit.varintSize(spent.length);
+            for (byte[] record : spent)
+                len += record.length;
+            var buf = ByteBuffer.allocate(4 + len + 4).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(len).putLong(prev).putInt(height).put(block_hash).put(prev_hash);
+            Kit.putVarint(buf, created_keys.length);
+            for (int i = 0; i < created_keys.length; i++)
+                buf.put(created_keys[i]).putLong(created_values[i]);
+            Kit.putVarint(buf, spent.length);
+            for (byte[] record : spent)
+                buf.put(record);
+            buf.putInt(crc(buf.array(), 4, len));
+            return buf.array();
+        }
+
+        static UndoRecord parse(ByteBuffer buf) {
+            var r = new UndoRecord();
+            r.prev = buf.getLong();
+            r.height = buf.getInt();
+            r.block_hash = new byte[32];
+            buf.get(r.block_hash);
+            r.prev_hash = new byte[32];
+            buf.get(r.prev_hash);
+            int n = (int) Kit.readVarint(buf);
+            r.created_keys = new byte[n][36];
+            r.created_values = new long[n];
+            for (int i = 0; i < n; i++) {
+                buf.get(r.created_keys[i]);
+                r.created_values[i] = buf.getLong();
+            }
+            n = (int) Kit.readVarint(buf);
+            r.spent = new byte[n][];
+            for (int i = 0; i < n; i++) {
+                int len = recordLength(buf, buf.position());
+                r.spent[i] = new byte[len];
+                buf.get(r.spent[i]);
+            }
+            return r;
+        }
+    }
+
+    private UndoRecord readUndo(long offset) throws IOException {
+        var len = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(undo, len, offset);
+        var body = ByteBuffer.allocate(len.getInt(0) + 4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(undo, body, offset + 4);
+        if (body.getInt(body.capacity() - 4) != crc(body.array(), 0, body.capacity() - 4))
+            throw new IOException("Corrupted UTXO undo record at " + offset);
+        return UndoRecord.parse(body.flip().limit(body.capacity() - 4));
+    }
+
+    // the undo record offset of the block (8 bytes), the number of slots (4 bytes), the
+    // slot, tag and value of each (24 bytes) and the CRC32 of all that (4 bytes)
+    private void writeJournal(long[] changes) throws IOException {
+        int n = changes.length / 3;
+        var buf = ByteBuffer.allocate(8 + 4 + n * 24 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(pending).putInt(n);
+        for (long v : changes)
+            buf.putLong(v);
+        buf.putInt(crc(buf.array(), 0, buf.capacity() - 4));
+        journal.truncate(0);
+        writeFully(journal, buf.flip(), 0);
+        journal.force(false);
+    }
+
+    private long[] readJournal() throws IOException {
+        var len = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(journal, len, 0);
+        int n = len.getInt(8);
+        if (len.getLong(0) != pending || n < 0 || journal.size() != 8 + 4 + n * 24L + 4)
+            throw new IOException("Corrupted UTXO journal in " + dir);
+        var buf = ByteBuffer.allocate(8 + 4 + n * 24 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(journal, buf, 0);
+        if (buf.getInt(buf.capacity() - 4) != crc(buf.array(), 0, buf.capacity() - 4))
+            throw new IOException("Corrupted UTXO journal in " + dir);
+        var changes = new long[n * 3];
+        buf.position(12);
+        for (int i = 0; i < changes.length; i++)
+            changes[i] = buf.getLong();
+        return changes;
+    }
+
+    private static int crc(byte[] b, int off, int len) {
+        var crc = new CRC32();
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+
+    /***************************************************************************/
+    // the valid slot with the highest sequence number, false if none
+    private boolean readHeader() throws IOException {
+        if (head.size() < HEADER_SLOT + HEADER_LEN) return false;
+        var slots = ByteBuffer.allocate(HEADER_SLOT + HEADER_LEN).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(head, slots, 0);
+        int best = -1;
+        for (int s = 0; s < 2; s++) {
+            int base = s * HEADER_SLOT;
+            if (slots.getInt(base) != MAGIC || slots.getInt(base + HEADER_LEN - 4) != crc(slots.array(), base, HEADER_LEN - 4))
+                continue;
+            if (best < 0 || slots.getLong(base + 8) > slots.getLong(best + 8))
+                best = base;
+        }
+        if (best < 0) return false;
+        var buf = slots.position(best);
+        buf.getInt();
+        if (buf.getInt() != VERSION)
+            throw new RuntimeException("Unknown UTXO store version in " + dir);
+        seq = buf.getLong();
+        state = buf.getInt();
+        height = buf.getInt();
+        buf.get(tip_hash);
+        count = buf.getLong();
+        capacity = buf.getLong();
+        log_gen = buf.getInt();
+        idx_gen = buf.getInt();
+        log_end = buf.getLong();
+        undo_end = buf.getLong();
+        tip_undo = buf.getLong();
+        pending = buf.getLong();
+        pending_log = buf.getLong();
+        live_bytes = buf.getLong();
+        k0 = buf.getLong();
+        k1 = buf.getLong();
+        return true;
+    }
+
+    // into the slot not holding the last header, so that a torn write leaves that one valid
+    private void writeHeader() throws IOException {
+        seq++;
+        var buf = ByteBuffer.allocate(HEADER_LEN).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(seq).putInt(state).putInt(height).put(tip_hash)
+                .putLong(count).putLong(capacity).putInt(log_gen).putInt(idx_gen)
+                .putLong(log_end).putLong(undo_end).putLong(tip_undo).putLong(pending).putLong(pending_log)
+                .putLong(live_bytes).putLong(k0).putLong(k1);
+        buf.putInt(crc(buf.array(), 0, HEADER_LEN - 4));
+        writeFully(head, buf.flip(), (seq & 1) * HEADER_SLOT);
+        head.force(true);
+    }
+
+    /***************************************************************************/
+    private Path logPath(int gen) {
+        return dir.resolve("utxo." + gen + ".log");
+    }
+
+    private Path idxPath(int gen) {
+        return dir.resolve("utxo." + gen + ".idx");
+    }
+
+    // logs and indexes of the other generations, left by a compaction or a resize
+    private void deleteStale() throws IOException {
+        try (var files = Files.newDirectoryStream(dir, "utxo.*.{log,idx}")) {
+            for (Path file : files) {
+                var name = file.getFileName().toString();
+                if (!name.equals(logPath(log_gen).getFileName().toString())
+                        && !name.equals(idxPath(idx_gen).getFileName().toString()))
+                    Files.delete(file);
+            }
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return new RandomAccessFile(file.toFile(), "rw").getChannel();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        table.close();
+        log.close();
+        undo.close();
+        journal.close();
+        head.close();
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int r = ch.read(buf, pos);
+            if (r < 0) throw new IOException("Unexpected end of file");
+            pos += r;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining())
+            pos += ch.write(buf, pos);
+    }
+
+    /***************************************************************************/
+    // the index file mapped in segments, a MappedByteBuffer being limited to 2 GB
+    private static final class SlotTable {
+        private final FileChannel ch;
+        private final MappedByteBuffer[] segments;
+        private final int segment_shift;
+        private final long segment_mask;
+        final long mask;
+        // between begin() and end() the changes go here, slot -> {tag, value}, and not
+        // to the mapped file
+        private LinkedHashMap<Long, long[]> changes = null;
+
+        SlotTable(FileChannel ch, long capacity) throws IOException {
+            this.ch = ch;
+            int segment_slots = (int) Math.min(capacity, SEGMENT_SLOTS);
+            segments = new MappedByteBuffer[(int) (capacity / segment_slots)];
+            for (int s = 0; s < segments.length; s++)
+                segments[s] = ch.map(FileChannel.MapMode.READ_WRITE, (long) s * segment_slots * SLOT_LEN,
+                        (long) segment_slots * SLOT_LEN);
+            segment_shift = Integer.numberOfTrailingZeros(segment_slots);
+            segment_mask = segment_slots - 1;
+            mask = capacity - 1;
+        }
+
+        long home(long tag) {
+            return tag & mask;
+        }
+
+        long tag(long slot) {
+            if (changes != null) {
+                var changed = changes.get(slot);
+                if (changed != null) return changed[0];
+            }
+            return segments[(int) (slot >>> segment_shift)].getLong((int) (slot & segment_mask) * SLOT_LEN);
+        }
+
+        long value(long slot) {
+            if (changes != null) {
+                var changed = changes.get(slot);
+                if (changed != null) return changed[1];
+            }
+            return segments[(int) (slot >>> segment_shift)].getLong((int) (slot & segment_mask) * SLOT_LEN + 8);
+        }
+
+        void set(long slot, long tag, long value) {
+            if (changes != null) {
+                changes.put(slot, new long[] {tag, value});
+                return;
+            }
+            var segment = segments[(int) (slot >>> segment_shift)];
+            int pos = (int) (slot & segment_mask) * SLOT_LEN;
+            segment.putLong(pos, tag);
+            segment.putLong(pos + 8, value);
+        }
+
+        void setValue(long slot, long value) {
+            if (changes != null)
+                set(slot, tag(slot), value);
+            else
+                segments[(int) (slot >>> segment_shift)].putLong((int) (slot & segment_mask) * SLOT_LEN + 8, value);
+        }
+
+        void begin() {
+            changes = new LinkedHashMap<>();
+        }
+
+        // the slot, tag and value of every slot changed since begin(), left unchanged in the file
+        long[] end() {
+            var out = new long[changes.size() * 3];
+            int k = 0;
+            for (var entry : changes.entrySet()) {
+                out[k++] = entry.getKey();
+                out[k++] = entry.getValue()[0];
+                out[k++] = entry.getValue()[1];
+            }
+            changes = null;
+            return out;
+        }
+
+        // writes the slots returned by end(), which can be repeated
+        void apply(long[] slots) {
+            for (int k = 0; k < slots.length; k += 3)
+                set(slots[k], slots[k + 1], slots[k + 2]);
+        }
+
+        // into the first empty slot from the home of tag
+        void insert(long tag, long value) {
+            long i = home(tag);
+            while (tag(i) != 0)
+                i = (i + 1) & mask;
+            set(i, tag, value);
+        }
+
+        // backward shift deletion: the entries after the slot move back when their home
+        // allows it, so that no probe sequence is broken and no tombstones are needed
+        void remove(long slot) {
+            long i = slot;
+            long j = slot;
+            while (true) {
+                j = (j + 1) & mask;
+                long t = tag(j);
+                if (t == 0) break;
+                long k = home(t);
+                boolean stays = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+                if (!stays) {
+                    set(i, t, value(j));
+                    i = j;
+                }
+            }
+            set(i, 0, 0);
+        }
+
+        void force() {
+            for (var segment : segments)
+                segment.force();
+        }
+
+        // the mappings are released only when the buffers are collected: the references are
+        // dropped here, yet after a resize or a compaction the old index may stay mapped next
+        // to the new one until the next GC, taking address space for the size of the old index
+        void close() throws IOException {
+            force();
+            Arrays.fill(segments, null);
+            ch.close();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package bitcoffee;
+
+// Source of the outputs spent by the inputs being validated: the amount and the script
+// pubkey by outpoint. Tx resolves all of its inputs through a view at once, before running
+// any script, so that the validation never waits on the network or the disk halfway.
+// Only UtxoStore tracks which outputs are spent: the other views return any output they
+// know, so only a UtxoStore catches a double spend
+public interface UtxoView {
+
+    // the output at prev_index of the tx prev_tx_id (display order, as in TxIn), null if
+    // unknown. Whether a known output was spent is up to the view, see above
+    TxOut getOutput(byte[] prev_tx_id, long prev_index);
+
+    default TxOut getOutput(TxIn tx_in) {
+        return getOutput(tx_in.getPrevTxId(), tx_in.getPrevIndex());
+    }
+
+    // the 36 bytes outpoint as serialized in the inputs: the tx hash (internal order) and
+    // the index, little endian
+    static byte[] outpoint(byte[] prev_tx_id, long prev_index) {
+        var outpoint = new byte[36];
+        for (int i = 0; i < 32; i++)
+            outpoint[i] = prev_tx_id[31 - i];
+        Kit.writeInt32LE(outpoint, 32, prev_index);
+        return outpoint;
+    }
+}
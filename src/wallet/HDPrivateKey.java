@@ -127,25 +127,9 @@ public class HDPrivateKey {
     /*Returns the child HDPrivateKey at a particular index.
     Hardened children return for indices >= 0x8000000. */
     public HDPrivateKey child(long index) {
-        byte[] data;
+        var h = childHmac(index);
 
-        byte[] data1;
-        var data2 = Kit.intToBigEndian(BigInteger.valueOf(index),4);
-        if (index>= 0x80000000) {
-
-            data1 = Kit.intToBigEndian(this.private_key.secret_n, 33);
-
-            int i = 10;
-
-        }
-        else {
-            data1 = Kit.hexStringToByteArray(this.private_key.point.SEC33());
-        }
-        data = Kit.concatBytes(data1,data2);
-
-        var h = hmac_sha512(this.chain_code,data);
-
-        data1 = Arrays.copyOfRange(h,0,32);
+        var data1 = Arrays.copyOfRange(h,0,32);
         var secret = new BigInteger(1,data1).add(this.private_key.secret_n).mod(Secp256k1.N);
 
         var privatekey = new PrivateKey(secret);
@@ -158,6 +142,40 @@ public class HDPrivateKey {
 
     }
 
+    /*Returns count consecutive children starting at index start.
+    The public keys are derived together, sharing a single field inversion. */
+    public HDPrivateKey[] children(long start, int count) {
+        var secrets = new BigInteger[count];
+        var chain_codes = new byte[count][];
+        for (int i=0;i<count;i++) {
+            var h = childHmac(start+i);
+            secrets[i] = new BigInteger(1,Arrays.copyOfRange(h,0,32)).add(this.private_key.secret_n).mod(Secp256k1.N);
+            chain_codes[i] = Arrays.copyOfRange(h,32,h.length);
+        }
+        var keys = PrivateKey.fromSecrets(secrets);
+
+        var fingerprint = Kit.bytesToHexString(this.fingerprint());
+        var result = new HDPrivateKey[count];
+        for (int i=0;i<count;i++)
+            result[i] = new HDPrivateKey(keys[i],chain_codes[i],this.depth+1,fingerprint,start+i,this.testnet,this.priv_version,this.pub.pub_version);
+        return result;
+    }
+
+    // HMAC-SHA512 of the child derivation: the first 32 bytes tweak the secret, the others are the chain code
+    private byte[] childHmac(long index) {
+        byte[] data1;
+        var data2 = Kit.intToBigEndian(BigInteger.valueOf(index),4);
+        if (index>= 0x80000000L) {
+            data1 = Kit.intToBigEndian(this.private_key.secret_n, 33);
+        }
+        else {
+            data1 = Kit.hexStringToByteArray(this.private_key.point.SEC33());
+        }
+        var data = Kit.concatBytes(data1,data2);
+
+        return hmac_sha512(this.chain_code,data);
+    }
+
     public byte[] fingerprint() {
         return this.pub.fingerprint();
     }